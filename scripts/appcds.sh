@@ -0,0 +1,69 @@
+#!/usr/bin/env bash
+#
+# Creates an AppCDS archive of the classes the application loads with the startup profile up to
+# its first requests, so that later JVMs map them from the archive instead of loading them.
+#
+#   mvn package && JAVA_HOME=/path/to/jdk11+ scripts/appcds.sh
+#
+# AppCDS of application classes needs JDK 11 or later at runtime (the application is built for
+# Java 8), and only archives classes of plain jar files: the Spring Boot jar is exploded into
+# target/cds, with the application classes in a jar of their own. The command to start the
+# application on the archive is written to target/cds/command, one argument per line.
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+JAVA="${JAVA_HOME:+$JAVA_HOME/bin/}java"
+MAIN_CLASS=com.boroda.kubernetes.demo.DemoApplication
+PORT="${APPCDS_TRAINING_PORT:-18080}"
+OUT="$PWD/target/cds"
+
+version=$("$JAVA" -XshowSettings:properties -version 2>&1 | awk -F'= ' '/java.specification.version/ {print $2}')
+if [[ "$version" == 1.* || "$version" -lt 11 ]]; then
+  echo "AppCDS of application classes needs JDK 11 or later, $JAVA is $version" >&2
+  exit 1
+fi
+
+jar=$(ls target/*.jar 2>/dev/null | grep -v '\.original$' | head -n 1 || true)
+if [[ -z "$jar" ]]; then
+  echo "No jar in target, run mvn package first" >&2
+  exit 1
+fi
+
+rm -rf "$OUT"
+mkdir -p "$OUT/app"
+unzip -q "$jar" -d "$OUT/app"
+if [[ -x "${JAVA_HOME:-}/bin/jar" ]]; then JAR_TOOL="$JAVA_HOME/bin/jar"; else JAR_TOOL=jar; fi
+"$JAR_TOOL" cf "$OUT/classes.jar" -C "$OUT/app/BOOT-INF/classes" .
+classpath="$OUT/classes.jar"
+for lib in "$OUT"/app/BOOT-INF/lib/*.jar; do
+  classpath="$classpath:$lib"
+done
+
+echo "Training run on port $PORT"
+"$JAVA" -Xshare:off -XX:DumpLoadedClassList="$OUT/classes.lst" -cp "$classpath" "$MAIN_CLASS" \
+  --spring.profiles.active=startup --server.port="$PORT" > "$OUT/training.log" 2>&1 &
+pid=$!
+trap 'kill $pid 2>/dev/null || true' EXIT
+for _ in $(seq 1 600); do
+  if curl -sf "http://localhost:$PORT/cluster/traces" > /dev/null; then
+    break
+  fi
+  if ! kill -0 "$pid" 2>/dev/null; then
+    echo "Training run exited, see $OUT/training.log" >&2
+    exit 1
+  fi
+  sleep 0.2
+done
+curl -sf "http://localhost:$PORT/actuator/health" > /dev/null
+curl -sf "http://localhost:$PORT/actuator/prometheus" > /dev/null
+kill "$pid"
+wait "$pid" || true
+trap - EXIT
+
+"$JAVA" -Xshare:dump -XX:SharedClassListFile="$OUT/classes.lst" -XX:SharedArchiveFile="$OUT/app.jsa" \
+  -cp "$classpath" > "$OUT/dump.log" 2>&1
+printf '%s\n' "$JAVA" "-XX:SharedArchiveFile=$OUT/app.jsa" "-Xshare:auto" -cp "$classpath" "$MAIN_CLASS" \
+  > "$OUT/command"
+
+echo "Archived $(wc -l < "$OUT/classes.lst") classes in $OUT/app.jsa"
+echo "Start the application with the arguments in $OUT/command and --spring.profiles.active=startup"
@@ -0,0 +1,121 @@
+package com.boroda.kubernetes.demo.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import com.boroda.kubernetes.demo.model.ClusterCredentials;
+
+import org.springframework.util.StreamUtils;
+
+import io.fabric8.kubernetes.api.model.IntOrString;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.ReplicationController;
+import io.fabric8.kubernetes.api.model.ReplicationControllerBuilder;
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.api.model.ServiceBuilder;
+import io.fabric8.kubernetes.api.model.ServiceList;
+import io.fabric8.kubernetes.api.model.ServiceListBuilder;
+
+/**
+ * Objects shaped like the ones the application handles: GKE credentials with certificate data,
+ * and the RCs and services created by {@code run-test}.
+ */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Credentials as returned by GKE: base64-encoded PEM certificates and key, generated once for
+     * the benchmarks, plus basic auth and an OAuth token.
+     */
+    static ClusterCredentials credentials(String masterUrl) {
+        return ClusterCredentials.builder()
+            .masterUrl(masterUrl)
+            .caCertData(base64Resource("credentials/ca.crt"))
+            .clientKey(base64Resource("credentials/client.key"))
+            .clientCertificate(base64Resource("credentials/client.crt"))
+            .username("admin")
+            .password("0123456789abcdef")
+            .oauthToken("ya29." + randomBase64(new Random(42), 120))
+            .build();
+    }
+
+    static ReplicationController replicationController(String name) {
+        return new ReplicationControllerBuilder()
+            .withNewMetadata().withName(name).withNamespace("thisisatest")
+            .addToLabels("server", "nginx").addToLabels("new", "label")
+            .withResourceVersion("123456").withUid("7f3e9c2a-8b1d-11e9-bc42-526af7764f64")
+            .withCreationTimestamp("2019-06-01T12:00:00Z")
+            .endMetadata()
+            .withNewSpec().withReplicas(3)
+            .addToSelector("server", "nginx")
+            .withNewTemplate()
+            .withNewMetadata().addToLabels("server", "nginx").endMetadata()
+            .withNewSpec()
+            .addNewContainer().withName("nginx").withImage("nginx:1.17")
+            .addNewPort().withContainerPort(80).withProtocol("TCP").endPort()
+            .withNewResources()
+            .addToRequests("cpu", new Quantity("100m")).addToRequests("memory", new Quantity("128Mi"))
+            .addToLimits("cpu", new Quantity("500m")).addToLimits("memory", new Quantity("256Mi"))
+            .endResources()
+            .addNewEnv().withName("ENVIRONMENT").withValue("benchmark").endEnv()
+            .endContainer()
+            .endSpec()
+            .endTemplate()
+            .endSpec()
+            .withNewStatus().withReplicas(3).withReadyReplicas(3).withObservedGeneration(2L).endStatus()
+            .build();
+    }
+
+    static Service service(String name, int index) {
+        return new ServiceBuilder()
+            .withNewMetadata().withName(name).withNamespace("default")
+            .addToLabels("app", name).addToLabels("tier", index % 2 == 0 ? "frontend" : "backend")
+            .withResourceVersion(String.valueOf(100000 + index))
+            .withUid("5c1b7a4e-8b1d-11e9-bc42-" + String.format("%012d", index))
+            .withCreationTimestamp("2019-06-01T12:00:00Z")
+            .endMetadata()
+            .withNewSpec()
+            .withType("ClusterIP")
+            .withClusterIP("10." + (index >> 16 & 255) + "." + (index >> 8 & 255) + "." + (index & 255))
+            .addToSelector("app", name)
+            .addNewPort().withName("http").withPort(80).withTargetPort(new IntOrString(8080)).withProtocol("TCP")
+            .endPort()
+            .addNewPort().withName("https").withPort(443).withTargetPort(new IntOrString(8443)).withProtocol("TCP")
+            .endPort()
+            .endSpec()
+            .build();
+    }
+
+    static ServiceList serviceList(int size) {
+        List<Service> services = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            services.add(service("service-" + i, i));
+        }
+        return new ServiceListBuilder().withNewMetadata().withResourceVersion("200000").endMetadata()
+            .withItems(services).build();
+    }
+
+    private static String base64Resource(String name) {
+        try (InputStream in = BenchmarkFixtures.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing benchmark resource " + name);
+            }
+            return Base64.getEncoder().encodeToString(StreamUtils.copyToByteArray(in));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String randomBase64(Random random, int bytes) {
+        byte[] data = new byte[bytes];
+        random.nextBytes(data);
+        return Base64.getEncoder().encodeToString(data);
+    }
+}
@@ -0,0 +1,113 @@
+package com.boroda.kubernetes.demo.benchmark;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.boroda.kubernetes.demo.factory.KubernetesClientFactory;
+import com.boroda.kubernetes.demo.model.ClusterCredentials;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.fabric8.kubernetes.api.model.NamespaceBuilder;
+import io.fabric8.kubernetes.api.model.NamespaceList;
+import io.fabric8.kubernetes.client.AutoAdaptableKubernetesClient;
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.server.mock.KubernetesCrudDispatcher;
+import io.fabric8.kubernetes.client.server.mock.KubernetesMockServer;
+import io.fabric8.kubernetes.client.utils.HttpClientUtils;
+import io.fabric8.mockwebserver.Context;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+
+/**
+ * Cost of building the client configuration and the client itself, per request as the controller
+ * used to do, compared with reusing a shared client or a shared OkHttp client. Requests go to a
+ * local mock API server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientConstructionBenchmark {
+
+    private KubernetesMockServer server;
+    private ClusterCredentials credentials;
+    private Config config;
+    private OkHttpClient sharedHttpClient;
+    private KubernetesClient sharedClient;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Plain HTTP CRUD server: KubernetesServer always enables TLS in CRUD mode
+        server = new KubernetesMockServer(new Context(), new MockWebServer(), new HashMap<>(),
+            new KubernetesCrudDispatcher(), false);
+        server.init();
+        try (KubernetesClient client = server.createClient()) {
+            for (int i = 0; i < 20; i++) {
+                client.namespaces().create(new NamespaceBuilder().withNewMetadata()
+                    .withName("namespace-" + i).addToLabels("this", "rocks").endMetadata().build());
+            }
+            credentials = BenchmarkFixtures.credentials(client.getMasterUrl().toString());
+        }
+        config = new KubernetesClientFactory(credentials).create().getConfiguration();
+        sharedHttpClient = HttpClientUtils.createHttpClient(config);
+        sharedClient = new AutoAdaptableKubernetesClient(sharedHttpClient, config);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sharedClient.close();
+        server.destroy();
+    }
+
+    /**
+     * {@code KubernetesClientFactory.buildDefaultConfig}, which runs on every factory construction.
+     */
+    @Benchmark
+    public KubernetesClientFactory buildDefaultConfig() {
+        return new KubernetesClientFactory(credentials);
+    }
+
+    @Benchmark
+    public Config newClient() {
+        try (KubernetesClient client = new AutoAdaptableKubernetesClient(config)) {
+            return client.getConfiguration();
+        }
+    }
+
+    @Benchmark
+    public Config newClientOnSharedHttpClient() {
+        KubernetesClient client = new AutoAdaptableKubernetesClient(sharedHttpClient, config);
+        return client.getConfiguration();
+    }
+
+    /**
+     * Factory, new client and one list call: what {@code get-namespaces} cost before clients were
+     * shared.
+     */
+    @Benchmark
+    public NamespaceList newFactoryClientAndList() {
+        try (KubernetesClient client = new KubernetesClientFactory(credentials).create()) {
+            return client.namespaces().list();
+        }
+    }
+
+    @Benchmark
+    public NamespaceList sharedClientList() {
+        return sharedClient.namespaces().list();
+    }
+}
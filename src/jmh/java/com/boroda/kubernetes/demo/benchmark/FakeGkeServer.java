@@ -0,0 +1,233 @@
+package com.boroda.kubernetes.demo.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.container.model.Cluster;
+import com.google.api.services.container.model.CreateClusterRequest;
+import com.google.api.services.container.model.ListClustersResponse;
+import com.google.api.services.container.model.MasterAuth;
+import com.google.api.services.container.model.Operation;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The part of the Google Container API and of the OAuth token endpoint that the application calls,
+ * served from memory over plain HTTP: clusters get, list and create, and operations get. Every
+ * cluster's endpoint is the given Kubernetes API server. A created cluster is provisioning until its
+ * operation has been polled {@code pollsUntilDone} times.
+ *
+ * <p>Point the application at it with {@code k8s.gcp.root_url} and a key file whose {@code token_uri}
+ * is {@link #getTokenUri()}. Tokens and signatures are not checked.
+ */
+final class FakeGkeServer implements AutoCloseable {
+
+    private static final Pattern CLUSTERS = Pattern.compile("/v1/projects/([^/]+)/zones/([^/]+)/clusters/?([^/]*)");
+    private static final Pattern OPERATION = Pattern.compile("/v1/projects/([^/]+)/zones/([^/]+)/operations/([^/]+)");
+    private static final JsonFactory JSON = JacksonFactory.getDefaultInstance();
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String endpoint;
+    private final int pollsUntilDone;
+    private final Map<String, Cluster> clusters = new ConcurrentHashMap<>();
+    private final Map<String, String> operationClusters = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> operationPolls = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> calls = new ConcurrentHashMap<>();
+    private final AtomicInteger operationIds = new AtomicInteger();
+
+    /**
+     * @param endpoint the Kubernetes API server of every cluster, as GKE reports it: host and port
+     */
+    FakeGkeServer(String endpoint, int pollsUntilDone) throws IOException {
+        this.endpoint = endpoint;
+        this.pollsUntilDone = pollsUntilDone;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(8, runnable -> {
+            Thread thread = new Thread(runnable, "fake-gke-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * Adds a running cluster.
+     */
+    void addCluster(String zone, String name) {
+        clusters.put(zone + "/" + name, cluster(zone, name, "RUNNING"));
+    }
+
+    String getRootUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    String getTokenUri() {
+        return getRootUrl() + "token";
+    }
+
+    /**
+     * Number of requests served, by method and route.
+     */
+    Map<String, Long> getCalls() {
+        Map<String, Long> counts = new TreeMap<>();
+        calls.forEach((route, count) -> counts.put(route, count.get()));
+        return counts;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        // the Google client gzips request bodies
+        try (InputStream body = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+            ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody()) {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/token")) {
+                count(method + " token");
+                GenericJson token = new GenericJson();
+                token.put("access_token", "ya29.fake-" + System.nanoTime());
+                token.put("token_type", "Bearer");
+                token.put("expires_in", 3600);
+                respond(exchange, 200, token);
+                return;
+            }
+            Matcher operation = OPERATION.matcher(path);
+            if (operation.matches() && method.equals("GET")) {
+                count("GET operation");
+                getOperation(exchange, operation.group(2), operation.group(3));
+                return;
+            }
+            Matcher cluster = CLUSTERS.matcher(path);
+            if (cluster.matches()) {
+                String zone = cluster.group(2);
+                String name = cluster.group(3);
+                if (method.equals("GET") && name.isEmpty()) {
+                    count("GET clusters");
+                    listClusters(exchange, zone);
+                    return;
+                }
+                if (method.equals("GET")) {
+                    count("GET cluster");
+                    getCluster(exchange, zone, name);
+                    return;
+                }
+                if (method.equals("POST") && name.isEmpty()) {
+                    count("POST clusters");
+                    createCluster(exchange, zone, JSON.fromInputStream(body, StandardCharsets.UTF_8,
+                        CreateClusterRequest.class));
+                    return;
+                }
+            }
+            count(method + " unknown");
+            respond(exchange, 404, error(404, "No route for " + method + " " + path));
+        } catch (RuntimeException e) {
+            respond(exchange, 500, error(500, String.valueOf(e)));
+        }
+    }
+
+    private void getCluster(HttpExchange exchange, String zone, String name) throws IOException {
+        Cluster cluster = clusters.get(zone + "/" + name);
+        if (cluster == null) {
+            respond(exchange, 404, error(404, "Cluster " + name + " not found in " + zone));
+        } else {
+            respond(exchange, 200, cluster);
+        }
+    }
+
+    private void listClusters(HttpExchange exchange, String zone) throws IOException {
+        List<Cluster> found = new ArrayList<>();
+        for (Cluster cluster : clusters.values()) {
+            if (zone.equals("-") || zone.equals(cluster.getZone())) {
+                found.add(cluster);
+            }
+        }
+        respond(exchange, 200, new ListClustersResponse().setClusters(found));
+    }
+
+    private void createCluster(HttpExchange exchange, String zone, CreateClusterRequest request) throws IOException {
+        String name = request.getCluster().getName();
+        if (clusters.putIfAbsent(zone + "/" + name, cluster(zone, name, "PROVISIONING")) != null) {
+            respond(exchange, 409, error(409, "Cluster " + name + " already exists"));
+            return;
+        }
+        String id = "operation-" + operationIds.incrementAndGet();
+        operationClusters.put(id, zone + "/" + name);
+        operationPolls.put(id, new AtomicInteger());
+        respond(exchange, 200, operation(id, zone, "RUNNING"));
+    }
+
+    private void getOperation(HttpExchange exchange, String zone, String id) throws IOException {
+        AtomicInteger polls = operationPolls.get(id);
+        if (polls == null) {
+            respond(exchange, 404, error(404, "Operation " + id + " not found"));
+            return;
+        }
+        if (polls.incrementAndGet() < pollsUntilDone) {
+            respond(exchange, 200, operation(id, zone, "RUNNING"));
+            return;
+        }
+        clusters.computeIfPresent(operationClusters.get(id), (key, cluster) -> cluster.setStatus("RUNNING"));
+        respond(exchange, 200, operation(id, zone, "DONE"));
+    }
+
+    private Cluster cluster(String zone, String name, String status) {
+        return new Cluster()
+            .setName(name)
+            .setZone(zone)
+            .setStatus(status)
+            .setEndpoint(endpoint)
+            .setMasterAuth(new MasterAuth());
+    }
+
+    private static Operation operation(String id, String zone, String status) {
+        return new Operation().setName(id).setZone(zone).setOperationType("CREATE_CLUSTER").setStatus(status);
+    }
+
+    private static GenericJson error(int code, String message) {
+        GenericJson error = new GenericJson();
+        error.put("code", code);
+        error.put("message", message);
+        GenericJson wrapper = new GenericJson();
+        wrapper.put("error", error);
+        return wrapper;
+    }
+
+    private void count(String route) {
+        calls.computeIfAbsent(route, key -> new AtomicLong()).incrementAndGet();
+    }
+
+    private static void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = JSON.toByteArray(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
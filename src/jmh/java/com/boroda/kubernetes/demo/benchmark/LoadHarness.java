@@ -0,0 +1,473 @@
+package com.boroda.kubernetes.demo.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+import com.boroda.kubernetes.demo.DemoApplication;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import io.fabric8.kubernetes.api.model.NamespaceBuilder;
+import io.fabric8.kubernetes.api.model.ServiceBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+
+/**
+ * Load test of the /cluster endpoints without Google or a real cluster. Starts a fabric8 mock API
+ * server seeded with namespaces and services, a {@link FakeGkeServer} whose clusters all point at
+ * it, and the application in this JVM, configured with a throwaway service account key. Then drives
+ * the endpoints from {@code concurrency} threads, each request after the previous one, for a warmup
+ * and a measured period.
+ *
+ * <p>Arguments are {@code key=value}: concurrency (16), warmup_s (10), duration_s (30), clusters (2),
+ * namespaces (20), services per namespace (50), and endpoints (services,namespaces,fan-out), a
+ * comma-separated list of {@link #ENDPOINTS}. Arguments starting with {@code --} go to the application,
+ * e.g. {@code --k8s.execution.mode=async}.
+ *
+ * <p>Throughput, latency percentiles and the allocation rate of the application threads are written
+ * to {@code target/load/results.json} and {@code target/load/results.csv}.
+ */
+public class LoadHarness {
+
+    private static final File OUTPUT = new File("target/load");
+
+    /**
+     * Request paths by endpoint name, for the n-th request of the run.
+     */
+    private static final Map<String, Endpoint> ENDPOINTS = new LinkedHashMap<>();
+
+    static {
+        ENDPOINTS.put("services", (n, load) -> "/cluster/get-services?cluster_name=" + load.cluster(n)
+            + "&namespace=" + load.namespace(n));
+        ENDPOINTS.put("services-consistent", (n, load) -> "/cluster/get-services?cluster_name=" + load.cluster(n)
+            + "&namespace=" + load.namespace(n) + "&consistent=true");
+        ENDPOINTS.put("services-projected", (n, load) -> "/cluster/get-services?cluster_name=" + load.cluster(n)
+            + "&namespace=" + load.namespace(n) + "&fields=name,clusterIP");
+        ENDPOINTS.put("namespaces", (n, load) -> "/cluster/get-namespaces?cluster_name=" + load.cluster(n));
+        ENDPOINTS.put("fan-out", (n, load) -> "/cluster/fan-out/services?all=true&namespace=" + load.namespace(n));
+        ENDPOINTS.put("create-cluster", (n, load) -> "/cluster/create-default?cluster_name=created-" + n);
+        ENDPOINTS.put("services-conditional", ENDPOINTS.get("services"));
+        ENDPOINTS.put("namespaces-conditional", ENDPOINTS.get("namespaces"));
+        ENDPOINTS.put("services-gzip", ENDPOINTS.get("services"));
+    }
+
+    /**
+     * Endpoints requested with the ETag of the previous response to the same path, as a polling client would.
+     */
+    private static final Set<String> CONDITIONAL = new HashSet<>(Arrays.asList("services-conditional",
+        "namespaces-conditional"));
+    /**
+     * Endpoints requested with {@code Accept-Encoding: gzip}.
+     */
+    private static final Set<String> GZIP = Collections.singleton("services-gzip");
+
+    @FunctionalInterface
+    private interface Endpoint {
+        String path(long n, LoadHarness load);
+    }
+
+    private final int concurrency;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final int clusters;
+    private final int namespaces;
+    private final int services;
+    private final List<String> endpoints;
+    private final List<String> applicationArgs;
+    // shared by warmup and measurement, so that created clusters get new names
+    private final AtomicLong counter = new AtomicLong();
+
+    private LoadHarness(Map<String, String> options, List<String> applicationArgs) {
+        this.concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        this.warmupSeconds = Integer.parseInt(options.getOrDefault("warmup_s", "10"));
+        this.durationSeconds = Integer.parseInt(options.getOrDefault("duration_s", "30"));
+        this.clusters = Integer.parseInt(options.getOrDefault("clusters", "2"));
+        this.namespaces = Integer.parseInt(options.getOrDefault("namespaces", "20"));
+        this.services = Integer.parseInt(options.getOrDefault("services", "50"));
+        this.endpoints = Arrays.asList(options.getOrDefault("endpoints", "services,namespaces,fan-out").split(","));
+        for (String endpoint : endpoints) {
+            if (!ENDPOINTS.containsKey(endpoint)) {
+                throw new IllegalArgumentException("Unknown endpoint " + endpoint + ", use one of "
+                    + ENDPOINTS.keySet());
+            }
+        }
+        this.applicationArgs = applicationArgs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        List<String> applicationArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                applicationArgs.add(arg);
+            } else if (arg.contains("=")) {
+                options.put(arg.substring(0, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        new LoadHarness(options, applicationArgs).run();
+        // the application and the mock servers leave non-daemon threads behind
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        // devtools is on the test classpath, its restarter would start the application a second time
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        try (FakeClusters fake = new FakeClusters(3)) {
+            seed(fake.client());
+            for (int i = 0; i < clusters; i++) {
+                fake.gke().addCluster(FakeClusters.ZONE, "load-" + i);
+            }
+
+            List<String> args = new ArrayList<>(Arrays.asList(
+                "--server.port=0",
+                "--k8s.provisioning.poll_initial_delay_ms=200",
+                "--logging.level.root=WARN"));
+            args.addAll(fake.applicationArgs());
+            args.addAll(applicationArgs);
+            ConfigurableApplicationContext context = new SpringApplicationBuilder(DemoApplication.class)
+                .run(args.toArray(new String[0]));
+            try {
+                String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+                System.out.printf("Warming up for %d s with %d threads%n", warmupSeconds, concurrency);
+                drive(baseUrl, warmupSeconds, new HashSet<>());
+                System.out.printf("Measuring for %d s%n", durationSeconds);
+                Map<String, Object> results = measure(baseUrl);
+                results.put("gkeCalls", fake.gke().getCalls());
+                write(results);
+            } finally {
+                context.close();
+            }
+        }
+    }
+
+    private void seed(KubernetesClient client) {
+        for (int i = 0; i < namespaces; i++) {
+            String namespace = "namespace-" + i;
+            client.namespaces().create(new NamespaceBuilder().withNewMetadata()
+                .withName(namespace).addToLabels("this", "rocks").endMetadata().build());
+            for (int j = 0; j < services; j++) {
+                client.services().inNamespace(namespace).create(new ServiceBuilder(BenchmarkFixtures.service(
+                    "service-" + j, i * services + j))
+                    .editMetadata().withNamespace(namespace).withResourceVersion(null).endMetadata()
+                    .build());
+            }
+        }
+        System.out.printf("Seeded %d namespaces with %d services each%n", namespaces, services);
+    }
+
+    private Map<String, Object> measure(String baseUrl) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTime();
+
+        Set<Long> driverThreads = new HashSet<>();
+        Map<Long, Long> allocatedBefore = allocatedBytes(threads, driverThreads);
+        long start = System.nanoTime();
+        List<Worker> workers = drive(baseUrl, durationSeconds, driverThreads);
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        Map<Long, Long> allocatedAfter = allocatedBytes(threads, driverThreads);
+
+        long allocated = 0;
+        for (Map.Entry<Long, Long> thread : allocatedAfter.entrySet()) {
+            allocated += thread.getValue() - allocatedBefore.getOrDefault(thread.getKey(), 0L);
+        }
+
+        Map<String, Object> results = new LinkedHashMap<>();
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("java", System.getProperty("java.version"));
+        config.put("cpus", Runtime.getRuntime().availableProcessors());
+        config.put("concurrency", concurrency);
+        config.put("warmupSeconds", warmupSeconds);
+        config.put("durationSeconds", durationSeconds);
+        config.put("clusters", clusters);
+        config.put("namespaces", namespaces);
+        config.put("servicesPerNamespace", services);
+        config.put("endpoints", endpoints);
+        config.put("applicationArgs", applicationArgs);
+        results.put("config", config);
+
+        Map<String, Map<String, Object>> byEndpoint = new LinkedHashMap<>();
+        List<long[]> all = new ArrayList<>();
+        long requests = 0;
+        long errors = 0;
+        for (String endpoint : endpoints) {
+            List<long[]> latencies = new ArrayList<>();
+            long endpointErrors = 0;
+            long endpointBytes = 0;
+            Map<Integer, Long> statuses = new TreeMap<>();
+            for (Worker worker : workers) {
+                latencies.add(worker.latencies(endpoint));
+                endpointErrors += worker.errors.getOrDefault(endpoint, 0L);
+                endpointBytes += worker.bytes.getOrDefault(endpoint, 0L);
+                worker.statuses.getOrDefault(endpoint, new HashMap<>()).forEach((status, count) ->
+                    statuses.merge(status, count, Long::sum));
+            }
+            Map<String, Object> summary = summary(concat(latencies), endpointErrors, elapsedSeconds);
+            long endpointRequests = (long) summary.get("requests");
+            summary.put("bodyBytesPerRequest", endpointRequests == 0 ? 0 : endpointBytes / endpointRequests);
+            summary.put("statuses", statuses);
+            byEndpoint.put(endpoint, summary);
+            all.addAll(latencies);
+            requests += (long) summary.get("requests");
+            errors += endpointErrors;
+        }
+        Map<String, Object> total = summary(concat(all), errors, elapsedSeconds);
+        total.put("allocatedMbPerSecond", round(allocated / elapsedSeconds / (1024 * 1024)));
+        total.put("allocatedKbPerRequest", requests == 0 ? 0 : round(allocated / 1024.0 / requests));
+        total.put("gcCount", gcCount() - gcCountBefore);
+        total.put("gcTimeMs", gcTime() - gcTimeBefore);
+        results.put("total", total);
+        results.put("endpoints", byEndpoint);
+        return results;
+    }
+
+    /**
+     * Runs the workers for the given time.
+     *
+     * @param threadIds receives the ids of the worker threads
+     */
+    private List<Worker> drive(String baseUrl, int seconds, Set<Long> threadIds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Worker> workers = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            Worker worker = new Worker(baseUrl, deadline, done);
+            Thread thread = new Thread(worker, "load-driver-" + i);
+            thread.setDaemon(true);
+            threadIds.add(thread.getId());
+            workers.add(worker);
+            thread.start();
+        }
+        done.await();
+        return workers;
+    }
+
+    private String cluster(long n) {
+        return "load-" + n % clusters;
+    }
+
+    private String namespace(long n) {
+        return "namespace-" + (n / clusters) % namespaces;
+    }
+
+    /**
+     * Sends requests one after another until the deadline, cycling through the endpoints.
+     */
+    private final class Worker implements Runnable {
+
+        private final String baseUrl;
+        private final long deadline;
+        private final CountDownLatch done;
+        private final byte[] buffer = new byte[8192];
+        private final Map<String, LongList> latencies = new HashMap<>();
+        private final Map<String, Long> errors = new HashMap<>();
+        private final Map<String, Map<Integer, Long>> statuses = new HashMap<>();
+        private final Map<String, Long> bytes = new HashMap<>();
+        private final Map<String, String> etags = new HashMap<>();
+
+        private Worker(String baseUrl, long deadline, CountDownLatch done) {
+            this.baseUrl = baseUrl;
+            this.deadline = deadline;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (System.nanoTime() < deadline) {
+                    long n = counter.getAndIncrement();
+                    String endpoint = endpoints.get((int) (n % endpoints.size()));
+                    String path = ENDPOINTS.get(endpoint).path(n / endpoints.size(), LoadHarness.this);
+                    long start = System.nanoTime();
+                    int status = get(endpoint, path);
+                    latencies.computeIfAbsent(endpoint, key -> new LongList()).add(System.nanoTime() - start);
+                    statuses.computeIfAbsent(endpoint, key -> new TreeMap<>()).merge(status, 1L, Long::sum);
+                    if (status < 200 || status >= 400) {
+                        errors.merge(endpoint, 1L, Long::sum);
+                    }
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+
+        /**
+         * @return the status code, or -1 if the request failed without one
+         */
+        private int get(String endpoint, String path) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+                connection.setConnectTimeout(5000);
+                connection.setReadTimeout(60000);
+                if (CONDITIONAL.contains(endpoint) && etags.containsKey(path)) {
+                    connection.setRequestProperty("If-None-Match", etags.get(path));
+                }
+                if (GZIP.contains(endpoint)) {
+                    connection.setRequestProperty("Accept-Encoding", "gzip");
+                }
+                int status = connection.getResponseCode();
+                if (CONDITIONAL.contains(endpoint) && connection.getHeaderField("ETag") != null) {
+                    etags.put(path, connection.getHeaderField("ETag"));
+                }
+                // read the body to the end so that the connection is kept alive
+                long read = 0;
+                try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                    if (body != null) {
+                        for (int n = body.read(buffer); n != -1; n = body.read(buffer)) {
+                            read += n;
+                        }
+                    }
+                }
+                bytes.merge(endpoint, read, Long::sum);
+                return status;
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        private long[] latencies(String endpoint) {
+            LongList list = latencies.get(endpoint);
+            return list == null ? new long[0] : list.toArray();
+        }
+    }
+
+    private static Map<String, Object> summary(long[] latencies, long errors, double elapsedSeconds) {
+        Arrays.sort(latencies);
+        LongFunction<Double> millis = nanos -> round(nanos / 1e6);
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", (long) latencies.length);
+        summary.put("errors", errors);
+        summary.put("throughputPerSecond", round(latencies.length / elapsedSeconds));
+        summary.put("p50Ms", millis.apply(percentile(latencies, 0.50)));
+        summary.put("p90Ms", millis.apply(percentile(latencies, 0.90)));
+        summary.put("p99Ms", millis.apply(percentile(latencies, 0.99)));
+        summary.put("maxMs", millis.apply(latencies.length == 0 ? 0 : latencies[latencies.length - 1]));
+        return summary;
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.max(0, (int) Math.ceil(quantile * sorted.length) - 1)];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void write(Map<String, Object> results) throws IOException {
+        OUTPUT.mkdirs();
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(new File(OUTPUT, "results.json"), results);
+
+        Map<String, Object> total = (Map<String, Object>) results.get("total");
+        try (PrintWriter csv = new PrintWriter(Files.newBufferedWriter(new File(OUTPUT, "results.csv").toPath(),
+            StandardCharsets.UTF_8))) {
+            csv.println("endpoint,requests,errors,throughput_per_s,p50_ms,p90_ms,p99_ms,max_ms,"
+                + "allocated_mb_per_s,allocated_kb_per_request");
+            ((Map<String, Map<String, Object>>) results.get("endpoints")).forEach((endpoint, summary) ->
+                csv.println(csvRow(endpoint, summary, "", "")));
+            csv.println(csvRow("total", total, total.get("allocatedMbPerSecond"), total.get("allocatedKbPerRequest")));
+        }
+        System.out.printf("%-24s %9s %7s %10s %9s %9s %9s%n", "endpoint", "requests", "errors", "req/s", "p50 ms",
+            "p90 ms", "p99 ms");
+        ((Map<String, Map<String, Object>>) results.get("endpoints")).forEach(LoadHarness::print);
+        print("total", total);
+        System.out.printf("Allocated %s MB/s, %s KB per request; results in %s%n", total.get("allocatedMbPerSecond"),
+            total.get("allocatedKbPerRequest"), OUTPUT);
+    }
+
+    private static String csvRow(String endpoint, Map<String, Object> summary, Object allocatedMbPerSecond,
+        Object allocatedKbPerRequest) {
+        return String.join(",", endpoint, String.valueOf(summary.get("requests")),
+            String.valueOf(summary.get("errors")), String.valueOf(summary.get("throughputPerSecond")),
+            String.valueOf(summary.get("p50Ms")), String.valueOf(summary.get("p90Ms")),
+            String.valueOf(summary.get("p99Ms")), String.valueOf(summary.get("maxMs")),
+            String.valueOf(allocatedMbPerSecond), String.valueOf(allocatedKbPerRequest));
+    }
+
+    private static void print(String endpoint, Map<String, Object> summary) {
+        System.out.printf(Locale.ROOT, "%-24s %9d %7d %10.1f %9.2f %9.2f %9.2f%n", endpoint, summary.get("requests"),
+            summary.get("errors"), summary.get("throughputPerSecond"), summary.get("p50Ms"), summary.get("p90Ms"),
+            summary.get("p99Ms"));
+    }
+
+    /**
+     * Bytes allocated so far by every live thread other than the driver's.
+     */
+    private static Map<Long, Long> allocatedBytes(com.sun.management.ThreadMXBean threads, Set<Long> excluded) {
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        Map<Long, Long> allocated = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0 && !excluded.contains(ids[i])) {
+                allocated.put(ids[i], bytes[i]);
+            }
+        }
+        return allocated;
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+            .mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long gcTime() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+            .mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
+    private static long[] concat(List<long[]> arrays) {
+        long[] all = new long[arrays.stream().mapToInt(array -> array.length).sum()];
+        int offset = 0;
+        for (long[] array : arrays) {
+            System.arraycopy(array, 0, all, offset, array.length);
+            offset += array.length;
+        }
+        return all;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    /**
+     * Growable array of latencies, so that recording one does not box it.
+     */
+    private static final class LongList {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.boroda.kubernetes.demo.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.boroda.kubernetes.demo.manifest.ManifestTemplate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.ReplicationController;
+import io.fabric8.kubernetes.api.model.ReplicationControllerBuilder;
+import io.fabric8.kubernetes.api.model.ResourceQuota;
+import io.fabric8.kubernetes.api.model.ResourceQuotaBuilder;
+
+/**
+ * The objects of {@code run-test}, built with the fabric8 builders as before, and instantiated from
+ * the manifest templates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ManifestTemplateBenchmark {
+
+    private ManifestTemplate replicationController;
+    private ManifestTemplate podQuota;
+
+    @Setup
+    public void setUp() throws IOException {
+        replicationController = template("replication-controller");
+        podQuota = template("pod-quota");
+    }
+
+    @Benchmark
+    public ReplicationController builderReplicationController() {
+        return new ReplicationControllerBuilder()
+            .withNewMetadata().withName("nginx-controller").addToLabels("server", "nginx").endMetadata()
+            .withNewSpec().withReplicas(3)
+            .withNewTemplate()
+            .withNewMetadata().addToLabels("server", "nginx").endMetadata()
+            .withNewSpec()
+            .addNewContainer().withName("nginx").withImage("nginx")
+            .addNewPort().withContainerPort(80).endPort()
+            .endContainer()
+            .endSpec()
+            .endTemplate()
+            .endSpec().build();
+    }
+
+    @Benchmark
+    public ReplicationController templateReplicationController() {
+        return replicationController.instantiate(ReplicationController.class,
+            "name", "nginx-controller",
+            "labels", Collections.singletonMap("server", "nginx"),
+            "podLabels", Collections.singletonMap("server", "nginx"),
+            "replicas", 3,
+            "container", "nginx",
+            "image", "nginx");
+    }
+
+    @Benchmark
+    public ResourceQuota builderQuota() {
+        return new ResourceQuotaBuilder()
+            .withNewMetadata().withName("pod-quota").endMetadata()
+            .withNewSpec().addToHard("pods", new Quantity("10")).endSpec()
+            .build();
+    }
+
+    @Benchmark
+    public ResourceQuota templateQuota() {
+        return podQuota.instantiate(ResourceQuota.class);
+    }
+
+    private static ManifestTemplate template(String name) throws IOException {
+        try (InputStream yaml = ManifestTemplateBenchmark.class.getResourceAsStream("/manifests/" + name + ".yaml")) {
+            return ManifestTemplate.parse(name, yaml);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.boroda.kubernetes.demo.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.boroda.kubernetes.demo.listing.ResourceProjection;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.api.model.ServiceList;
+import io.fabric8.kubernetes.client.utils.Serialization;
+
+/**
+ * Serialization of service listings: the {@code toString()} the controller used to return, a
+ * Jackson dump of the whole list, and the streamed projection of {@code get-services}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class ServiceListSerializationBenchmark {
+
+    private static final List<String> FIELDS = Arrays.asList("name", "clusterIP", "ports");
+
+    @Param({"10", "1000", "10000"})
+    private int size;
+
+    private ServiceList serviceList;
+    private ObjectMapper objectMapper;
+
+    @Setup
+    public void setUp() {
+        serviceList = BenchmarkFixtures.serviceList(size);
+        objectMapper = Serialization.jsonMapper();
+    }
+
+    @Benchmark
+    public String toStringListing() {
+        return serviceList.toString();
+    }
+
+    @Benchmark
+    public byte[] jacksonListing() throws IOException {
+        return objectMapper.writeValueAsBytes(serviceList);
+    }
+
+    @Benchmark
+    public void streamedFullListing(Blackhole blackhole) throws IOException {
+        stream(blackhole, Collections.emptyList());
+    }
+
+    @Benchmark
+    public void streamedProjectedListing(Blackhole blackhole) throws IOException {
+        stream(blackhole, FIELDS);
+    }
+
+    private void stream(Blackhole blackhole, List<String> fields) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(new BlackholeOutputStream(blackhole))) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("items");
+            for (Service service : serviceList.getItems()) {
+                ResourceProjection.SERVICES.write(generator, service, fields);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    private static class BlackholeOutputStream extends OutputStream {
+        private final Blackhole blackhole;
+
+        private BlackholeOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            blackhole.consume(b);
+            blackhole.consume(len);
+        }
+    }
+}
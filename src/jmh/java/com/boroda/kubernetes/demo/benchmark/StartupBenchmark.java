@@ -0,0 +1,153 @@
+package com.boroda.kubernetes.demo.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Time from the start of the JVM to the first successful request of the packaged jar, with the
+ * default configuration, with the {@code startup} profile, and with the startup profile on the
+ * AppCDS archive of {@code scripts/appcds.sh} when there is one. Not a JMH benchmark: every run is
+ * a fresh process, which is what a pod scaled up from zero pays.
+ *
+ * <p>The first request lists the namespaces of a cluster, against {@link FakeClusters}: it pays for
+ * the GKE client, the cluster lookup and a new Kubernetes client, as the first real request would.
+ *
+ * <p>Arguments: the jar and the number of runs per variant. Results go to
+ * {@code target/startup/time-to-first-request.json}, the logs of the runs next to it.
+ */
+public class StartupBenchmark {
+
+    private static final String MAIN_CLASS = "com.boroda.kubernetes.demo.DemoApplication";
+    private static final String CLUSTER = "startup";
+    private static final String FIRST_REQUEST = "/cluster/get-namespaces?cluster_name=" + CLUSTER;
+    private static final File CDS_COMMAND = new File("target/cds/command");
+    private static final File OUTPUT = new File("target/startup");
+    private static final long TIMEOUT_MS = 120000;
+
+    public static void main(String[] args) throws Exception {
+        String jar = args.length > 0 ? args[0] : "target/demo-0.0.1-SNAPSHOT.jar";
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        if (!new File(jar).isFile()) {
+            throw new IllegalArgumentException(jar + " not found, run mvn package first");
+        }
+
+        // the variants without AppCDS run on the JDK the archive was created with, for a fair comparison
+        List<String> cdsCommand = CDS_COMMAND.isFile() ? Files.readAllLines(CDS_COMMAND.toPath()) : null;
+        String java = cdsCommand != null ? cdsCommand.get(0)
+            : System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+        Map<String, List<String>> variants = new LinkedHashMap<>();
+        variants.put("default", Arrays.asList(java, "-jar", jar));
+        variants.put("startup", Arrays.asList(java, "-jar", jar, "--spring.profiles.active=startup"));
+        if (cdsCommand != null) {
+            List<String> command = new ArrayList<>(cdsCommand);
+            command.add("--spring.profiles.active=startup");
+            variants.put("startup-appcds", command);
+        }
+
+        OUTPUT.mkdirs();
+        Map<String, Object> results = new LinkedHashMap<>();
+        results.put("java", java);
+        results.put("runs", runs);
+        results.put("firstRequest", FIRST_REQUEST);
+        Map<String, Object> byVariant = new LinkedHashMap<>();
+        try (FakeClusters fake = new FakeClusters(1)) {
+            fake.gke().addCluster(FakeClusters.ZONE, CLUSTER);
+            for (Map.Entry<String, List<String>> variant : variants.entrySet()) {
+                List<String> command = new ArrayList<>(variant.getValue());
+                command.addAll(fake.applicationArgs());
+                List<Long> times = new ArrayList<>();
+                for (int run = 1; run <= runs; run++) {
+                    times.add(timeToFirstRequest(command, new File(OUTPUT, variant.getKey() + "-" + run + ".log")));
+                }
+                byVariant.put(variant.getKey(), summary(times));
+                System.out.printf("%-16s %s%n", variant.getKey(), byVariant.get(variant.getKey()));
+            }
+        }
+        results.put("timeToFirstRequestMs", byVariant);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(OUTPUT, "time-to-first-request.json"), results);
+        // the mock servers leave non-daemon threads behind
+        System.exit(0);
+    }
+
+    /**
+     * Starts the application and polls {@link #FIRST_REQUEST} until it answers 200.
+     *
+     * @return the time from the start of the process to the first 200, in milliseconds
+     */
+    private static long timeToFirstRequest(List<String> command, File log) throws IOException, InterruptedException {
+        int port = freePort();
+        List<String> arguments = new ArrayList<>(command);
+        arguments.add("--server.port=" + port);
+        URL url = new URL("http://localhost:" + port + FIRST_REQUEST);
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(arguments).redirectErrorStream(true).redirectOutput(log).start();
+        try {
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+            while (System.nanoTime() < deadline) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("Application exited with " + process.exitValue() + ", see " + log);
+                }
+                if (isOk(url)) {
+                    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                }
+                Thread.sleep(5);
+            }
+            throw new IllegalStateException("No successful request within " + TIMEOUT_MS + " ms, see " + log);
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private static boolean isOk(URL url) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(100);
+            connection.setReadTimeout(5000);
+            try {
+                return connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static Map<String, Object> summary(List<Long> times) {
+        List<Long> sorted = new ArrayList<>(times);
+        Collections.sort(sorted);
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("min", sorted.get(0));
+        summary.put("median", sorted.get(sorted.size() / 2));
+        summary.put("max", sorted.get(sorted.size() - 1));
+        summary.put("all", times);
+        return summary;
+    }
+}
@@ -0,0 +1,56 @@
+package com.boroda.kubernetes.demo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.fabric8.kubernetes.api.model.ReplicationController;
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.client.internal.SerializationUtils;
+
+/**
+ * {@link SerializationUtils} YAML dumps of the objects logged by {@code run-test}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class YamlDumpBenchmark {
+
+    private ReplicationController replicationController;
+    private Service service;
+
+    @Setup
+    public void setUp() {
+        replicationController = BenchmarkFixtures.replicationController("nginx-controller");
+        service = BenchmarkFixtures.service("testservice", 1);
+    }
+
+    @Benchmark
+    public String dumpReplicationController() throws JsonProcessingException {
+        return SerializationUtils.dumpAsYaml(replicationController);
+    }
+
+    @Benchmark
+    public String dumpReplicationControllerWithoutRuntimeState() throws JsonProcessingException {
+        return SerializationUtils.dumpWithoutRuntimeStateAsYaml(replicationController);
+    }
+
+    @Benchmark
+    public String dumpService() throws JsonProcessingException {
+        return SerializationUtils.dumpAsYaml(service);
+    }
+}
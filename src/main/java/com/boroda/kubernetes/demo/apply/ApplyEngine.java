@@ -0,0 +1,387 @@
+package com.boroda.kubernetes.demo.apply;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.boroda.kubernetes.demo.apply.StepReport.Status;
+import com.boroda.kubernetes.demo.metrics.RequestTrace;
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.boroda.kubernetes.demo.watch.ManagedWatch;
+import com.boroda.kubernetes.demo.watch.WatchHandler;
+import com.boroda.kubernetes.demo.watch.WatchManager;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.kubernetes.client.dsl.WatchListDeletable;
+import io.fabric8.kubernetes.client.internal.readiness.Readiness;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Applies a bundle of manifests in dependency order: namespaces first, then namespace-wide
+ * policy and configuration (quotas, limit ranges, service accounts, config maps, secrets), then
+ * workloads and services. A resource only waits for the resources it depends on, so independent
+ * resources are applied in parallel. Workloads are then awaited with a watch until they are ready
+ * instead of sleeping for a fixed time.
+ *
+ * <p>Applies and deletes run on {@code k8s.apply.threads} threads, while readiness is followed by
+ * watch callbacks that hold no thread. At most {@code k8s.apply.queue_size} steps are in flight:
+ * a bundle that does not fit is answered with 503 right away.
+ *
+ * <p>Resources are applied with the {@link ResourceApplier}: one that is already up to date is not
+ * written again, so that re-applying a bundle only changes what changed.
+ *
+ * <p>Every applied resource is labelled with {@link #BUNDLE_LABEL}, so that the bundle can be
+ * removed with a parallel, label-selected {@link #deleteBundle bulk delete} of the kinds it was
+ * applied with.
+ */
+@Log4j2
+@Service
+public class ApplyEngine {
+
+    public static final String BUNDLE_LABEL = "kubernetes-demo/bundle";
+
+    private static final Set<String> NAMESPACE_SETUP_KINDS = new HashSet<>(Arrays.asList(
+        "ResourceQuota", "LimitRange", "ServiceAccount", "ConfigMap", "Secret", "PersistentVolumeClaim", "Role",
+        "RoleBinding"));
+
+    @Autowired
+    private StageMetrics stageMetrics;
+
+    @Autowired
+    private ResourceApplier resourceApplier;
+
+    @Autowired
+    private WatchManager watchManager;
+
+    @Value("${k8s.apply.threads:8}")
+    private int threads;
+
+    @Value("${k8s.apply.queue_size:1000}")
+    private int queueSize;
+
+    @Value("${k8s.apply.readiness_timeout_ms:120000}")
+    private long readinessTimeoutMs;
+
+    /**
+     * Namespaced kinds applied with each bundle, by cluster and bundle name.
+     */
+    private final Map<String, Set<String>> bundleKinds = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor executor;
+
+    // one permit per step queued, running or waiting for readiness, so that the queue never overflows
+    private Semaphore stepPermits;
+
+    private ScheduledExecutorService timer;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+            runnable -> {
+                Thread thread = new Thread(runnable, "k8s-apply-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+        stageMetrics.monitor(executor, "k8s.apply");
+        stepPermits = new Semaphore(queueSize);
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "k8s-apply-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    /**
+     * Applies the resources and waits until they are ready.
+     *
+     * @param cluster name of the cluster, for the metrics
+     * @param defaultNamespace namespace of the namespaced resources that do not name one
+     * @throws ResponseStatusException with 503 if the steps of the bundle do not fit in the queue
+     */
+    public ApplyReport apply(KubernetesClient client, String cluster, String bundle, List<HasMetadata> resources,
+        String defaultNamespace) {
+        long start = System.nanoTime();
+        Executor traced = RequestTrace.propagating(executor);
+        acquire(resources.size());
+        List<CompletableFuture<StepReport>> steps = new ArrayList<>(resources.size());
+        for (HasMetadata resource : resources) {
+            ObjectMeta metadata = resource.getMetadata();
+            if (bundle != null) {
+                metadata.setLabels(metadata.getLabels() == null ? new LinkedHashMap<>() : metadata.getLabels());
+                metadata.getLabels().put(BUNDLE_LABEL, bundle);
+            }
+            if (!isClusterScoped(resource) && metadata.getNamespace() == null) {
+                metadata.setNamespace(defaultNamespace);
+            }
+        }
+        if (bundle != null) {
+            bundleKinds.merge(cluster + "/" + bundle, resources.stream().filter(resource -> !isClusterScoped(resource))
+                .map(HasMetadata::getKind).collect(Collectors.toSet()), (known, applied) -> {
+                    Set<String> union = new HashSet<>(known);
+                    union.addAll(applied);
+                    return union;
+                });
+        }
+
+        for (HasMetadata resource : resources) {
+            List<CompletableFuture<StepReport>> dependencies = new ArrayList<>();
+            for (int i = 0; i < resources.size(); i++) {
+                if (dependsOn(resource, resources.get(i))) {
+                    dependencies.add(steps.get(i));
+                }
+            }
+            CompletableFuture<StepReport> step = CompletableFuture.allOf(dependencies.toArray(new CompletableFuture[0]))
+                .thenApplyAsync(ignored -> applyOne(client, cluster, resource, start), traced)
+                .thenCompose(report -> awaitReady(client, cluster, resource, report));
+            step.whenComplete((report, e) -> stepPermits.release());
+            steps.add(step);
+        }
+
+        List<StepReport> reports = new ArrayList<>(steps.size());
+        for (int i = 0; i < steps.size(); i++) {
+            HasMetadata resource = resources.get(i);
+            reports.add(steps.get(i).handle((report, e) -> {
+                if (e == null) {
+                    return report;
+                }
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                return cause instanceof StepFailedException ? ((StepFailedException) cause).getReport()
+                    : step(resource, Status.SKIPPED).error("a dependency failed").build();
+            }).join());
+        }
+        return new ApplyReport(bundle, elapsedMs(start), reports);
+    }
+
+    /**
+     * Deletes, in parallel for every kind the bundle was applied with, the objects of the bundle in
+     * the namespace.
+     */
+    public ApplyReport deleteBundle(KubernetesClient client, String cluster, String namespace, String bundle) {
+        return deleteByLabels(client, cluster, namespace, bundle, Collections.singletonMap(BUNDLE_LABEL, bundle),
+            null);
+    }
+
+    /**
+     * Deletes, in parallel for every kind, the objects carrying the labels in the namespace.
+     *
+     * @param kinds kinds to delete, or {@code null} for the kinds the bundle was applied with. Every
+     *     namespaced kind is deleted for a bundle this instance has not applied, as after a restart.
+     * @throws IllegalArgumentException if a kind is not one of {@link ResourceKinds}
+     * @throws ResponseStatusException with 503 if the deletes do not fit in the queue
+     */
+    public ApplyReport deleteByLabels(KubernetesClient client, String cluster, String namespace, String bundle,
+        Map<String, String> labels, Collection<String> kinds) {
+        long start = System.nanoTime();
+        Collection<String> names = kinds != null ? kinds
+            : bundleKinds.getOrDefault(cluster + "/" + bundle, namespacedKinds());
+        List<ResourceKinds.Kind> deleted = new ArrayList<>();
+        for (String kind : names) {
+            deleted.add(ResourceKinds.of(kind));
+        }
+        acquire(deleted.size());
+        List<CompletableFuture<StepReport>> deletes = new ArrayList<>();
+        for (ResourceKinds.Kind kind : deleted) {
+            CompletableFuture<StepReport> delete = CompletableFuture.supplyAsync(() -> {
+                long stepStart = System.nanoTime();
+                StepReport.StepReportBuilder report = StepReport.builder()
+                    .kind(kind.getName())
+                    .namespace(namespace)
+                    .startedAtMs(TimeUnit.NANOSECONDS.toMillis(stepStart - start));
+                try {
+                    Boolean done = stageMetrics.record("k8s.resources.delete", cluster,
+                        () -> kind.operation(client, namespace).withLabels(labels).delete());
+                    report.status(Boolean.TRUE.equals(done) ? Status.DELETED : Status.NOTHING_TO_DELETE);
+                } catch (RuntimeException e) {
+                    report.status(Status.FAILED).error(e.getMessage());
+                }
+                return report.applyMs(elapsedMs(stepStart)).build();
+            }, RequestTrace.propagating(executor));
+            delete.whenComplete((report, e) -> stepPermits.release());
+            deletes.add(delete);
+        }
+        List<StepReport> reports = new ArrayList<>(deletes.size());
+        deletes.forEach(delete -> reports.add(delete.join()));
+        return new ApplyReport(bundle, elapsedMs(start), reports);
+    }
+
+    private StepReport applyOne(KubernetesClient client, String cluster, HasMetadata resource, long bundleStart) {
+        long start = System.nanoTime();
+        StepReport.StepReportBuilder report = step(resource, Status.APPLIED)
+            .startedAtMs(TimeUnit.NANOSECONDS.toMillis(start - bundleStart));
+        try {
+            ResourceApplier.Outcome outcome = stageMetrics.record("k8s.resources.apply", cluster,
+                () -> resourceApplier.apply(client, cluster, resource).getOutcome());
+            report.applyMs(elapsedMs(start));
+            if (outcome == ResourceApplier.Outcome.UNCHANGED) {
+                report.status(Status.UNCHANGED);
+            }
+            log.info("Applied {} {}: {}", resource.getKind(), resource.getMetadata().getName(), outcome);
+            return report.build();
+        } catch (RuntimeException e) {
+            log.warn("Failed to apply {} {}: {}", resource.getKind(), resource.getMetadata().getName(), e.getMessage());
+            throw new StepFailedException(report.status(Status.FAILED).error(e.getMessage()).build());
+        }
+    }
+
+    /**
+     * Follows the applied resource with a watch until it is ready, for the kinds that have a
+     * readiness. The watch callbacks complete the step, so no thread waits for it.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private CompletableFuture<StepReport> awaitReady(KubernetesClient client, String cluster, HasMetadata resource,
+        StepReport applied) {
+        if (!Readiness.isReadinessApplicable(resource.getClass())) {
+            return CompletableFuture.completedFuture(applied);
+        }
+        long readyStart = System.nanoTime();
+        CompletableFuture<StepReport> ready = new CompletableFuture<>();
+        ResourceKinds.Kind kind = ResourceKinds.of(resource.getKind());
+        String namespace = resource.getMetadata().getNamespace();
+        String name = resource.getMetadata().getName();
+        ManagedWatch<?, ?> watch = watchManager.watch(cluster, kind.getName() + "/" + name, () -> client,
+            watched -> (WatchListDeletable) kind.operation(watched, namespace).withField("metadata.name", name),
+            new WatchHandler<HasMetadata>() {
+                @Override
+                public void onList(List<HasMetadata> items, String resourceVersion) {
+                    items.forEach(this::check);
+                }
+
+                @Override
+                public void onEvent(Watcher.Action action, HasMetadata resource) {
+                    if (action != Watcher.Action.DELETED) {
+                        check(resource);
+                    }
+                }
+
+                private void check(HasMetadata resource) {
+                    if (name.equals(resource.getMetadata().getName()) && Readiness.isReady(resource)) {
+                        ready.complete(applied.toBuilder().status(Status.READY).readyMs(elapsedMs(readyStart)).build());
+                    }
+                }
+            });
+        ScheduledFuture<?> timeout = timer.schedule(() -> ready.completeExceptionally(new StepFailedException(
+            applied.toBuilder().status(Status.FAILED).readyMs(elapsedMs(readyStart))
+                .error("not ready within " + readinessTimeoutMs + " ms").build())),
+            readinessTimeoutMs, TimeUnit.MILLISECONDS);
+        ready.whenComplete((report, e) -> {
+            timeout.cancel(false);
+            watch.stop();
+            stageMetrics.timer("k8s.resources.ready", "Time until applied resources were ready",
+                "cluster", cluster, "kind", kind.getName(), "outcome", e == null ? "ready" : "timeout")
+                .record(System.nanoTime() - readyStart, TimeUnit.NANOSECONDS);
+        });
+        return ready;
+    }
+
+    /**
+     * Takes a permit for every step, or fails with 503 if there are not that many left.
+     */
+    private void acquire(int count) {
+        if (!stepPermits.tryAcquire(count)) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                "Too many resources being applied or deleted, retry later");
+        }
+    }
+
+    private static Set<String> namespacedKinds() {
+        Set<String> kinds = new LinkedHashSet<>();
+        for (String kind : ResourceKinds.names()) {
+            if (!ResourceKinds.isClusterScoped(kind)) {
+                kinds.add(kind);
+            }
+        }
+        return kinds;
+    }
+
+    /**
+     * Whether {@code resource} must wait for {@code other}: a namespaced resource depends on its
+     * namespace, and on the resources of an earlier stage in the same namespace.
+     */
+    private static boolean dependsOn(HasMetadata resource, HasMetadata other) {
+        if (resource == other || isClusterScoped(resource)) {
+            return false;
+        }
+        String namespace = resource.getMetadata().getNamespace();
+        if ("Namespace".equals(other.getKind())) {
+            return namespace.equals(other.getMetadata().getName());
+        }
+        return !isClusterScoped(other) && namespace.equals(other.getMetadata().getNamespace())
+            && stage(other) < stage(resource);
+    }
+
+    private static int stage(HasMetadata resource) {
+        if ("Namespace".equals(resource.getKind())) {
+            return 0;
+        }
+        return NAMESPACE_SETUP_KINDS.contains(resource.getKind()) ? 1 : 2;
+    }
+
+    private static boolean isClusterScoped(HasMetadata resource) {
+        return ResourceKinds.isClusterScoped(resource.getKind());
+    }
+
+    private static StepReport.StepReportBuilder step(HasMetadata resource, Status status) {
+        return StepReport.builder()
+            .kind(resource.getKind())
+            .namespace(resource.getMetadata().getNamespace())
+            .name(resource.getMetadata().getName())
+            .status(status);
+    }
+
+    private static long elapsedMs(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private static class StepFailedException extends RuntimeException {
+        private final StepReport report;
+
+        private StepFailedException(StepReport report) {
+            super(report.getError(), null, false, false);
+            this.report = report;
+        }
+
+        private StepReport getReport() {
+            return report;
+        }
+    }
+}
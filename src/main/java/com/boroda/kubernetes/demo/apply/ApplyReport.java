@@ -0,0 +1,20 @@
+package com.boroda.kubernetes.demo.apply;
+
+import java.util.List;
+
+import lombok.Value;
+
+/**
+ * Outcome of an apply bundle or a bulk delete, with per-step timings.
+ */
+@Value
+public class ApplyReport {
+    private String bundle;
+    private long totalMs;
+    private List<StepReport> steps;
+
+    public boolean isSuccessful() {
+        return steps.stream().noneMatch(step ->
+            step.getStatus() == StepReport.Status.FAILED || step.getStatus() == StepReport.Status.SKIPPED);
+    }
+}
@@ -0,0 +1,339 @@
+package com.boroda.kubernetes.demo.apply;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import com.boroda.kubernetes.demo.informer.ResourceStore;
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.kubernetes.api.model.Status;
+import io.fabric8.kubernetes.api.model.StatusBuilder;
+import io.fabric8.kubernetes.client.HttpClientAware;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Applies single objects with at most one write. The desired object is hashed and the hash is
+ * stored in the {@link #SPEC_HASH_ANNOTATION} annotation; when the live object already carries the
+ * same hash nothing is sent. Otherwise the object is created, or updated with one merge patch
+ * instead of a get followed by a replace.
+ *
+ * <p>The patch is three-way, as with {@code kubectl apply}: the applied configuration is kept in
+ * the {@link #LAST_APPLIED_ANNOTATION} annotation, and every field it has that the desired object
+ * no longer has is sent as {@code null}, so that dropped labels, annotations and fields are removed
+ * while fields set by others are left alone. Lists are replaced as a whole.
+ *
+ * <p>The live object is taken from an informer store when one is given, so that applying an
+ * already converged object costs no request at all.
+ *
+ * <p>Only the kinds of {@link ResourceKinds} can be applied: the path of an object is resolved
+ * through the operation of the client for its kind.
+ */
+@Log4j2
+@Component
+public class ResourceApplier {
+
+    public static final String SPEC_HASH_ANNOTATION = "kubernetes-demo/spec-hash";
+
+    public static final String LAST_APPLIED_ANNOTATION = "kubernetes-demo/last-applied-configuration";
+
+    static final MediaType JSON = MediaType.parse("application/json");
+
+    static final MediaType MERGE_PATCH = MediaType.parse("application/merge-patch+json");
+
+    private static final int NOT_FOUND = 404;
+    private static final int CONFLICT = 409;
+
+    private static final ObjectMapper CANONICAL_MAPPER = Serialization.jsonMapper().copy()
+        .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private static final TypeReference<Map<String, Object>> TREE = new TypeReference<Map<String, Object>>() { };
+
+    public enum Outcome {
+        CREATED, PATCHED, UNCHANGED
+    }
+
+    /**
+     * Outcome of an apply and the object as stored by the API server (or as cached, when unchanged).
+     */
+    @Value
+    public static class Applied<T extends HasMetadata> {
+        private Outcome outcome;
+        private T resource;
+    }
+
+    @Autowired
+    private StageMetrics stageMetrics;
+
+    /**
+     * Applies the object, reading the live object from the API server.
+     *
+     * @param cluster name of the cluster, for the metrics
+     */
+    public <T extends HasMetadata> Applied<T> apply(KubernetesClient client, String cluster, T desired) {
+        return apply(client, cluster, desired, Optional.empty());
+    }
+
+    /**
+     * Applies the object, reading the live object from the store if there is one. Namespaced
+     * objects must name their namespace.
+     *
+     * @throws IllegalArgumentException if the kind of the object is not one of {@link ResourceKinds}
+     *
+     * @param cluster name of the cluster, for the metrics
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends HasMetadata> Applied<T> apply(KubernetesClient client, String cluster, T desired,
+        Optional<ResourceStore<T>> store) {
+        ObjectMeta metadata = desired.getMetadata();
+        String hash = specHash(desired);
+        String lastApplied = lastApplied(desired);
+        if (metadata.getAnnotations() == null) {
+            metadata.setAnnotations(new LinkedHashMap<>());
+        }
+        metadata.getAnnotations().put(SPEC_HASH_ANNOTATION, hash);
+        metadata.getAnnotations().put(LAST_APPLIED_ANNOTATION, lastApplied);
+
+        Class<T> type = (Class<T>) desired.getClass();
+        T live = store.isPresent() ? store.get().get(metadata.getNamespace(), metadata.getName())
+            : stageMetrics.record("k8s.resources.get", cluster, () -> send(client, get(client, desired), type));
+        if (live != null && hash.equals(specHashOf(live))) {
+            stageMetrics.counter("k8s.resources.unchanged", "Applied objects that were already up to date",
+                "cluster", cluster, "kind", desired.getKind()).increment();
+            log.debug("{} {} is up to date", desired.getKind(), metadata.getName());
+            return new Applied<>(Outcome.UNCHANGED, live);
+        }
+
+        if (live == null) {
+            try {
+                T created = stageMetrics.record("k8s.resources.create", cluster,
+                    () -> send(client, create(client, desired), type));
+                return new Applied<>(Outcome.CREATED, created);
+            } catch (KubernetesClientException e) {
+                if (e.getCode() != CONFLICT) {
+                    throw e;
+                }
+                // the store has not seen the object yet: read it for its last applied configuration
+                live = stageMetrics.record("k8s.resources.get", cluster,
+                    () -> send(client, get(client, desired), type));
+            }
+        }
+        String previous = live == null || live.getMetadata().getAnnotations() == null ? null
+            : live.getMetadata().getAnnotations().get(LAST_APPLIED_ANNOTATION);
+        T patched = stageMetrics.record("k8s.resources.patch", cluster,
+            () -> send(client, patch(client, desired, previous), type));
+        return new Applied<>(Outcome.PATCHED, patched);
+    }
+
+    /**
+     * Hash of what is applied of the object: everything but its status and the metadata set by the
+     * API server. Keys are sorted, so that the hash does not depend on the order fields were set in.
+     */
+    static String specHash(HasMetadata resource) {
+        Map<String, Object> tree = CANONICAL_MAPPER.convertValue(resource, TREE);
+        tree.remove("status");
+        ObjectMeta metadata = resource.getMetadata();
+        Map<String, Object> applied = new LinkedHashMap<>();
+        applied.put("name", metadata.getName());
+        applied.put("namespace", metadata.getNamespace());
+        applied.put("labels", metadata.getLabels());
+        applied.put("annotations", appliedAnnotations(metadata));
+        tree.put("metadata", applied);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(CANONICAL_MAPPER.writeValueAsBytes(tree));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot hash " + resource.getKind() + " " + metadata.getName(), e);
+        }
+    }
+
+    /**
+     * The configuration applied of the object, as stored in {@link #LAST_APPLIED_ANNOTATION}: its
+     * body without status and without the annotations of the applier itself.
+     */
+    static String lastApplied(HasMetadata resource) {
+        Map<String, Object> tree = tree(resource);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> metadata = (Map<String, Object>) tree.get("metadata");
+        Map<String, String> annotations = appliedAnnotations(resource.getMetadata());
+        if (annotations == null) {
+            metadata.remove("annotations");
+        } else {
+            metadata.put("annotations", annotations);
+        }
+        try {
+            return CANONICAL_MAPPER.writeValueAsString(tree);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize " + resource.getKind(), e);
+        }
+    }
+
+    private static Map<String, String> appliedAnnotations(ObjectMeta metadata) {
+        if (metadata.getAnnotations() == null) {
+            return null;
+        }
+        Map<String, String> annotations = new LinkedHashMap<>(metadata.getAnnotations());
+        annotations.remove(SPEC_HASH_ANNOTATION);
+        annotations.remove(LAST_APPLIED_ANNOTATION);
+        return annotations.isEmpty() ? null : annotations;
+    }
+
+    /**
+     * Sets to {@code null} in the patch every field of the previously applied configuration that
+     * the patch no longer has, recursing into the objects both still have.
+     */
+    @SuppressWarnings("unchecked")
+    static void removeDropped(Map<String, Object> patch, Map<String, Object> previous) {
+        previous.forEach((key, value) -> {
+            if (!patch.containsKey(key)) {
+                patch.put(key, null);
+            } else if (value instanceof Map && patch.get(key) instanceof Map) {
+                removeDropped((Map<String, Object>) patch.get(key), (Map<String, Object>) value);
+            }
+        });
+    }
+
+    private static String specHashOf(HasMetadata live) {
+        Map<String, String> annotations = live.getMetadata().getAnnotations();
+        return annotations == null ? null : annotations.get(SPEC_HASH_ANNOTATION);
+    }
+
+    private static Request get(KubernetesClient client, HasMetadata resource) {
+        return new Request.Builder().get().url(url(client, resource, true)).build();
+    }
+
+    private static Request create(KubernetesClient client, HasMetadata resource) {
+        return new Request.Builder()
+            .post(RequestBody.create(JSON, body(resource)))
+            .url(url(client, resource, false))
+            .build();
+    }
+
+    /**
+     * @param previous the configuration applied last, or {@code null} if the live object has none
+     */
+    private static Request patch(KubernetesClient client, HasMetadata resource, String previous) {
+        Map<String, Object> patch = tree(resource);
+        if (previous != null) {
+            try {
+                removeDropped(patch, Serialization.jsonMapper().readValue(previous, TREE));
+            } catch (IOException e) {
+                log.warn("Ignoring unreadable {} of {} {}: {}", LAST_APPLIED_ANNOTATION, resource.getKind(),
+                    resource.getMetadata().getName(), e.getMessage());
+            }
+        }
+        return new Request.Builder()
+            .patch(RequestBody.create(MERGE_PATCH, write(resource, patch)))
+            .url(url(client, resource, true))
+            .build();
+    }
+
+    /**
+     * Sends the request on the HTTP client of the Kubernetes client, so that it is authenticated
+     * and rate-limited like the requests of the client itself.
+     *
+     * @return the object in the response, or {@code null} if there is none
+     */
+    private static <T extends HasMetadata> T send(KubernetesClient client, Request request, Class<T> type) {
+        OkHttpClient httpClient = ((HttpClientAware) client).getHttpClient();
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (response.code() == NOT_FOUND && "GET".equals(request.method())) {
+                return null;
+            }
+            if (!response.isSuccessful()) {
+                throw failure(request, response);
+            }
+            return Serialization.unmarshal(response.body().byteStream(), type);
+        } catch (IOException e) {
+            throw new KubernetesClientException(request.method() + " " + request.url() + " failed: " + e.getMessage(),
+                e);
+        }
+    }
+
+    /**
+     * The error of a failed request, with the status the API server answered, or one made up from
+     * the response if its body is not a status.
+     */
+    private static KubernetesClientException failure(Request request, Response response) throws IOException {
+        String body = response.body() == null ? "" : response.body().string();
+        Status status = null;
+        try {
+            status = Serialization.jsonMapper().readValue(body, Status.class);
+        } catch (IOException e) {
+            log.debug("Response to {} {} is not a status: {}", request.method(), request.url(), e.getMessage());
+        }
+        if (status == null || status.getMessage() == null) {
+            status = new StatusBuilder()
+                .withCode(response.code())
+                .withMessage(body.isEmpty() ? response.message() : body)
+                .build();
+        }
+        return new KubernetesClientException(request.method() + " " + request.url() + " failed with "
+            + response.code() + ": " + status.getMessage(), response.code(), status);
+    }
+
+    private static byte[] body(HasMetadata resource) {
+        return write(resource, tree(resource));
+    }
+
+    private static Map<String, Object> tree(HasMetadata resource) {
+        Map<String, Object> tree = Serialization.jsonMapper().convertValue(resource, TREE);
+        tree.remove("status");
+        return tree;
+    }
+
+    private static byte[] write(HasMetadata resource, Map<String, Object> tree) {
+        try {
+            return Serialization.jsonMapper().writeValueAsBytes(tree);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize " + resource.getKind(), e);
+        }
+    }
+
+    /**
+     * URL of the object, or of its collection: the group and version of the object, and the
+     * resource name of its kind as the client's operation for the kind has it.
+     */
+    private static String url(KubernetesClient client, HasMetadata resource, boolean item) {
+        ResourceKinds.Kind kind = ResourceKinds.of(resource.getKind());
+        String apiVersion = resource.getApiVersion();
+        HttpUrl.Builder url = HttpUrl.get(client.getMasterUrl()).newBuilder()
+            .addPathSegments(apiVersion.contains("/") ? "apis/" + apiVersion : "api/" + apiVersion);
+        if (kind.isNamespaced()) {
+            String namespace = resource.getMetadata().getNamespace();
+            if (namespace == null) {
+                throw new IllegalArgumentException(kind.getName() + " " + resource.getMetadata().getName()
+                    + " does not name its namespace");
+            }
+            url.addPathSegment("namespaces").addPathSegment(namespace);
+        }
+        url.addPathSegment(kind.plural(client));
+        if (item) {
+            url.addPathSegment(resource.getMetadata().getName());
+        }
+        return url.build().toString();
+    }
+}
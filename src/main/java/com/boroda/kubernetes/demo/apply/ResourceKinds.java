@@ -0,0 +1,126 @@
+package com.boroda.kubernetes.demo.apply;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.dsl.MixedOperation;
+import io.fabric8.kubernetes.client.dsl.NonNamespaceOperation;
+import io.fabric8.kubernetes.client.dsl.base.OperationSupport;
+
+/**
+ * The kinds that can be applied, each with the typed operation of the client that handles it. The
+ * resource name in the path of an object and whether it is namespaced come from here rather than
+ * from the kind name, so a kind missing from this table, a custom resource for one, is rejected
+ * instead of being sent to a guessed URL.
+ */
+final class ResourceKinds {
+
+    /**
+     * A kind and the operation of the client for its objects.
+     */
+    static final class Kind {
+        private final String name;
+        private final boolean namespaced;
+        private final BiFunction<KubernetesClient, String, NonNamespaceOperation<?, ?, ?, ?>> operation;
+
+        private Kind(String name, boolean namespaced,
+            BiFunction<KubernetesClient, String, NonNamespaceOperation<?, ?, ?, ?>> operation) {
+            this.name = name;
+            this.namespaced = namespaced;
+            this.operation = operation;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        boolean isNamespaced() {
+            return namespaced;
+        }
+
+        /**
+         * The operation on the objects of the kind in the namespace, which is ignored for
+         * cluster-scoped kinds.
+         */
+        NonNamespaceOperation<?, ?, ?, ?> operation(KubernetesClient client, String namespace) {
+            return operation.apply(client, namespace);
+        }
+
+        /**
+         * Resource name of the kind in paths, as the operation of the client has it.
+         */
+        String plural(KubernetesClient client) {
+            return ((OperationSupport) operation(client, "default")).getResourceT();
+        }
+    }
+
+    private static final Map<String, Kind> KINDS = new LinkedHashMap<>();
+
+    static {
+        clusterScoped("Namespace", KubernetesClient::namespaces);
+        clusterScoped("Node", KubernetesClient::nodes);
+        clusterScoped("PersistentVolume", KubernetesClient::persistentVolumes);
+        clusterScoped("CustomResourceDefinition", KubernetesClient::customResourceDefinitions);
+        clusterScoped("StorageClass", client -> client.storage().storageClasses());
+        clusterScoped("ClusterRole", client -> client.rbac().clusterRoles());
+        clusterScoped("ClusterRoleBinding", client -> client.rbac().clusterRoleBindings());
+        namespaced("ResourceQuota", KubernetesClient::resourceQuotas);
+        namespaced("LimitRange", KubernetesClient::limitRanges);
+        namespaced("ServiceAccount", KubernetesClient::serviceAccounts);
+        namespaced("ConfigMap", KubernetesClient::configMaps);
+        namespaced("Secret", KubernetesClient::secrets);
+        namespaced("PersistentVolumeClaim", KubernetesClient::persistentVolumeClaims);
+        namespaced("Role", client -> client.rbac().roles());
+        namespaced("RoleBinding", client -> client.rbac().roleBindings());
+        namespaced("ReplicationController", KubernetesClient::replicationControllers);
+        namespaced("Deployment", client -> client.apps().deployments());
+        namespaced("StatefulSet", client -> client.apps().statefulSets());
+        namespaced("DaemonSet", client -> client.apps().daemonSets());
+        namespaced("ReplicaSet", client -> client.apps().replicaSets());
+        namespaced("Job", client -> client.batch().jobs());
+        namespaced("CronJob", client -> client.batch().cronjobs());
+        namespaced("Pod", KubernetesClient::pods);
+        namespaced("Service", KubernetesClient::services);
+        namespaced("Endpoints", KubernetesClient::endpoints);
+        namespaced("Ingress", client -> client.extensions().ingresses());
+        namespaced("NetworkPolicy", client -> client.network().networkPolicies());
+        namespaced("HorizontalPodAutoscaler", client -> client.autoscaling().horizontalPodAutoscalers());
+    }
+
+    private ResourceKinds() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the kind is not in the table
+     */
+    static Kind of(String kind) {
+        Kind found = KINDS.get(kind);
+        if (found == null) {
+            throw new IllegalArgumentException("Unsupported kind " + kind + ", supported kinds are " + KINDS.keySet());
+        }
+        return found;
+    }
+
+    static boolean isClusterScoped(String kind) {
+        Kind found = KINDS.get(kind);
+        return found != null && !found.isNamespaced();
+    }
+
+    static Set<String> names() {
+        return Collections.unmodifiableSet(KINDS.keySet());
+    }
+
+    private static void clusterScoped(String kind,
+        Function<KubernetesClient, NonNamespaceOperation<?, ?, ?, ?>> operation) {
+        KINDS.put(kind, new Kind(kind, false, (client, namespace) -> operation.apply(client)));
+    }
+
+    private static void namespaced(String kind, Function<KubernetesClient, MixedOperation<?, ?, ?, ?>> operation) {
+        KINDS.put(kind, new Kind(kind, true, (client, namespace) -> operation.apply(client).inNamespace(namespace)));
+    }
+}
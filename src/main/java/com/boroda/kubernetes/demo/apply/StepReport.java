@@ -0,0 +1,28 @@
+package com.boroda.kubernetes.demo.apply;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Outcome and timings of one resource of an apply bundle or one kind of a bulk delete.
+ */
+@Value
+@Builder(toBuilder = true)
+public class StepReport {
+
+    public enum Status {
+        APPLIED, UNCHANGED, READY, DELETED, NOTHING_TO_DELETE, FAILED, SKIPPED
+    }
+
+    private String kind;
+    private String namespace;
+    private String name;
+    private Status status;
+    /**
+     * Offset of the start of the step from the start of the bundle, in milliseconds.
+     */
+    private long startedAtMs;
+    private long applyMs;
+    private long readyMs;
+    private String error;
+}
@@ -1,53 +1,101 @@
 package com.boroda.kubernetes.demo.controller;
 
-import java.io.DataInputStream;
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.GeneralSecurityException;
-import java.util.Arrays;
-
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.boroda.kubernetes.demo.apply.ApplyEngine;
+import com.boroda.kubernetes.demo.apply.ApplyReport;
+import com.boroda.kubernetes.demo.execution.RequestExecutor;
 import com.boroda.kubernetes.demo.factory.KubernetesClientFactory;
-import com.boroda.kubernetes.demo.model.ClusterCredentials;
-import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
-import com.google.api.client.http.HttpTransport;
-import com.google.api.client.json.JsonFactory;
-import com.google.api.client.json.jackson2.JacksonFactory;
-import com.google.api.services.container.Container;
+import com.boroda.kubernetes.demo.fanout.FanOutService;
+import com.boroda.kubernetes.demo.informer.InformerRegistry;
+import com.boroda.kubernetes.demo.informer.ResourceStore;
+import com.boroda.kubernetes.demo.listing.ListingETag;
+import com.boroda.kubernetes.demo.listing.ListingFormat;
+import com.boroda.kubernetes.demo.listing.ListingStreamer;
+import com.boroda.kubernetes.demo.listing.Page;
+import com.boroda.kubernetes.demo.listing.PageSource;
+import com.boroda.kubernetes.demo.listing.ResourceProjection;
+import com.boroda.kubernetes.demo.manifest.ManifestTemplate;
+import com.boroda.kubernetes.demo.manifest.ManifestTemplates;
+import com.boroda.kubernetes.demo.metrics.RequestTrace;
+import com.boroda.kubernetes.demo.metrics.ServerTimingFilter;
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.boroda.kubernetes.demo.model.ClusterKey;
+import com.boroda.kubernetes.demo.model.NamespaceSummary;
+import com.boroda.kubernetes.demo.provisioning.ProvisioningOperation;
+import com.boroda.kubernetes.demo.provisioning.ProvisioningService;
+import com.boroda.kubernetes.demo.resilience.CallRejectedException;
+import com.boroda.kubernetes.demo.resilience.ClusterGuard;
+import com.boroda.kubernetes.demo.ratelimit.Priority;
+import com.boroda.kubernetes.demo.service.ClusterClientService;
+import com.boroda.kubernetes.demo.service.ClusterMetadataCache;
+import com.boroda.kubernetes.demo.service.NamespaceService;
+import com.boroda.kubernetes.demo.stream.StreamingService;
+import com.boroda.kubernetes.demo.watch.ManagedWatch;
+import com.boroda.kubernetes.demo.watch.WatchHandler;
+import com.boroda.kubernetes.demo.watch.WatchManager;
 import com.google.api.services.container.model.Cluster;
 import com.google.api.services.container.model.CreateClusterRequest;
-import com.google.api.services.container.model.Operation;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.PropertySource;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import io.fabric8.kubernetes.api.model.HasMetadata;
 import io.fabric8.kubernetes.api.model.Namespace;
-import io.fabric8.kubernetes.api.model.NamespaceBuilder;
-import io.fabric8.kubernetes.api.model.Quantity;
 import io.fabric8.kubernetes.api.model.ReplicationController;
-import io.fabric8.kubernetes.api.model.ReplicationControllerBuilder;
+import io.fabric8.kubernetes.api.model.ReplicationControllerList;
 import io.fabric8.kubernetes.api.model.ResourceQuota;
-import io.fabric8.kubernetes.api.model.ResourceQuotaBuilder;
-import io.fabric8.kubernetes.api.model.ServiceList;
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.api.model.Status;
 import io.fabric8.kubernetes.client.APIGroupNotAvailableException;
 import io.fabric8.kubernetes.client.KubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClientException;
-import io.fabric8.kubernetes.client.Watch;
 import io.fabric8.kubernetes.client.Watcher;
 import io.fabric8.kubernetes.client.internal.SerializationUtils;
 import lombok.extern.log4j.Log4j2;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 
+/**
+ * The {@code /cluster} endpoints. The services behind the Kubernetes and GKE clients are looked up
+ * when a request first needs them, so that with lazy initialization (the {@code startup} profile)
+ * an endpoint only creates the beans it uses.
+ */
 @Log4j2
 @Controller
 @RequestMapping(value = "/cluster")
@@ -56,6 +104,8 @@ public class KubeClusterController {
 
     private static final String CLUSTER_NAME = "cbs-cluster";
     private static final String NAMESPACE_NAME = "cbs-namespace";
+    private static final String DEFAULT_NAMESPACE = "default";
+    private static final Map<String, String> DEFAULT_NAMESPACE_LABELS = Collections.singletonMap("this", "rocks");
     private static final String ZONE = "us-central1-a";
     private static final String CLUSTER_VERSION = "1.12.7-gke.10";
     private static final String THISISATEST_NAMESPACE = "thisisatest";
@@ -63,15 +113,63 @@ public class KubeClusterController {
     private static final String SERVER = "server";
     private static final String NGINX = "nginx";
     private static final String NGINX_CONTROLLER = "nginx-controller";
+    private static final long RC_ROLLOUT_TIMEOUT_MS = 60000;
 
     @Value("${k8s.project_name}")
     private String projectName;
 
+    @Value("${k8s.fanout.cluster_timeout_ms:10000}")
+    private long fanOutTimeoutMs;
+
+    @Autowired
+    private ObjectProvider<ClusterClientService> clusterClientService;
+
+    @Autowired
+    private ObjectProvider<ProvisioningService> provisioningService;
+
+    @Autowired
+    private ObjectProvider<NamespaceService> namespaceService;
+
+    @Autowired
+    private ObjectProvider<ClusterMetadataCache> clusterMetadataCache;
+
+    @Autowired
+    private ObjectProvider<InformerRegistry> informerRegistry;
+
+    @Autowired
+    private ListingStreamer listingStreamer;
+
+    @Autowired
+    private ObjectProvider<FanOutService> fanOutService;
+
+    @Autowired
+    private ObjectProvider<ApplyEngine> applyEngine;
+
+    @Autowired
+    private RequestExecutor requestExecutor;
+
+    @Autowired
+    private StageMetrics stageMetrics;
+
+    @Autowired
+    private ServerTimingFilter serverTimingFilter;
+
+    @Autowired
+    private ObjectProvider<WatchManager> watchManager;
+
+    @Autowired
+    private ObjectProvider<ManifestTemplates> manifestTemplates;
+
+    @Autowired
+    private ObjectProvider<StreamingService> streamingService;
+
+    @Autowired
+    private ClusterGuard clusterGuard;
+
     @GetMapping("/create-default")
     public String installBasicCluster(Model model,
         @RequestParam(name = "cluster_version", required = false) String version,
-        @RequestParam(name = "cluster_name", required = false) String name) throws IOException,
-        GeneralSecurityException{
+        @RequestParam(name = "cluster_name", required = false) String name) {
 
         String clusterVersion = isNullOrEmpty(version) ? CLUSTER_VERSION : version;
         String clusterName = isNullOrEmpty(name) ? CLUSTER_NAME : name;
@@ -83,317 +181,581 @@ public class KubeClusterController {
         cluster.setInitialNodeCount(1);
         requestBody.setCluster(cluster);
 
-        Container containerService = createContainerService();
-        Container.Projects.Zones.Clusters.Create request =
-            containerService.projects().zones().clusters().create(projectName, ZONE, requestBody);
-
-        Operation response = request.execute();
+        ProvisioningOperation operation = provisioningService.getObject().submit(
+            new ClusterKey(projectName, ZONE, clusterName), requestBody, NAMESPACE_NAME);
 
-        log.info(response);
-
-        model.addAttribute("message", "Successfully created default cluster with name " + CLUSTER_NAME);
-        model.addAttribute("deploy_details", response.toPrettyString());
+        model.addAttribute("message", "Submitted creation of cluster with name " + clusterName);
+        model.addAttribute("deploy_details", "Operation " + operation.getId());
+        model.addAttribute("operation_id", operation.getId());
         return "create_namespace";
     }
 
-    @ResponseBody
+    /**
+     * Streams services of a namespace as JSON, served from the in-memory informer store. With
+     * {@code consistent=true}, a continue token from the API server, or while the informer is still
+     * syncing, the services are paged from the API server instead.
+     *
+     * <p>Listings from the store carry an ETag from the store's resource version; while it is
+     * unchanged, a request with the tag in {@code If-None-Match} is answered 304 without a body.
+     */
     @GetMapping("/get-services")
-    public String getServiceList(@RequestParam(name = "cluster_name", required = false) String name)
-        throws IOException, GeneralSecurityException {
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> getServiceList(
+        @RequestParam(name = "cluster_name", required = false) String name,
+        @RequestParam(name = "namespace", defaultValue = DEFAULT_NAMESPACE) String namespace,
+        @RequestParam(name = "label", required = false) String label,
+        @RequestParam(name = "consistent", defaultValue = "false") boolean consistent,
+        @RequestParam(name = "limit", required = false) Integer limit,
+        @RequestParam(name = "continue", required = false) String continueToken,
+        @RequestParam(name = "fields", required = false) List<String> fields,
+        @RequestParam(name = "format", defaultValue = "json") String format,
+        @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         String clusterName = isNullOrEmpty(name) ? CLUSTER_NAME : name;
+        ClusterKey clusterKey = new ClusterKey(projectName, ZONE, clusterName);
+
+        return requestExecutor.execute(() -> {
+            if (!consistent && (isNullOrEmpty(continueToken) || PageSource.isSnapshotToken(continueToken))) {
+                Optional<ResourceStore<Service>> store = informerRegistry.getObject().services(clusterKey);
+                if (store.isPresent()) {
+                    // the version is read before the items, so that it is never newer than them
+                    String etag = ListingETag.of(store.get().getResourceVersion());
+                    if (ListingETag.matches(ifNoneMatch, etag)) {
+                        return notModified("services", etag);
+                    }
+                    List<Service> services = isNullOrEmpty(label) ? store.get().byNamespace(namespace)
+                        : filterByLabel(store.get().byNamespace(namespace), label);
+                    return streamListing(PageSource.ofSnapshot(services), ResourceProjection.SERVICES, fields, limit,
+                        continueToken, format, etag);
+                }
+            }
+            KubernetesClient client = clusterClientService.getObject().getClient(clusterKey);
+            PageSource<Service> source = timed("k8s.services.list", clusterName,
+                PageSource.ofApi(isNullOrEmpty(label) ? client.services().inNamespace(namespace)
+                    : client.services().inNamespace(namespace).withLabel(labelKey(label), labelValue(label))));
+            return streamListing(source, ResourceProjection.SERVICES, fields, limit, apiContinueToken(continueToken),
+                format, null);
+        });
+    }
 
-        Container containerService = createContainerService();
-        Container.Projects.Zones.Clusters.Get getRequest = containerService.projects()
-            .zones().clusters().get(projectName, ZONE, clusterName);
-        Cluster cluster = getRequest.execute();
+    /**
+     * Streams namespaces as JSON, optionally filtered by a {@code key=value} label. Served from the
+     * in-memory informer store, and answered 304 while unchanged, like {@link #getServiceList}.
+     */
+    @GetMapping("/get-namespaces")
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> getNamespaceList(
+        @RequestParam(name = "cluster_name", required = false) String name,
+        @RequestParam(name = "label", required = false) String label,
+        @RequestParam(name = "consistent", defaultValue = "false") boolean consistent,
+        @RequestParam(name = "limit", required = false) Integer limit,
+        @RequestParam(name = "continue", required = false) String continueToken,
+        @RequestParam(name = "fields", required = false) List<String> fields,
+        @RequestParam(name = "format", defaultValue = "json") String format,
+        @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String clusterName = isNullOrEmpty(name) ? CLUSTER_NAME : name;
+        ClusterKey clusterKey = new ClusterKey(projectName, ZONE, clusterName);
+
+        return requestExecutor.execute(() -> {
+            if (!consistent && (isNullOrEmpty(continueToken) || PageSource.isSnapshotToken(continueToken))) {
+                Optional<ResourceStore<Namespace>> store = informerRegistry.getObject().namespaces(clusterKey);
+                if (store.isPresent()) {
+                    String etag = ListingETag.of(store.get().getResourceVersion());
+                    if (ListingETag.matches(ifNoneMatch, etag)) {
+                        return notModified("namespaces", etag);
+                    }
+                    return streamListing(PageSource.ofSnapshot(isNullOrEmpty(label) ? store.get().list()
+                            : store.get().byLabel(labelKey(label), labelValue(label))), ResourceProjection.NAMESPACES,
+                        fields, limit, continueToken, format, etag);
+                }
+            }
+            KubernetesClient client = clusterClientService.getObject().getClient(clusterKey);
+            PageSource<Namespace> source = timed("k8s.namespaces.list", clusterName,
+                PageSource.ofApi(isNullOrEmpty(label) ? client.namespaces()
+                    : client.namespaces().withLabel(labelKey(label), labelValue(label))));
+            return streamListing(source, ResourceProjection.NAMESPACES, fields, limit, apiContinueToken(continueToken),
+                format, null);
+        });
+    }
 
-        ClusterCredentials clusterCredentials = getClusterCredentials(cluster);
-        KubernetesClientFactory clientFactory = new KubernetesClientFactory(clusterCredentials);
-        try (KubernetesClient client = clientFactory.create()) {
-            ServiceList myNsServices = client.services().inNamespace("default").list();
-            return myNsServices.toString();
-        }
+    /**
+     * Lists services of a namespace in many clusters at once: the clusters given as
+     * {@code clusters=name,zone/name,...}, or every cluster of the project with {@code all=true}.
+     * Streams one NDJSON line per cluster as results arrive, then a summary line.
+     */
+    @GetMapping("/fan-out/services")
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> getServicesAcrossClusters(
+        @RequestParam(name = "clusters", required = false) List<String> clusters,
+        @RequestParam(name = "all", defaultValue = "false") boolean all,
+        @RequestParam(name = "namespace", defaultValue = DEFAULT_NAMESPACE) String namespace,
+        @RequestParam(name = "label", required = false) String label,
+        @RequestParam(name = "consistent", defaultValue = "false") boolean consistent,
+        @RequestParam(name = "fields", required = false) List<String> fields,
+        @RequestParam(name = "timeout_ms", required = false) Long timeoutMs) {
+        return requestExecutor.execute(() -> {
+            List<ClusterKey> clusterKeys = new ArrayList<>();
+            if (all) {
+                clusterKeys.addAll(clusterMetadataCache.getObject().discover(projectName));
+            } else if (clusters != null) {
+                for (String cluster : clusters) {
+                    int separator = cluster.indexOf('/');
+                    clusterKeys.add(separator < 0 ? new ClusterKey(projectName, ZONE, cluster)
+                        : new ClusterKey(projectName, cluster.substring(0, separator), cluster.substring(separator + 1)));
+                }
+            }
+            if (clusterKeys.isEmpty()) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "No clusters given, use clusters= or all=true");
+            }
+            try {
+                StreamingResponseBody body = fanOutService.getObject().stream(clusterKeys,
+                    (clusterKey, readTimeoutMs) -> readServices(clusterKey, namespace, label, consistent,
+                        readTimeoutMs), ResourceProjection.SERVICES,
+                    fields == null ? Collections.emptyList() : fields, timeoutMs == null ? fanOutTimeoutMs : timeoutMs);
+                return ResponseEntity.ok().contentType(ListingFormat.NDJSON.getMediaType()).body(body);
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+            }
+        });
     }
 
     @ResponseBody
     @GetMapping("/run-test")
-    public String runTest(@RequestParam(name = "cluster_name", required = false) String name)
-        throws IOException, GeneralSecurityException, InterruptedException {
+    public DeferredResult<String> runTest(@RequestParam(name = "cluster_name", required = false) String name) {
         String clusterName = isNullOrEmpty(name) ? CLUSTER_NAME : name;
+        return requestExecutor.execute(() -> {
+            // the script is a batch of writes, it must not hold up interactive reads of the cluster
+            try (Priority.Scope ignored = Priority.enter(Priority.BULK)) {
+                return runTestScript(clusterName);
+            }
+        });
+    }
 
-        Container containerService = createContainerService();
-        Container.Projects.Zones.Clusters.Get getRequest = containerService.projects()
-            .zones().clusters().get(projectName, ZONE, clusterName);
-        Cluster cluster = getRequest.execute();
-
-        ClusterCredentials clusterCredentials = getClusterCredentials(cluster);
-        KubernetesClientFactory clientFactory = new KubernetesClientFactory(clusterCredentials);
-        try (KubernetesClient client = clientFactory.create()) {
-            try (Watch ignored = client.replicationControllers().inNamespace(
-                THISISATEST_NAMESPACE).withResourceVersion("0").watch(new Watcher<ReplicationController>() {
+    private String runTestScript(String clusterName) throws IOException, InterruptedException {
+        KubernetesClient client = clusterClientService.getObject()
+            .getClient(new ClusterKey(projectName, ZONE, clusterName));
+        try (ManagedWatch<ReplicationController, ReplicationControllerList> ignored = watchManager.getObject().watch(
+            clusterName, "replicationcontrollers", () -> client,
+            watched -> watched.replicationControllers().inNamespace(THISISATEST_NAMESPACE),
+            new WatchHandler<ReplicationController>() {
                 @Override
-                public void eventReceived(Action action, ReplicationController resource) {
-                    log.info("{}: {}", action, resource);
+                public void onList(List<ReplicationController> items, String resourceVersion) {
+                    log.info("Watching {} replication controllers from resource version {}", items.size(),
+                        resourceVersion);
                 }
 
                 @Override
-                public void onClose(KubernetesClientException e) {
-                    if (e != null) {
-                        log.error(e.getMessage(), e);
-                    }
+                public void onEvent(Watcher.Action action, ReplicationController resource) {
+                    log.info("{}: {}", action, resource);
                 }
             })) {
-                // Create a namespace for all our stuff
-                Namespace ns = new NamespaceBuilder().withNewMetadata()
-                    .withName(THISISATEST_NAMESPACE)
-                    .addToLabels("this", "rocks")
-                    .endMetadata()
-                    .build();
-                log("Created namespace", client.namespaces().create(ns));
-
-                // Get the namespace by name
-                log("Get namespace by name", client.namespaces().withName(
-                    THISISATEST_NAMESPACE).get());
-                // Get the namespace by label
-                log("Get namespace by label", client.namespaces().withLabel("this", "rocks").list());
-
-                ResourceQuota
-                    quota = new ResourceQuotaBuilder()
-                    .withNewMetadata()
-                    .withName("pod-quota")
-                    .endMetadata()
-                    .withNewSpec()
-                    .addToHard("pods", new Quantity("10"))
-                    .endSpec()
-                    .build();
-                log("Create resource quota", client.resourceQuotas()
-                    .inNamespace(THISISATEST_NAMESPACE).create(quota));
-
-                try {
-                    log("Get jobs in namespace", client.batch().jobs().inNamespace(
-                        THISISATEST_NAMESPACE).list());
-                } catch (APIGroupNotAvailableException e) {
-                    log("Skipping jobs example - extensions API group not available");
-                }
-
-                // Create an RC
-                ReplicationController rc = new ReplicationControllerBuilder()
-                    .withNewMetadata().withName(NGINX_CONTROLLER).addToLabels(
-                        SERVER, NGINX).endMetadata()
-                    .withNewSpec().withReplicas(3)
-                    .withNewTemplate()
-                    .withNewMetadata().addToLabels(SERVER, NGINX).endMetadata()
-                    .withNewSpec()
-                    .addNewContainer().withName(NGINX).withImage(NGINX)
-                    .addNewPort().withContainerPort(80).endPort()
-                    .endContainer()
-                    .endSpec()
-                    .endTemplate()
-                    .endSpec().build();
-
-                log("Created RC", client.replicationControllers().inNamespace(
-                    THISISATEST_NAMESPACE).create(rc));
-
-                log("Created RC with inline DSL",
-                    client.replicationControllers().inNamespace(
-                        THISISATEST_NAMESPACE).createNew()
-                        .withNewMetadata().withName("nginx2-controller").addToLabels(
-                        SERVER, NGINX).endMetadata()
-                        .withNewSpec().withReplicas(0)
-                        .withNewTemplate()
-                        .withNewMetadata().addToLabels(SERVER, "nginx2").endMetadata()
-                        .withNewSpec()
-                        .addNewContainer().withName(NGINX).withImage(NGINX)
-                        .addNewPort().withContainerPort(80).endPort()
-                        .endContainer()
-                        .endSpec()
-                        .endTemplate()
-                        .endSpec().done());
-
-                // Get the RC by name in namespace
-                ReplicationController gotRc = client.replicationControllers().inNamespace(
-                    THISISATEST_NAMESPACE).withName(NGINX_CONTROLLER).get();
-                log("Get RC by name in namespace", gotRc);
-                // Dump the RC as YAML
-                log("Dump RC as YAML", SerializationUtils.dumpAsYaml(gotRc));
-                log("Dump RC as YAML without state", SerializationUtils.dumpWithoutRuntimeStateAsYaml(gotRc));
-
-                // Get the RC by label
-                log("Get RC by label", client.replicationControllers().withLabel(
-                    SERVER, NGINX).list());
-                // Get the RC without label
-                log("Get RC without label", client.replicationControllers().withoutLabel(
-                    SERVER, "apache").list());
-                // Get the RC with label in
-                log("Get RC with label in", client.replicationControllers().withLabelIn(
-                    SERVER, NGINX).list());
-                // Get the RC with label in
-                log("Get RC with label not in", client.replicationControllers().withLabelNotIn(
-                    SERVER, "apache").list());
-                // Get the RC by label in namespace
-                log("Get RC by label in namespace", client.replicationControllers().inNamespace(
-                    THISISATEST_NAMESPACE).withLabel(SERVER, NGINX).list());
-                // Update the RC
-                client.replicationControllers().inNamespace(
-                    THISISATEST_NAMESPACE).withName(NGINX_CONTROLLER).cascading(false).edit().editMetadata().addToLabels("new", "label").endMetadata().done();
-
-                client.replicationControllers().inNamespace(
-                    THISISATEST_NAMESPACE).withName(NGINX_CONTROLLER).scale(8);
-
-                Thread.sleep(1000);
-
-                // Update the RC - change the image to apache
-                client.replicationControllers().inNamespace(
-                    THISISATEST_NAMESPACE).withName(NGINX_CONTROLLER).edit().editSpec().editTemplate().withNewSpec()
-                    .addNewContainer().withName(NGINX).withImage("httpd")
-                    .addNewPort().withContainerPort(80).endPort()
-                    .endContainer()
-                    .endSpec()
-                    .endTemplate()
-                    .endSpec().done();
-
-                Thread.sleep(1000);
-
-                log("Updated RC");
-                // Clean up the RC
-                client.replicationControllers().inNamespace(
-                    THISISATEST_NAMESPACE).withName(NGINX_CONTROLLER).delete();
-                client.replicationControllers().inNamespace(
-                    THISISATEST_NAMESPACE).withName("nginx2-controller").delete();
-                log("Deleted RCs");
-
-                //Create another RC inline
-                client.replicationControllers().inNamespace(
-                    THISISATEST_NAMESPACE).createNew().withNewMetadata().withName(
-
-                    NGINX_CONTROLLER).addToLabels(
-                    SERVER, NGINX).endMetadata()
-                    .withNewSpec().withReplicas(3)
-                    .withNewTemplate()
-                    .withNewMetadata().addToLabels(SERVER, NGINX).endMetadata()
-                    .withNewSpec()
-                    .addNewContainer().withName(NGINX).withImage(NGINX)
-                    .addNewPort().withContainerPort(80).endPort()
-                    .endContainer()
-                    .endSpec()
-                    .endTemplate()
-                    .endSpec().done();
-                log("Created inline RC");
-
-                Thread.sleep(1000);
-
-                client.replicationControllers()
-                    .inNamespace(THISISATEST_NAMESPACE)
-                    .withName(NGINX_CONTROLLER)
-                    .delete();
-                log("Deleted RC");
-
-                log("Created RC", client.replicationControllers()
-                    .inNamespace(THISISATEST_NAMESPACE)
-                    .create(rc));
-                client.replicationControllers()
-                    .inAnyNamespace()
-                    .withLabel(SERVER, NGINX)
-                    .delete();
-                log("Deleted RC by label");
-
-                log("Created RC", client.replicationControllers()
-                    .inNamespace(THISISATEST_NAMESPACE)
-                    .create(rc));
-                client.replicationControllers()
-                    .inNamespace(THISISATEST_NAMESPACE)
-                    .withField("metadata.name", NGINX_CONTROLLER)
-                    .delete();
-                log("Deleted RC by field");
-
-                log("Created service",
-                    client.services().inNamespace(THISISATEST_NAMESPACE).createNew()
-                        .withNewMetadata().withName(TESTSERVICE).endMetadata()
-                        .withNewSpec()
-                        .addNewPort().withPort(80).withNewTargetPort().withIntVal(80).endTargetPort().endPort()
-                        .endSpec()
-                        .done());
-                log("Updated service", client.services().inNamespace(
-                    THISISATEST_NAMESPACE).withName(TESTSERVICE).edit().editMetadata().addToLabels("test", "label").endMetadata().done());
-                client.replicationControllers()
-                    .inNamespace(THISISATEST_NAMESPACE)
-                    .withField("metadata.name", TESTSERVICE)
-                    .delete();
-                log("Deleted service by field");
-
-                log("Root paths:", client.rootPaths());
-
-            } finally {
-                // And finally clean up the namespace
-                client.namespaces().withName(THISISATEST_NAMESPACE).delete();
-                log("Deleted namespace");
+            // Create a namespace for all our stuff
+            Namespace ns = manifestTemplates.getObject().get("namespace").instantiate(Namespace.class,
+                "name", THISISATEST_NAMESPACE, "labels", Collections.singletonMap("this", "rocks"));
+            log("Created namespace", client.namespaces().create(ns));
+
+            // Get the namespace by name
+            log("Get namespace by name", client.namespaces().withName(
+                THISISATEST_NAMESPACE).get());
+            // Get the namespace by label
+            log("Get namespace by label", client.namespaces().withLabel("this", "rocks").list());
+
+            ResourceQuota quota = manifestTemplates.getObject().get("pod-quota").instantiate(ResourceQuota.class);
+            log("Create resource quota", client.resourceQuotas()
+                .inNamespace(THISISATEST_NAMESPACE).create(quota));
+
+            try {
+                log("Get jobs in namespace", client.batch().jobs().inNamespace(
+                    THISISATEST_NAMESPACE).list());
+            } catch (APIGroupNotAvailableException e) {
+                log("Skipping jobs example - extensions API group not available");
             }
+
+            // Create an RC
+            ManifestTemplate rcTemplate = manifestTemplates.getObject().get("replication-controller");
+            ReplicationController rc = nginxController(rcTemplate, NGINX_CONTROLLER, 3, NGINX);
+
+            log("Created RC", client.replicationControllers().inNamespace(
+                THISISATEST_NAMESPACE).create(rc));
+
+            log("Created second RC", client.replicationControllers().inNamespace(
+                THISISATEST_NAMESPACE).create(nginxController(rcTemplate, "nginx2-controller", 0, "nginx2")));
+
+            // Get the RC by name in namespace
+            ReplicationController gotRc = client.replicationControllers().inNamespace(
+                THISISATEST_NAMESPACE).withName(NGINX_CONTROLLER).get();
+            log("Get RC by name in namespace", gotRc);
+            // Dump the RC as YAML
+            log("Dump RC as YAML", SerializationUtils.dumpAsYaml(gotRc));
+            log("Dump RC as YAML without state", SerializationUtils.dumpWithoutRuntimeStateAsYaml(gotRc));
+
+            // Get the RC by label
+            log("Get RC by label", client.replicationControllers().withLabel(
+                SERVER, NGINX).list());
+            // Get the RC without label
+            log("Get RC without label", client.replicationControllers().withoutLabel(
+                SERVER, "apache").list());
+            // Get the RC with label in
+            log("Get RC with label in", client.replicationControllers().withLabelIn(
+                SERVER, NGINX).list());
+            // Get the RC with label in
+            log("Get RC with label not in", client.replicationControllers().withLabelNotIn(
+                SERVER, "apache").list());
+            // Get the RC by label in namespace
+            log("Get RC by label in namespace", client.replicationControllers().inNamespace(
+                THISISATEST_NAMESPACE).withLabel(SERVER, NGINX).list());
+            // Update the RC
+            client.replicationControllers().inNamespace(
+                THISISATEST_NAMESPACE).withName(NGINX_CONTROLLER).cascading(false).edit().editMetadata().addToLabels("new", "label").endMetadata().done();
+
+            client.replicationControllers().inNamespace(
+                THISISATEST_NAMESPACE).withName(NGINX_CONTROLLER).scale(8);
+
+            awaitObserved(client, NGINX_CONTROLLER);
+
+            // Update the RC - change the image to apache
+            client.replicationControllers().inNamespace(
+                THISISATEST_NAMESPACE).withName(NGINX_CONTROLLER).edit().editSpec().editTemplate().withNewSpec()
+                .addNewContainer().withName(NGINX).withImage("httpd")
+                .addNewPort().withContainerPort(80).endPort()
+                .endContainer()
+                .endSpec()
+                .endTemplate()
+                .endSpec().done();
+
+            awaitObserved(client, NGINX_CONTROLLER);
+
+            log("Updated RC");
+            // Clean up both RCs at once, they share the server=nginx label
+            log("Deleted RCs", applyEngine.getObject().deleteByLabels(client, clusterName, THISISATEST_NAMESPACE, null,
+                Collections.singletonMap(SERVER, NGINX), Collections.singletonList("ReplicationController")));
+
+            // Create the RC again
+            client.replicationControllers().inNamespace(
+                THISISATEST_NAMESPACE).create(nginxController(rcTemplate, NGINX_CONTROLLER, 3, NGINX));
+            log("Created RC again");
+
+            awaitObserved(client, NGINX_CONTROLLER);
+
+            client.replicationControllers()
+                .inNamespace(THISISATEST_NAMESPACE)
+                .withName(NGINX_CONTROLLER)
+                .delete();
+            log("Deleted RC");
+
+            log("Created RC", client.replicationControllers()
+                .inNamespace(THISISATEST_NAMESPACE)
+                .create(rc));
+            client.replicationControllers()
+                .inAnyNamespace()
+                .withLabel(SERVER, NGINX)
+                .delete();
+            log("Deleted RC by label");
+
+            log("Created RC", client.replicationControllers()
+                .inNamespace(THISISATEST_NAMESPACE)
+                .create(rc));
+            client.replicationControllers()
+                .inNamespace(THISISATEST_NAMESPACE)
+                .withField("metadata.name", NGINX_CONTROLLER)
+                .delete();
+            log("Deleted RC by field");
+
+            log("Created service", client.services().inNamespace(THISISATEST_NAMESPACE).create(
+                manifestTemplates.getObject().get("service").instantiate(Service.class, "name", TESTSERVICE)));
+            log("Updated service", client.services().inNamespace(
+                THISISATEST_NAMESPACE).withName(TESTSERVICE).edit().editMetadata().addToLabels("test", "label").endMetadata().done());
+            client.replicationControllers()
+                .inNamespace(THISISATEST_NAMESPACE)
+                .withField("metadata.name", TESTSERVICE)
+                .delete();
+            log("Deleted service by field");
+
+            log("Root paths:", client.rootPaths());
+
+        } finally {
+            // And finally clean up the namespace
+            client.namespaces().withName(THISISATEST_NAMESPACE).delete();
+            log("Deleted namespace");
         }
         return "Done!";
     }
 
+    /**
+     * Applies a bundle of YAML or JSON manifests: namespaces first, then quotas and configuration,
+     * then workloads, each resource as soon as the ones it depends on are in place. Waits until the
+     * workloads are ready and reports the timings of every step.
+     */
+    @PostMapping("/apply")
+    public DeferredResult<ResponseEntity<ApplyReport>> applyBundle(InputStream manifests,
+        @RequestParam(name = "cluster_name", required = false) String name,
+        @RequestParam(name = "bundle") String bundle,
+        @RequestParam(name = "namespace", defaultValue = DEFAULT_NAMESPACE) String namespace) throws IOException {
+        String clusterName = isNullOrEmpty(name) ? CLUSTER_NAME : name;
+        // Read the body on the container thread, before the request goes async
+        byte[] body = StreamUtils.copyToByteArray(manifests);
+
+        return requestExecutor.execute(() -> {
+            KubernetesClient client = clusterClientService.getObject()
+                .getClient(new ClusterKey(projectName, ZONE, clusterName));
+            List<HasMetadata> resources;
+            try {
+                resources = client.load(new ByteArrayInputStream(body)).get();
+            } catch (KubernetesClientException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid manifests: " + e.getMessage());
+            }
+            if (resources == null || resources.isEmpty()) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "No manifests given");
+            }
+            ApplyReport report = applyEngine.getObject().apply(client, clusterName, bundle, resources, namespace);
+            return ResponseEntity.status(report.isSuccessful() ? HttpStatus.OK : HttpStatus.BAD_GATEWAY).body(report);
+        });
+    }
+
+    /**
+     * Deletes the resources of a bundle in a namespace, all kinds in parallel.
+     */
+    @DeleteMapping("/apply")
+    public DeferredResult<ResponseEntity<ApplyReport>> deleteBundle(
+        @RequestParam(name = "cluster_name", required = false) String name,
+        @RequestParam(name = "bundle") String bundle,
+        @RequestParam(name = "namespace", defaultValue = DEFAULT_NAMESPACE) String namespace) {
+        String clusterName = isNullOrEmpty(name) ? CLUSTER_NAME : name;
+
+        return requestExecutor.execute(() -> {
+            KubernetesClient client = clusterClientService.getObject()
+                .getClient(new ClusterKey(projectName, ZONE, clusterName));
+            ApplyReport report = applyEngine.getObject().deleteBundle(client, clusterName, namespace, bundle);
+            return ResponseEntity.status(report.isSuccessful() ? HttpStatus.OK : HttpStatus.BAD_GATEWAY).body(report);
+        });
+    }
+
     @ResponseBody
     @GetMapping("/create-default-namespace")
-    public String createBasicNamespace(@RequestParam(name = "cluster_name", required = false) String name)
-        throws IOException, GeneralSecurityException {
+    public DeferredResult<NamespaceSummary> createBasicNamespace(
+        @RequestParam(name = "cluster_name", required = false) String name) {
         String clusterName = isNullOrEmpty(name) ? CLUSTER_NAME : name;
 
-        Container containerService = createContainerService();
-        Container.Projects.Zones.Clusters.Get getRequest = containerService.projects()
-            .zones().clusters().get(projectName, ZONE, clusterName);
-        Cluster cluster = getRequest.execute();
-
-        ClusterCredentials clusterCredentials = getClusterCredentials(cluster);
-        KubernetesClientFactory clientFactory = new KubernetesClientFactory(clusterCredentials);
-        try (KubernetesClient client = clientFactory.create()) {
-            Namespace ns = new NamespaceBuilder().withNewMetadata().withName(NAMESPACE_NAME).addToLabels("this", "rocks").endMetadata().build();
-            client.namespaces().create(ns);
-            Namespace namespace =
-                client.namespaces().withName(NAMESPACE_NAME).get();
-            log.info(namespace.toString());
-
-            return "Successfully created default namespace with name " +
-                NAMESPACE_NAME + ". Details: \n" + namespace.toString();
+        return requestExecutor.execute(() -> NamespaceSummary.of(namespaceService.getObject().createNamespace(
+            new ClusterKey(projectName, ZONE, clusterName), NAMESPACE_NAME, DEFAULT_NAMESPACE_LABELS)));
+    }
+
+    @ResponseBody
+    @GetMapping("/operations/{id}")
+    public ProvisioningOperation getOperation(@PathVariable("id") String id) {
+        return provisioningService.getObject().find(id)
+            .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown operation " + id));
+    }
+
+    @GetMapping("/operations/{id}/events")
+    public SseEmitter followOperation(@PathVariable("id") String id) {
+        return provisioningService.getObject().subscribe(id)
+            .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown operation " + id));
+    }
+
+    /**
+     * Follows the events of a namespace as server-sent events, starting with the latest ones.
+     */
+    @GetMapping("/{name}/namespaces/{namespace}/events")
+    public SseEmitter followEvents(@PathVariable("name") String name, @PathVariable("namespace") String namespace) {
+        return streamingService.getObject().streamEvents(new ClusterKey(projectName, ZONE, name), namespace);
+    }
+
+    /**
+     * Streams the log of a pod as plain text, following it by default.
+     */
+    @GetMapping("/{name}/namespaces/{namespace}/pods/{pod}/logs")
+    public WebAsyncTask<ResponseEntity<Void>> streamLogs(@PathVariable("name") String name,
+        @PathVariable("namespace") String namespace, @PathVariable("pod") String pod,
+        @RequestParam(name = "container", required = false) String container,
+        @RequestParam(name = "follow", defaultValue = "true") boolean follow,
+        @RequestParam(name = "tail_lines", required = false) Integer tailLines, HttpServletResponse response) {
+        return streamingService.getObject().streamLogs(new ClusterKey(projectName, ZONE, name), namespace, pod,
+            container, follow, tailLines, response);
+    }
+
+    /**
+     * Outbound calls of the most recent requests, with their timings.
+     */
+    @ResponseBody
+    @GetMapping("/traces")
+    public List<RequestTrace> getRecentTraces() {
+        return serverTimingFilter.getRecent();
+    }
+
+    @ResponseBody
+    @GetMapping("/metadata-cache")
+    public Map<String, Object> getMetadataCacheStats() {
+        return clusterMetadataCache.getObject().statsSummary();
+    }
+
+    /**
+     * Circuit breakers and bulkheads of the GKE API and of the API server of every cluster called so far.
+     */
+    @ResponseBody
+    @GetMapping("/breakers")
+    public Map<String, Map<String, Object>> getBreakers() {
+        return clusterGuard.summary();
+    }
+
+    /**
+     * @param etag tag of the listing, or {@code null} if it does not come from an informer store
+     */
+    private <T extends HasMetadata> ResponseEntity<StreamingResponseBody> streamListing(PageSource<T> source,
+        ResourceProjection<T> projection, List<String> fields, Integer limit, String continueToken, String format,
+        String etag) {
+        ListingFormat listingFormat;
+        try {
+            listingFormat = ListingFormat.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown format " + format);
         }
+        try {
+            StreamingResponseBody body = listingStreamer.stream(source, projection,
+                fields == null ? Collections.emptyList() : fields, limit, continueToken, listingFormat);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(listingFormat.getMediaType());
+            if (etag != null) {
+                response.eTag(etag);
+            }
+            return response.body(body);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    private ResponseEntity<StreamingResponseBody> notModified(String listing, String etag) {
+        stageMetrics.counter("k8s.listing.not_modified", "Listings answered 304 because the client has them",
+            "listing", listing).increment();
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
     }
 
-    private Container createContainerService() throws IOException, GeneralSecurityException {
-        HttpTransport httpTransport = GoogleNetHttpTransport.newTrustedTransport();
-        JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+    /**
+     * Reads services for a fan-out: from the informer store if the cluster's informer already runs
+     * and has synced, otherwise with a plain list. A fan-out over many clusters does not start an
+     * informer for each of them.
+     */
+    private List<Service> readServices(ClusterKey clusterKey, String namespace, String label, boolean consistent,
+        long timeoutMs) throws IOException {
+        if (!consistent) {
+            Optional<ResourceStore<Service>> store = informerRegistry.getObject().syncedServices(clusterKey);
+            if (store.isPresent()) {
+                return isNullOrEmpty(label) ? store.get().byNamespace(namespace)
+                    : filterByLabel(store.get().byNamespace(namespace), label);
+            }
+        }
+        KubernetesClient client = KubernetesClientFactory.withCallTimeout(
+            clusterClientService.getObject().getClient(clusterKey), timeoutMs);
+        List<Service> services = stageMetrics.record("k8s.services.list", clusterKey.getClusterName(), () ->
+            (isNullOrEmpty(label) ? client.services().inNamespace(namespace).list()
+                : client.services().inNamespace(namespace).withLabel(labelKey(label), labelValue(label)).list())
+                .getItems());
+        stageMetrics.recordItems("k8s.services.list", clusterKey.getClusterName(), services.size());
+        return services;
+    }
 
-        GoogleCredential credential = getGoogleCredential();
+    /**
+     * Times every page fetched from the API server.
+     */
+    private <T> PageSource<T> timed(String operation, String clusterName, PageSource<T> source) {
+        return (limit, continueToken) -> {
+            Page<T> page = stageMetrics.record(operation, clusterName, () -> source.fetch(limit, continueToken));
+            stageMetrics.recordItems(operation, clusterName, page.getItems().size());
+            return page;
+        };
+    }
 
-        return new Container.Builder(httpTransport, jsonFactory, credential)
-            .setApplicationName("Google-ContainerSample/0.1")
-            .build();
+    /**
+     * An nginx RC labelled {@code server=nginx}, whose pods are labelled {@code server=podServer}.
+     */
+    private static ReplicationController nginxController(ManifestTemplate template, String name, int replicas,
+        String podServer) {
+        return template.instantiate(ReplicationController.class,
+            "name", name,
+            "labels", Collections.singletonMap(SERVER, NGINX),
+            "podLabels", Collections.singletonMap(SERVER, podServer),
+            "replicas", replicas,
+            "container", NGINX,
+            "image", NGINX);
     }
 
-    private GoogleCredential getGoogleCredential() throws IOException {
-        File credentialsJson = new ClassPathResource("google_credentials.json").getFile();
-        final InputStream targetStream =
-            new DataInputStream(new FileInputStream(credentialsJson));
+    /**
+     * Watches the RC until its controller has observed the latest change to its spec.
+     */
+    private static void awaitObserved(KubernetesClient client, String rcName) throws InterruptedException {
+        client.replicationControllers().inNamespace(THISISATEST_NAMESPACE).withName(rcName)
+            .waitUntilCondition(rc -> rc == null || rc.getStatus() != null
+                    && rc.getStatus().getObservedGeneration() != null
+                    && rc.getStatus().getObservedGeneration() >= rc.getMetadata().getGeneration(),
+                RC_ROLLOUT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
 
-        GoogleCredential credential = GoogleCredential.fromStream(targetStream);
-        if (credential.createScopedRequired()) {
-            credential =
-                credential.createScoped(Arrays.asList("https://www.googleapis.com/auth/cloud-platform",
-                    "https://www.googleapis.com/auth/devstorage.read_write"));
+    /**
+     * A continue token to send to the API server. A snapshot token cannot be continued there, and
+     * starting over from the first page would hand the client objects it already has.
+     *
+     * @throws ResponseStatusException 410 if the token points into a snapshot
+     */
+    private static String apiContinueToken(String continueToken) {
+        if (PageSource.isSnapshotToken(continueToken)) {
+            throw new ResponseStatusException(HttpStatus.GONE,
+                "The continue token cannot be used for this listing any more, start the listing over");
         }
-        credential.refreshToken();
-        return credential;
+        return continueToken;
     }
 
-    private ClusterCredentials getClusterCredentials(final Cluster cluster)
+    private static List<Service> filterByLabel(List<Service> services, String label) {
+        String key = labelKey(label);
+        String value = labelValue(label);
+        return services.stream()
+            .filter(service -> service.getMetadata().getLabels() != null
+                && (value == null ? service.getMetadata().getLabels().containsKey(key)
+                    : value.equals(service.getMetadata().getLabels().get(key))))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Answers 429 or 503 with the {@code Retry-After} of the API server, of the client-side rate
+     * limiter or of the circuit breaker, when a call to the cluster was throttled or rejected, and 404
+     * when the API server has no such resource.
+     */
+    @ExceptionHandler(KubernetesClientException.class)
+    public void handleKubernetesClientException(KubernetesClientException e, HttpServletResponse response)
         throws IOException {
-        return ClusterCredentials.builder()
-            .masterUrl(cluster.getEndpoint())
-            .caCertData(cluster.getMasterAuth().getClusterCaCertificate())
-            .clientKey(cluster.getMasterAuth().getClientKey())
-            .clientCertificate(cluster.getMasterAuth().getClientCertificate())
-            .username(cluster.getMasterAuth().getUsername())
-            .password(cluster.getMasterAuth().getPassword())
-            .oauthToken(getGoogleCredential().getAccessToken())
-            .build();
+        if (e.getCode() == HttpStatus.NOT_FOUND.value()) {
+            response.sendError(HttpStatus.NOT_FOUND.value(), e.getMessage());
+            return;
+        }
+        if (e.getCode() != HttpStatus.TOO_MANY_REQUESTS.value()
+            && e.getCode() != HttpStatus.SERVICE_UNAVAILABLE.value()) {
+            log.error(e.getMessage(), e);
+            response.sendError(HttpStatus.INTERNAL_SERVER_ERROR.value(), e.getMessage());
+            return;
+        }
+        Status status = e.getStatus();
+        if (status != null && status.getDetails() != null && status.getDetails().getRetryAfterSeconds() != null) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(status.getDetails().getRetryAfterSeconds()));
+        }
+        response.sendError(e.getCode(), e.getMessage());
+    }
+
+    /**
+     * Answers 503 when a GKE call was not made because its circuit breaker is open or its bulkhead full.
+     */
+    @ExceptionHandler(CallRejectedException.class)
+    public void handleCallRejectedException(CallRejectedException e, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.RETRY_AFTER,
+            String.valueOf(Math.max(1, TimeUnit.MILLISECONDS.toSeconds(e.getRetryAfterMs() + 999))));
+        response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), e.getMessage());
+    }
+
+    private static String labelKey(String label) {
+        int separator = label.indexOf('=');
+        return separator < 0 ? label : label.substring(0, separator);
+    }
+
+    /**
+     * @return the value of a {@code key=value} selector, or {@code null} for a bare {@code key},
+     *     which selects every object that has the label
+     */
+    private static String labelValue(String label) {
+        int separator = label.indexOf('=');
+        return separator < 0 ? null : label.substring(separator + 1);
     }
 
     private static void log(String action, Object obj) {
@@ -0,0 +1,100 @@
+package com.boroda.kubernetes.demo.execution;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ResolvableType;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandlerComposite;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+/**
+ * Handles a {@link DeferredResult} that already has its result when the handler returns, as with
+ * {@link RequestExecutor} in blocking mode, like a plain return value of the result type: no Servlet
+ * async start and no second dispatch. An error result is thrown as if the handler had thrown it.
+ * Deferred results that are still pending go to the Spring MVC handlers as usual.
+ */
+public class CompletedResultReturnValueHandler implements HandlerMethodReturnValueHandler {
+
+    private final HandlerMethodReturnValueHandler delegate;
+
+    public CompletedResultReturnValueHandler(HandlerMethodReturnValueHandler delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Puts the handler in front of the return value handlers of the adapter, which it delegates to.
+     */
+    public static void install(RequestMappingHandlerAdapter adapter) {
+        List<HandlerMethodReturnValueHandler> handlers = new ArrayList<>(adapter.getReturnValueHandlers());
+        handlers.add(0, new CompletedResultReturnValueHandler(
+            new HandlerMethodReturnValueHandlerComposite().addHandlers(adapter.getReturnValueHandlers())));
+        adapter.setReturnValueHandlers(handlers);
+    }
+
+    @Override
+    public boolean supportsReturnType(MethodParameter returnType) {
+        return DeferredResult.class.isAssignableFrom(returnType.getParameterType());
+    }
+
+    @Override
+    public void handleReturnValue(Object returnValue, MethodParameter returnType, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest) throws Exception {
+        if (returnValue == null || !((DeferredResult<?>) returnValue).hasResult()) {
+            delegate.handleReturnValue(returnValue, returnType, mavContainer, webRequest);
+            return;
+        }
+        Object result = ((DeferredResult<?>) returnValue).getResult();
+        if (result instanceof Exception) {
+            throw (Exception) result;
+        }
+        delegate.handleReturnValue(result, new ResultParameter(returnType, result), mavContainer, webRequest);
+    }
+
+    /**
+     * The return type of the handler with {@code DeferredResult<T>} replaced by {@code T}, so that
+     * the handler for {@code T} is picked and sees its generics.
+     */
+    static class ResultParameter extends MethodParameter {
+
+        private final Object result;
+
+        private final ResolvableType resultType;
+
+        ResultParameter(MethodParameter returnType, Object result) {
+            super(returnType);
+            this.result = result;
+            this.resultType = ResolvableType.forMethodParameter(returnType).getGeneric();
+        }
+
+        private ResultParameter(ResultParameter original) {
+            super(original);
+            this.result = original.result;
+            this.resultType = original.resultType;
+        }
+
+        @Override
+        public Class<?> getParameterType() {
+            if (result != null) {
+                return result.getClass();
+            }
+            Class<?> resolved = resultType.resolve();
+            return resolved != null ? resolved : Object.class;
+        }
+
+        @Override
+        public Type getGenericParameterType() {
+            return resultType == ResolvableType.NONE ? getParameterType() : resultType.getType();
+        }
+
+        @Override
+        public ResultParameter clone() {
+            return new ResultParameter(this);
+        }
+    }
+}
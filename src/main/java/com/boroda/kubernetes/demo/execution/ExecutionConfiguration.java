@@ -0,0 +1,27 @@
+package com.boroda.kubernetes.demo.execution;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+/**
+ * Installs {@link CompletedResultReturnValueHandler}, so that the results {@link RequestExecutor}
+ * completes on the container thread are written without going through Servlet async processing.
+ */
+@Configuration
+public class ExecutionConfiguration {
+
+    @Bean
+    public static BeanPostProcessor completedResultReturnValueHandlerInstaller() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof RequestMappingHandlerAdapter) {
+                    CompletedResultReturnValueHandler.install((RequestMappingHandlerAdapter) bean);
+                }
+                return bean;
+            }
+        };
+    }
+}
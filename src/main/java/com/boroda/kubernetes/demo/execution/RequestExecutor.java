@@ -0,0 +1,140 @@
+package com.boroda.kubernetes.demo.execution;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.boroda.kubernetes.demo.metrics.RequestTrace;
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Runs the work of controller handlers that wait on remote calls (Google OAuth, GKE, Kubernetes
+ * API), according to {@code k8s.execution.mode}:
+ *
+ * <ul>
+ * <li>{@code blocking} (default): on the servlet container thread, as a plain Spring MVC handler
+ * would. The result is set before the handler returns and written by
+ * {@link CompletedResultReturnValueHandler} like a plain return value, without Servlet async
+ * processing.
+ * <li>{@code async}: on a dedicated pool of {@code k8s.execution.io_threads} threads. The container
+ * thread is released as soon as the work is queued, so that a burst of slow requests does not use
+ * up the container pool. When the queue of {@code k8s.execution.queue_size} tasks is full, requests
+ * are answered with 503 right away.
+ * </ul>
+ */
+@Log4j2
+@Component
+public class RequestExecutor {
+
+    public enum Mode {
+        BLOCKING, ASYNC
+    }
+
+    @Autowired
+    private StageMetrics stageMetrics;
+
+    @Value("${k8s.execution.mode:blocking}")
+    private String mode;
+
+    @Value("${k8s.execution.io_threads:200}")
+    private int ioThreads;
+
+    @Value("${k8s.execution.queue_size:1000}")
+    private int queueSize;
+
+    @Value("${k8s.execution.timeout_ms:120000}")
+    private long timeoutMs;
+
+    private Mode executionMode;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void start() {
+        executionMode = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        if (executionMode == Mode.ASYNC) {
+            AtomicInteger threadCount = new AtomicInteger();
+            executor = new ThreadPoolExecutor(ioThreads, ioThreads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "request-io-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            executor.allowCoreThreadTimeOut(true);
+            stageMetrics.monitor(executor, "request.io");
+        }
+        log.info("Handling requests in {} mode", executionMode);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public Mode getMode() {
+        return executionMode;
+    }
+
+    /**
+     * Runs the task as configured. Exceptions thrown by the task are handled by Spring MVC as if the
+     * handler had thrown them.
+     */
+    public <T> DeferredResult<T> execute(Callable<T> task) {
+        if (executionMode == Mode.BLOCKING) {
+            DeferredResult<T> result = new DeferredResult<>();
+            complete(result, task);
+            return result;
+        }
+        DeferredResult<T> result = new DeferredResult<>(timeoutMs,
+            () -> new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Request timed out"));
+        Callable<T> traced = RequestTrace.propagate(task);
+        try {
+            Future<?> future = executor.submit(() -> complete(result, traced));
+            result.onTimeout(() -> future.cancel(true));
+        } catch (RejectedExecutionException e) {
+            result.setErrorResult(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many requests"));
+        }
+        return result;
+    }
+
+    /**
+     * Number of tasks waiting for an I/O thread, or 0 in blocking mode.
+     */
+    public int getQueueDepth() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * Number of I/O threads running a task, or 0 in blocking mode.
+     */
+    public int getActiveCount() {
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    private static <T> void complete(DeferredResult<T> result, Callable<T> task) {
+        try {
+            result.setResult(task.call());
+        } catch (Exception e) {
+            result.setErrorResult(e);
+        }
+    }
+}
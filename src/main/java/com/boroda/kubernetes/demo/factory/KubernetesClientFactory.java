@@ -1,11 +1,18 @@
 package com.boroda.kubernetes.demo.factory;
 
+import java.util.concurrent.TimeUnit;
+
 import com.boroda.kubernetes.demo.model.ClusterCredentials;
 
 import io.fabric8.kubernetes.client.AutoAdaptableKubernetesClient;
 import io.fabric8.kubernetes.client.Config;
 import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.HttpClientAware;
 import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.utils.HttpClientUtils;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
 
 import static com.google.api.client.util.Strings.isNullOrEmpty;
 import static okhttp3.TlsVersion.TLS_1_2;
@@ -34,6 +41,34 @@ public class KubernetesClientFactory {
         return new AutoAdaptableKubernetesClient(this.defaultConfig);
     }
 
+    /**
+     * Same as {@link #create()}, with the interceptors added to the HTTP client so that they see
+     * every request to the API server. Not auto-adaptable: the HTTP client of an
+     * {@link AutoAdaptableKubernetesClient} is one it configures itself, without the interceptors,
+     * while requests sent directly on {@link io.fabric8.kubernetes.client.HttpClientAware#getHttpClient()}
+     * must go through them too.
+     */
+    public KubernetesClient create(Interceptor... interceptors) {
+        OkHttpClient.Builder httpClient = HttpClientUtils.createHttpClient(this.defaultConfig).newBuilder();
+        for (Interceptor interceptor : interceptors) {
+            httpClient.addInterceptor(interceptor);
+        }
+        return new DefaultKubernetesClient(httpClient.build(), this.defaultConfig);
+    }
+
+    /**
+     * A view of the client whose requests fail once they take longer than the timeout, connecting
+     * and reading the response included, and release their thread. It shares the connection pool
+     * and interceptors of the client, so it must not be closed: that would close them for the client
+     * too.
+     */
+    public static KubernetesClient withCallTimeout(KubernetesClient client, long timeoutMs) {
+        OkHttpClient httpClient = ((HttpClientAware) client).getHttpClient().newBuilder()
+            .callTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+            .build();
+        return new DefaultKubernetesClient(httpClient, client.getConfiguration());
+    }
+
     /**
      * Builds the default Kubernetes {@link Config} that will be the base configuration to create
      * per-workspace configurations.
@@ -57,7 +92,11 @@ public class KubernetesClientFactory {
             configBuilder.withClientCertData(clusterCredentials.getClientCertificate());
         }
 
-        configBuilder.withOauthToken(clusterCredentials.getOauthToken());
+        if (clusterCredentials.getOauthTokenProvider() != null) {
+            configBuilder.withOauthTokenProvider(clusterCredentials.getOauthTokenProvider());
+        } else {
+            configBuilder.withOauthToken(clusterCredentials.getOauthToken());
+        }
         configBuilder.withTrustCerts(true);
         configBuilder.withTlsVersions(TLS_1_2);
 
@@ -0,0 +1,224 @@
+package com.boroda.kubernetes.demo.factory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.boroda.kubernetes.demo.model.ClusterCredentials;
+import com.boroda.kubernetes.demo.ratelimit.ApiRateLimiter;
+import com.boroda.kubernetes.demo.resilience.ClusterGuard;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.fabric8.kubernetes.client.KubernetesClient;
+import lombok.extern.log4j.Log4j2;
+import okhttp3.Interceptor;
+
+/**
+ * Shared registry of {@link KubernetesClient} instances, one per cluster. Reusing a client keeps
+ * its OkHttp connection pool (and therefore its TLS sessions) alive across HTTP requests instead
+ * of paying a fresh handshake on every call.
+ *
+ * <p>Clients are keyed by cluster name and master URL. A cached client is rebuilt when the
+ * fingerprint of its {@link ClusterCredentials} changes or when its static OAuth token is about
+ * to expire, and is closed once it has been idle for longer than {@code k8s.client.idle_timeout_ms}.
+ * Callers must not close the clients they get from the registry.
+ */
+@Log4j2
+@Component
+public class KubernetesClientRegistry {
+
+    private final Map<String, Entry> clients = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    private StageMetrics stageMetrics;
+
+    @Autowired
+    private ApiRateLimiter rateLimiter;
+
+    @Autowired
+    private ClusterGuard clusterGuard;
+
+    @Value("${k8s.client.idle_timeout_ms:600000}")
+    private long idleTimeoutMs;
+
+    @Value("${k8s.client.eviction_interval_ms:60000}")
+    private long evictionIntervalMs;
+
+    @Value("${k8s.client.token_expiry_skew_ms:60000}")
+    private long tokenExpirySkewMs;
+
+    @Value("${k8s.client.close_grace_ms:30000}")
+    private long closeGraceMs;
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "k8s-client-registry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::evictIdle, evictionIntervalMs, evictionIntervalMs,
+            TimeUnit.MILLISECONDS);
+        stageMetrics.gauge("k8s.clients", "Kubernetes clients held by the registry", clients, Map::size);
+    }
+
+    /**
+     * Returns the shared client for the given cluster, creating or rebuilding it when needed.
+     *
+     * <p>The client is built outside of the map, so that a slow build does not hold up callers of
+     * other clusters. Callers racing to build the same client keep the first one stored and close
+     * their own.
+     */
+    public KubernetesClient getClient(String clusterName, ClusterCredentials credentials) {
+        String key = clusterName + "@" + credentials.getMasterUrl();
+        String fingerprint = fingerprint(credentials);
+        long now = System.currentTimeMillis();
+
+        while (true) {
+            Entry current = clients.get(key);
+            if (current != null && current.fingerprint.equals(fingerprint) && !current.isExpired(now)) {
+                current.lastAccess = now;
+                return current.client;
+            }
+            KubernetesClient client = stageMetrics.record("k8s.client.create", clusterName,
+                () -> new KubernetesClientFactory(credentials).create(interceptors(key)));
+            Entry created = new Entry(fingerprint, client,
+                credentials.getOauthTokenProvider() == null ? credentials.getOauthTokenExpiresAt() : null);
+            created.lastAccess = now;
+            if (current == null ? clients.putIfAbsent(key, created) == null : clients.replace(key, current, created)) {
+                if (current != null) {
+                    log.info("Rebuilt Kubernetes client for {}: {}", key,
+                        current.isExpired(now) ? "token expired" : "credentials changed");
+                    retire(current);
+                }
+                return client;
+            }
+            // another caller stored its client first
+            close(created);
+        }
+    }
+
+    /**
+     * The rate limiter first and the guard behind it, so that a call waiting for a token does not
+     * hold one of the guard's call slots. Both are keyed like the clients, so that clusters of the
+     * same name in different zones do not share a bucket or a breaker.
+     */
+    private Interceptor[] interceptors(String key) {
+        List<Interceptor> interceptors = new ArrayList<>(Arrays.asList(rateLimiter.interceptors(key)));
+        interceptors.addAll(Arrays.asList(clusterGuard.interceptors(key)));
+        return interceptors.toArray(new Interceptor[0]);
+    }
+
+    /**
+     * Number of clients currently held by the registry.
+     */
+    public int size() {
+        return clients.size();
+    }
+
+    void evictIdle() {
+        long now = System.currentTimeMillis();
+        clients.forEach((key, entry) -> {
+            if (now - entry.lastAccess > idleTimeoutMs && clients.remove(key, entry)) {
+                log.info("Closing idle Kubernetes client for {}", key);
+                close(entry);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        List<Entry> entries = new ArrayList<>(clients.values());
+        clients.clear();
+        entries.forEach(KubernetesClientRegistry::close);
+    }
+
+    /**
+     * Closes a replaced client after a grace period so that requests still using it can finish.
+     */
+    private void retire(Entry entry) {
+        if (scheduler.isShutdown()) {
+            close(entry);
+            return;
+        }
+        scheduler.schedule(() -> close(entry), closeGraceMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static void close(Entry entry) {
+        try {
+            entry.client.close();
+        } catch (RuntimeException e) {
+            log.warn("Failed to close Kubernetes client: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Hashes everything that identifies the cluster connection. The OAuth token is left out when it
+     * comes from a token provider or its expiration time is known, because a rotated token alone
+     * does not require a new connection.
+     */
+    private static String fingerprint(ClusterCredentials credentials) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, credentials.getMasterUrl());
+            update(digest, credentials.getCaCertData());
+            update(digest, credentials.getClientKey());
+            update(digest, credentials.getClientCertificate());
+            update(digest, credentials.getUsername());
+            update(digest, credentials.getPassword());
+            if (credentials.getOauthTokenProvider() == null && credentials.getOauthTokenExpiresAt() == null) {
+                update(digest, credentials.getOauthToken());
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+    }
+
+    private class Entry {
+        private final String fingerprint;
+        private final KubernetesClient client;
+        private final Long tokenExpiresAt;
+        private volatile long lastAccess;
+
+        private Entry(String fingerprint, KubernetesClient client, Long tokenExpiresAt) {
+            this.fingerprint = fingerprint;
+            this.client = client;
+            this.tokenExpiresAt = tokenExpiresAt;
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        private boolean isExpired(long now) {
+            return tokenExpiresAt != null && tokenExpiresAt - tokenExpirySkewMs <= now;
+        }
+    }
+}
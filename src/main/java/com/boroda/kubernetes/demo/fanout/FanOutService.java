@@ -0,0 +1,197 @@
+package com.boroda.kubernetes.demo.fanout;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.boroda.kubernetes.demo.listing.ResourceProjection;
+import com.boroda.kubernetes.demo.metrics.RequestTrace;
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.boroda.kubernetes.demo.model.ClusterKey;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Runs the same read against many clusters concurrently and streams one NDJSON line per cluster as
+ * soon as its result is available, followed by a summary line.
+ *
+ * <p>Reads run on a bounded pool of {@code k8s.fanout.threads} threads. A cluster that has not
+ * answered within the timeout is reported as {@code timeout}, so a slow or dead cluster does not
+ * hold back the others. Interrupting a thread blocked on a socket read does not stop it, so each
+ * read gets the time left until the deadline and must give up on its own once it has passed.
+ */
+@Log4j2
+@Service
+public class FanOutService {
+
+    /**
+     * A read against one cluster.
+     */
+    @FunctionalInterface
+    public interface ClusterRead<T> {
+        /**
+         * @param timeoutMs time left until the deadline, after which the read should fail
+         */
+        List<T> read(ClusterKey clusterKey, long timeoutMs) throws Exception;
+    }
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private StageMetrics stageMetrics;
+
+    @Value("${k8s.fanout.threads:16}")
+    private int threads;
+
+    @Value("${k8s.fanout.queue_size:256}")
+    private int queueSize;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize), runnable -> {
+                Thread thread = new Thread(runnable, "k8s-fanout-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+        stageMetrics.monitor(executor, "k8s.fanout");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Submits the read for every cluster and returns a body that streams the results.
+     *
+     * @param timeoutMs time each cluster has to answer, counted from submission
+     */
+    public <T extends HasMetadata> StreamingResponseBody stream(Collection<ClusterKey> clusters, ClusterRead<T> read,
+        ResourceProjection<T> projection, Collection<String> fields, long timeoutMs) {
+        projection.validate(fields);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        CompletionService<List<T>> completionService = new ExecutorCompletionService<>(executor);
+        Map<Future<List<T>>, ClusterKey> pending = new HashMap<>();
+        Map<ClusterKey, String> rejected = new HashMap<>();
+        for (ClusterKey cluster : clusters) {
+            try {
+                pending.put(completionService.submit(RequestTrace.propagate(() -> read.read(cluster,
+                    Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))))), cluster);
+            } catch (RejectedExecutionException e) {
+                rejected.put(cluster, "too many concurrent fan-out reads");
+            }
+        }
+        return outputStream -> write(outputStream, completionService, pending, rejected, projection, fields,
+            deadline);
+    }
+
+    private <T extends HasMetadata> void write(OutputStream outputStream, CompletionService<List<T>> completionService,
+        Map<Future<List<T>>, ClusterKey> pending, Map<ClusterKey, String> rejected, ResourceProjection<T> projection,
+        Collection<String> fields, long deadline) throws IOException {
+        try {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            int ok = 0;
+            int failed = rejected.size();
+            for (Map.Entry<ClusterKey, String> entry : rejected.entrySet()) {
+                writeFailure(generator, entry.getKey(), "rejected", entry.getValue());
+            }
+            while (!pending.isEmpty()) {
+                long remaining = deadline - System.nanoTime();
+                Future<List<T>> future = remaining > 0 ? completionService.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                if (future == null) {
+                    break;
+                }
+                ClusterKey cluster = pending.remove(future);
+                try {
+                    writeResult(generator, cluster, future.get(), projection, fields);
+                    ok++;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() == null ? e : e.getCause();
+                    log.warn("Fan-out read of cluster {} failed: {}", cluster, cause.getMessage());
+                    writeFailure(generator, cluster, "error", cause.getMessage());
+                    failed++;
+                }
+            }
+            for (ClusterKey cluster : pending.values()) {
+                writeFailure(generator, cluster, "timeout", "no answer within the timeout");
+            }
+
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("summary");
+            generator.writeNumberField("ok", ok);
+            generator.writeNumberField("failed", failed);
+            generator.writeNumberField("timedOut", pending.size());
+            generator.writeEndObject();
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+            generator.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // timed out reads, or all of them if the caller went away: queued ones must not start,
+            // running ones give up at their call timeout
+            pending.keySet().forEach(future -> future.cancel(true));
+        }
+    }
+
+    private <T extends HasMetadata> void writeResult(JsonGenerator generator, ClusterKey cluster, List<T> items,
+        ResourceProjection<T> projection, Collection<String> fields) throws IOException {
+        writeClusterStart(generator, cluster, "ok");
+        generator.writeArrayFieldStart("items");
+        for (T item : items) {
+            projection.write(generator, item, fields);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+        generator.flush();
+    }
+
+    private static void writeFailure(JsonGenerator generator, ClusterKey cluster, String status, String error)
+        throws IOException {
+        writeClusterStart(generator, cluster, status);
+        generator.writeStringField("error", error);
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+        generator.flush();
+    }
+
+    private static void writeClusterStart(JsonGenerator generator, ClusterKey cluster, String status)
+        throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("cluster", cluster.getClusterName());
+        generator.writeStringField("zone", cluster.getZone());
+        generator.writeStringField("status", status);
+    }
+}
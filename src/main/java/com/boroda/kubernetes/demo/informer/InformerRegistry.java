@@ -0,0 +1,172 @@
+package com.boroda.kubernetes.demo.informer;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.boroda.kubernetes.demo.model.ClusterKey;
+import com.boroda.kubernetes.demo.service.ClusterClientService;
+import com.boroda.kubernetes.demo.watch.ManagedWatch;
+import com.boroda.kubernetes.demo.watch.OverflowPolicy;
+import com.boroda.kubernetes.demo.watch.WatchManager;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.api.model.NamespaceList;
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.api.model.ServiceList;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Starts service and namespace informers per cluster on first use, so that read endpoints can be
+ * served from memory. Informers of a cluster that has not been read for
+ * {@code k8s.informer.idle_timeout_ms} are stopped.
+ */
+@Log4j2
+@Component
+public class InformerRegistry {
+
+    @Autowired
+    private ClusterClientService clusterClientService;
+
+    @Autowired
+    private StageMetrics stageMetrics;
+
+    @Autowired
+    private WatchManager watchManager;
+
+    @Value("${k8s.informer.sync_timeout_ms:5000}")
+    private long syncTimeoutMs;
+
+    @Value("${k8s.informer.idle_timeout_ms:1800000}")
+    private long idleTimeoutMs;
+
+    @Value("${k8s.informer.overflow_policy:block}")
+    private String overflowPolicy;
+
+    private OverflowPolicy informerOverflowPolicy;
+
+    private final Map<ClusterKey, ClusterInformers> informers = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        informerOverflowPolicy = OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase(Locale.ROOT));
+        if (!informerOverflowPolicy.isLossless()) {
+            throw new IllegalArgumentException("k8s.informer.overflow_policy " + overflowPolicy
+                + " would leave the informer stores out of date, use block or relist");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "k8s-informer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::stopIdle, 60, 60, TimeUnit.SECONDS);
+        stageMetrics.gauge("k8s.informers", "Clusters with running informers", informers, Map::size);
+    }
+
+    /**
+     * Returns the service store of the cluster, or an empty result if the informer has not
+     * finished its initial list within {@code k8s.informer.sync_timeout_ms}.
+     */
+    public Optional<ResourceStore<Service>> services(ClusterKey key) throws InterruptedException {
+        return synced(key, get(key).services);
+    }
+
+    /**
+     * Returns the service store of the cluster if its informer is already running and has synced,
+     * without starting the informer or waiting for it.
+     */
+    public Optional<ResourceStore<Service>> syncedServices(ClusterKey key) {
+        ClusterInformers clusterInformers = informers.get(key);
+        if (clusterInformers == null || !clusterInformers.services.hasSynced()) {
+            return Optional.empty();
+        }
+        clusterInformers.lastAccess = System.currentTimeMillis();
+        return Optional.of(clusterInformers.services.getStore());
+    }
+
+    /**
+     * Returns the namespace store of the cluster, or an empty result if the informer has not
+     * finished its initial list within {@code k8s.informer.sync_timeout_ms}.
+     */
+    public Optional<ResourceStore<Namespace>> namespaces(ClusterKey key) throws InterruptedException {
+        return synced(key, get(key).namespaces);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        informers.values().forEach(ClusterInformers::stop);
+        informers.clear();
+        scheduler.shutdownNow();
+    }
+
+    private ClusterInformers get(ClusterKey key) {
+        ClusterInformers clusterInformers = informers.computeIfAbsent(key, this::create);
+        clusterInformers.lastAccess = System.currentTimeMillis();
+        return clusterInformers;
+    }
+
+    private <T extends HasMetadata> Optional<ResourceStore<T>> synced(ClusterKey key,
+        SharedInformer<T, ?> informer) throws InterruptedException {
+        if (informer.hasSynced()) {
+            return Optional.of(informer.getStore());
+        }
+        boolean synced = stageMetrics.record("k8s.informer.sync", key.getClusterName(),
+            () -> informer.awaitSynced(syncTimeoutMs, TimeUnit.MILLISECONDS));
+        return synced ? Optional.of(informer.getStore()) : Optional.empty();
+    }
+
+    private ClusterInformers create(ClusterKey key) {
+        log.info("Starting informers for cluster {}", key);
+        ManagedWatch.ClientSupplier clientSupplier = () -> clusterClientService.getClient(key);
+        ClusterInformers clusterInformers = new ClusterInformers(
+            new SharedInformer<Service, ServiceList>(key.getClusterName(), "services", clientSupplier,
+                client -> client.services().inAnyNamespace(), watchManager, informerOverflowPolicy),
+            new SharedInformer<Namespace, NamespaceList>(key.getClusterName(), "namespaces", clientSupplier,
+                client -> client.namespaces(), watchManager, informerOverflowPolicy));
+        clusterInformers.services.start();
+        clusterInformers.namespaces.start();
+        return clusterInformers;
+    }
+
+    private void stopIdle() {
+        long now = System.currentTimeMillis();
+        informers.forEach((key, clusterInformers) -> {
+            if (now - clusterInformers.lastAccess > idleTimeoutMs && informers.remove(key, clusterInformers)) {
+                log.info("Stopping idle informers for cluster {}", key);
+                clusterInformers.stop();
+            }
+        });
+    }
+
+    private static class ClusterInformers {
+        private final SharedInformer<Service, ServiceList> services;
+        private final SharedInformer<Namespace, NamespaceList> namespaces;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private ClusterInformers(SharedInformer<Service, ServiceList> services,
+            SharedInformer<Namespace, NamespaceList> namespaces) {
+            this.services = services;
+            this.namespaces = namespaces;
+        }
+
+        private void stop() {
+            services.stop();
+            namespaces.stop();
+        }
+    }
+}
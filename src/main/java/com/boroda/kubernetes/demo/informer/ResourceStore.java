@@ -0,0 +1,161 @@
+package com.boroda.kubernetes.demo.informer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+
+/**
+ * In-memory copy of a set of Kubernetes objects with secondary indexes by namespace and by label.
+ *
+ * <p>Writes come from a single informer and are serialized; reads are lock-free and may run
+ * concurrently with writes. A relist builds a new set of maps and publishes it at once, so a read
+ * sees either the content before the relist or after it, never a partly refilled store.
+ */
+public class ResourceStore<T extends HasMetadata> {
+
+    private static final String CLUSTER_SCOPED = "";
+
+    private volatile Content<T> content = new Content<>();
+
+    private volatile String resourceVersion;
+
+    /**
+     * Replaces the whole content of the store with the result of a list call.
+     */
+    public synchronized void replace(Collection<T> resources, String listResourceVersion) {
+        Content<T> next = new Content<>();
+        resources.forEach(resource -> put(next, resource));
+        content = next;
+        resourceVersion = listResourceVersion;
+    }
+
+    public synchronized void upsert(T resource) {
+        Content<T> current = content;
+        T previous = current.items.get(key(resource.getMetadata()));
+        if (previous != null) {
+            unindex(current, previous);
+        }
+        put(current, resource);
+        resourceVersion = resource.getMetadata().getResourceVersion();
+    }
+
+    public synchronized void delete(T resource) {
+        Content<T> current = content;
+        T previous = current.items.remove(key(resource.getMetadata()));
+        if (previous != null) {
+            unindex(current, previous);
+        }
+        resourceVersion = resource.getMetadata().getResourceVersion();
+    }
+
+    public T get(String namespace, String name) {
+        return content.items.get(key(namespace, name));
+    }
+
+    public List<T> list() {
+        return new ArrayList<>(content.items.values());
+    }
+
+    public List<T> byNamespace(String namespace) {
+        Content<T> current = content;
+        return resolve(current, current.namespaceIndex.get(namespace == null ? CLUSTER_SCOPED : namespace));
+    }
+
+    /**
+     * @param value the value of the label, or {@code null} for every object that has the label
+     */
+    public List<T> byLabel(String label, String value) {
+        Content<T> current = content;
+        return resolve(current, current.labelIndex.get(value == null ? label : label + "=" + value));
+    }
+
+    public int size() {
+        return content.items.size();
+    }
+
+    /**
+     * Resource version of the last list or watch event applied to the store.
+     */
+    public String getResourceVersion() {
+        return resourceVersion;
+    }
+
+    private static <T extends HasMetadata> void put(Content<T> content, T resource) {
+        ObjectMeta metadata = resource.getMetadata();
+        String key = key(metadata);
+        content.items.put(key, resource);
+        index(content.namespaceIndex, namespaceOf(metadata), key);
+        labels(metadata).forEach((label, value) -> {
+            index(content.labelIndex, label + "=" + value, key);
+            index(content.labelIndex, label, key);
+        });
+    }
+
+    private static <T extends HasMetadata> void unindex(Content<T> content, T resource) {
+        ObjectMeta metadata = resource.getMetadata();
+        String key = key(metadata);
+        unindex(content.namespaceIndex, namespaceOf(metadata), key);
+        labels(metadata).forEach((label, value) -> {
+            unindex(content.labelIndex, label + "=" + value, key);
+            unindex(content.labelIndex, label, key);
+        });
+    }
+
+    private static <T> List<T> resolve(Content<T> content, Set<String> keys) {
+        if (keys == null) {
+            return Collections.emptyList();
+        }
+        List<T> result = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            T item = content.items.get(key);
+            if (item != null) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    private static void index(Map<String, Set<String>> index, String value, String key) {
+        index.computeIfAbsent(value, v -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+
+    private static void unindex(Map<String, Set<String>> index, String value, String key) {
+        index.computeIfPresent(value, (v, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    private static Map<String, String> labels(ObjectMeta metadata) {
+        return metadata.getLabels() == null ? Collections.emptyMap() : metadata.getLabels();
+    }
+
+    private static String namespaceOf(ObjectMeta metadata) {
+        return metadata.getNamespace() == null ? CLUSTER_SCOPED : metadata.getNamespace();
+    }
+
+    private static String key(ObjectMeta metadata) {
+        return key(metadata.getNamespace(), metadata.getName());
+    }
+
+    private static String key(String namespace, String name) {
+        return (namespace == null ? CLUSTER_SCOPED : namespace) + "/" + name;
+    }
+
+    /**
+     * The objects and their indexes. Updated in place by watch events, replaced as a whole by a relist.
+     */
+    private static final class Content<T> {
+        private final Map<String, T> items = new ConcurrentHashMap<>();
+        private final Map<String, Set<String>> namespaceIndex = new ConcurrentHashMap<>();
+        // by key=value, and by key alone for the objects that have the label at all
+        private final Map<String, Set<String>> labelIndex = new ConcurrentHashMap<>();
+    }
+}
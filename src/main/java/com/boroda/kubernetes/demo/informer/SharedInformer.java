@@ -0,0 +1,101 @@
+package com.boroda.kubernetes.demo.informer;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.boroda.kubernetes.demo.watch.ManagedWatch;
+import com.boroda.kubernetes.demo.watch.OverflowPolicy;
+import com.boroda.kubernetes.demo.watch.WatchHandler;
+import com.boroda.kubernetes.demo.watch.WatchManager;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesResourceList;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.kubernetes.client.dsl.WatchListDeletable;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Keeps a {@link ResourceStore} in sync with the API server through a {@link ManagedWatch}: the
+ * store is replaced by every list and updated by every event. Reconnects and relists are left to
+ * the watch.
+ */
+@Log4j2
+public class SharedInformer<T extends HasMetadata, L extends KubernetesResourceList<T>> implements WatchHandler<T> {
+
+    private final String cluster;
+    private final String resource;
+    private final ManagedWatch.ClientSupplier clientSupplier;
+    private final Function<KubernetesClient, WatchListDeletable<T, L, Boolean, Watch, Watcher<T>>> operation;
+    private final WatchManager watchManager;
+    private final OverflowPolicy overflowPolicy;
+    private final ResourceStore<T> store = new ResourceStore<>();
+    private final CountDownLatch synced = new CountDownLatch(1);
+
+    private volatile ManagedWatch<T, L> watch;
+
+    public SharedInformer(String cluster, String resource, ManagedWatch.ClientSupplier clientSupplier,
+        Function<KubernetesClient, WatchListDeletable<T, L, Boolean, Watch, Watcher<T>>> operation,
+        WatchManager watchManager, OverflowPolicy overflowPolicy) {
+        this.cluster = cluster;
+        this.resource = resource;
+        this.clientSupplier = clientSupplier;
+        this.operation = operation;
+        this.watchManager = watchManager;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public void start() {
+        watch = watchManager.watch(cluster, resource, clientSupplier, operation, overflowPolicy, this);
+    }
+
+    public void stop() {
+        ManagedWatch<T, L> current = watch;
+        if (current != null) {
+            current.stop();
+        }
+    }
+
+    public ResourceStore<T> getStore() {
+        return store;
+    }
+
+    public boolean hasSynced() {
+        return synced.getCount() == 0;
+    }
+
+    /**
+     * Waits until the initial list has been applied to the store.
+     *
+     * @return {@code true} if the store is synced
+     */
+    public boolean awaitSynced(long timeout, TimeUnit unit) throws InterruptedException {
+        return synced.await(timeout, unit);
+    }
+
+    @Override
+    public void onList(List<T> items, String resourceVersion) {
+        store.replace(items, resourceVersion);
+        synced.countDown();
+        log.info("Informer {}/{} synced {} objects at resource version {}", cluster, resource, store.size(),
+            resourceVersion);
+    }
+
+    @Override
+    public void onEvent(Watcher.Action action, T object) {
+        switch (action) {
+            case ADDED:
+            case MODIFIED:
+                store.upsert(object);
+                break;
+            case DELETED:
+                store.delete(object);
+                break;
+            default:
+                log.warn("Informer {}/{} received {} event", cluster, resource, action);
+        }
+    }
+}
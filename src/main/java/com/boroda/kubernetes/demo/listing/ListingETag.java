@@ -0,0 +1,46 @@
+package com.boroda.kubernetes.demo.listing;
+
+/**
+ * Entity tags of listings served from an informer store. The resource version of the store moves
+ * with every list or watch event applied to it, so for a given URL it identifies the listing without
+ * serializing it.
+ *
+ * <p>The tags are weak: the same listing may be sent gzipped or not, and the servlet container does
+ * not compress responses that carry a strong tag.
+ */
+public final class ListingETag {
+
+    private static final String WEAK_PREFIX = "W/";
+
+    private ListingETag() {
+    }
+
+    /**
+     * @return the tag of a listing read at the given resource version, or {@code null} if the store
+     *     has not been synced yet
+     */
+    public static String of(String resourceVersion) {
+        return resourceVersion == null || resourceVersion.isEmpty() ? null : WEAK_PREFIX + "\"" + resourceVersion + "\"";
+    }
+
+    /**
+     * Weak comparison of the tag with the value of an {@code If-None-Match} header.
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        String opaque = opaque(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || opaque(trimmed).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaque(String etag) {
+        return etag.startsWith(WEAK_PREFIX) ? etag.substring(WEAK_PREFIX.length()) : etag;
+    }
+}
@@ -0,0 +1,28 @@
+package com.boroda.kubernetes.demo.listing;
+
+import org.springframework.http.MediaType;
+
+/**
+ * Output format of a streamed listing.
+ */
+public enum ListingFormat {
+    /**
+     * A single JSON document: {@code {"items": [...], "continue": "..."}}.
+     */
+    JSON(MediaType.APPLICATION_JSON),
+    /**
+     * One JSON object per line, followed by a {@code {"continue": "..."}} line when the listing
+     * was cut by the limit.
+     */
+    NDJSON(new MediaType("application", "x-ndjson"));
+
+    private final MediaType mediaType;
+
+    ListingFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+}
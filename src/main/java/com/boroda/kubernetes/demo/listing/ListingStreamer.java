@@ -0,0 +1,90 @@
+package com.boroda.kubernetes.demo.listing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+
+/**
+ * Streams a listing to the HTTP response one page at a time, so that memory use does not depend on
+ * the number of listed objects.
+ *
+ * <p>Pages of at most {@code k8s.listing.page_size} objects are fetched and written until the
+ * source is exhausted or {@code limit} objects have been written. In the latter case the response
+ * ends with the continue token the caller can resume from.
+ */
+@Component
+public class ListingStreamer {
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${k8s.listing.page_size:500}")
+    private int pageSize;
+
+    /**
+     * Fetches the first page right away, so that API errors surface before the response is
+     * committed, and returns a body that streams the rest.
+     */
+    public <T extends HasMetadata> StreamingResponseBody stream(
+        PageSource<T> source, ResourceProjection<T> projection, Collection<String> fields, Integer limit,
+        String continueToken, ListingFormat format) {
+        projection.validate(fields);
+        int remaining = limit == null || limit <= 0 ? Integer.MAX_VALUE : limit;
+        Page<T> first = source.fetch(Math.min(pageSize, remaining), continueToken);
+        return outputStream -> write(outputStream, source, first, projection, fields, remaining, format);
+    }
+
+    private <T extends HasMetadata> void write(OutputStream outputStream,
+        PageSource<T> source, Page<T> first, ResourceProjection<T> projection, Collection<String> fields,
+        int limit, ListingFormat format) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+        if (format == ListingFormat.JSON) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("items");
+        }
+
+        int remaining = limit;
+        Page<T> page = first;
+        while (true) {
+            for (T item : page.getItems()) {
+                projection.write(generator, item, fields);
+                if (format == ListingFormat.NDJSON) {
+                    generator.writeRaw('\n');
+                }
+            }
+            remaining -= page.getItems().size();
+            generator.flush();
+            if (page.getContinueToken() == null || remaining <= 0) {
+                break;
+            }
+            page = source.fetch(Math.min(pageSize, remaining), page.getContinueToken());
+        }
+
+        String next = page.getContinueToken();
+        if (format == ListingFormat.JSON) {
+            generator.writeEndArray();
+            if (next != null) {
+                generator.writeStringField("continue", next);
+            }
+            generator.writeEndObject();
+        } else if (next != null) {
+            generator.writeStartObject();
+            generator.writeStringField("continue", next);
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+        generator.close();
+    }
+}
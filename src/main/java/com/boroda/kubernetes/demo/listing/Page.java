@@ -0,0 +1,14 @@
+package com.boroda.kubernetes.demo.listing;
+
+import java.util.List;
+
+import lombok.Value;
+
+/**
+ * One page of a listing and the token to fetch the next one, {@code null} on the last page.
+ */
+@Value
+public class Page<T> {
+    private List<T> items;
+    private String continueToken;
+}
@@ -0,0 +1,61 @@
+package com.boroda.kubernetes.demo.listing;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesResourceList;
+import io.fabric8.kubernetes.client.dsl.Listable;
+
+/**
+ * Fetches a listing page by page.
+ */
+@FunctionalInterface
+public interface PageSource<T> {
+
+    /**
+     * Prefix of continue tokens that point into an in-memory snapshot rather than the API server.
+     */
+    String SNAPSHOT_TOKEN_PREFIX = "snapshot:";
+
+    Page<T> fetch(int limit, String continueToken);
+
+    /**
+     * Pages through the API server with {@code limit}/{@code continue}.
+     */
+    static <T extends HasMetadata, L extends KubernetesResourceList<T>> PageSource<T> ofApi(Listable<L> listable) {
+        return (limit, continueToken) -> {
+            L list = listable.list(limit, continueToken);
+            String next = list.getMetadata() == null ? null : list.getMetadata().getContinue();
+            return new Page<>(list.getItems(), next == null || next.isEmpty() ? null : next);
+        };
+    }
+
+    /**
+     * Pages through an in-memory snapshot ordered by name. The continue token carries the name of
+     * the last returned object.
+     */
+    static <T extends HasMetadata> PageSource<T> ofSnapshot(List<T> items) {
+        List<T> sorted = new ArrayList<>(items);
+        Function<T, String> name = item -> item.getMetadata().getName();
+        sorted.sort(Comparator.comparing(name));
+        return (limit, continueToken) -> {
+            int from = 0;
+            if (continueToken != null) {
+                String after = continueToken.substring(SNAPSHOT_TOKEN_PREFIX.length());
+                while (from < sorted.size() && name.apply(sorted.get(from)).compareTo(after) <= 0) {
+                    from++;
+                }
+            }
+            int to = Math.min(from + limit, sorted.size());
+            String next = to < sorted.size() ? SNAPSHOT_TOKEN_PREFIX + name.apply(sorted.get(to - 1)) : null;
+            return new Page<>(sorted.subList(from, to), next);
+        };
+    }
+
+    static boolean isSnapshotToken(String continueToken) {
+        return continueToken != null && continueToken.startsWith(SNAPSHOT_TOKEN_PREFIX);
+    }
+}
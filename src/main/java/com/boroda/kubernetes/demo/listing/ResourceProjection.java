@@ -0,0 +1,74 @@
+package com.boroda.kubernetes.demo.listing;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.api.model.Service;
+
+/**
+ * Named fields that can be selected from a resource, so that a listing serializes only what the
+ * caller asked for.
+ */
+public class ResourceProjection<T extends HasMetadata> {
+
+    public static final ResourceProjection<Service> SERVICES = new ResourceProjection<Service>()
+        .field("clusterIP", service -> service.getSpec() == null ? null : service.getSpec().getClusterIP())
+        .field("type", service -> service.getSpec() == null ? null : service.getSpec().getType())
+        .field("ports", service -> service.getSpec() == null ? null : service.getSpec().getPorts())
+        .field("selector", service -> service.getSpec() == null ? null : service.getSpec().getSelector());
+
+    public static final ResourceProjection<Namespace> NAMESPACES = new ResourceProjection<Namespace>()
+        .field("phase", namespace -> namespace.getStatus() == null ? null : namespace.getStatus().getPhase());
+
+    private final Map<String, Function<T, Object>> fields = new LinkedHashMap<>();
+
+    private ResourceProjection() {
+        field("name", item -> item.getMetadata().getName());
+        field("namespace", item -> item.getMetadata().getNamespace());
+        field("labels", item -> item.getMetadata().getLabels());
+        field("resourceVersion", item -> item.getMetadata().getResourceVersion());
+        field("creationTimestamp", item -> item.getMetadata().getCreationTimestamp());
+    }
+
+    private ResourceProjection<T> field(String name, Function<T, Object> extractor) {
+        fields.put(name, extractor);
+        return this;
+    }
+
+    /**
+     * @throws IllegalArgumentException if one of the requested fields is unknown
+     */
+    public void validate(Collection<String> requested) {
+        for (String name : requested) {
+            if (!fields.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown field '" + name + "', expected one of " + fields.keySet());
+            }
+        }
+    }
+
+    /**
+     * Writes the requested fields of the item, or the whole item if no field is requested.
+     */
+    public void write(JsonGenerator generator, T item, Collection<String> requested) throws IOException {
+        if (requested.isEmpty()) {
+            generator.writeObject(item);
+            return;
+        }
+        generator.writeStartObject();
+        for (String name : requested) {
+            Object value = fields.get(name).apply(item);
+            if (value != null) {
+                generator.writeFieldName(name);
+                generator.writeObject(value);
+            }
+        }
+        generator.writeEndObject();
+    }
+}
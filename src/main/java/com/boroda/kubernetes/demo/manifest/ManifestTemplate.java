@@ -0,0 +1,184 @@
+package com.boroda.kubernetes.demo.manifest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import io.fabric8.kubernetes.client.utils.Serialization;
+
+/**
+ * A manifest parsed once into a prototype tree. Values written as {@code ${parameter}} or
+ * {@code ${parameter:default}} are the only parts that differ between instances; each one takes
+ * a whole value, which may be a string, a number or a map such as a set of labels.
+ *
+ * <p>Instantiating copies the prototype, sets the parameters and binds the result, without going
+ * through YAML or a chain of builders. A template without parameters binds straight from the
+ * prototype.
+ */
+public final class ManifestTemplate {
+
+    private static final Pattern PARAMETER = Pattern.compile("\\$\\{([A-Za-z0-9_.-]+)(?::(.*))?}");
+    private static final ObjectMapper MAPPER = Serialization.jsonMapper();
+
+    private final String name;
+    private final JsonNode prototype;
+    private final List<Slot> slots;
+
+    private ManifestTemplate(String name, JsonNode prototype, List<Slot> slots) {
+        this.name = name;
+        this.prototype = prototype;
+        this.slots = slots;
+    }
+
+    /**
+     * Parses a single YAML document into a template.
+     */
+    public static ManifestTemplate parse(String name, InputStream yaml) throws IOException {
+        JsonNode prototype = Serialization.yamlMapper().readTree(yaml);
+        if (!(prototype instanceof ContainerNode)) {
+            throw new IllegalArgumentException("Manifest template " + name + " is not an object");
+        }
+        List<Slot> slots = new ArrayList<>();
+        collectSlots(prototype, JsonPointer.compile(""), slots);
+        return new ManifestTemplate(name, prototype, Collections.unmodifiableList(slots));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Whether the template has no parameters, so that every instance is the same.
+     */
+    public boolean isStatic() {
+        return slots.isEmpty();
+    }
+
+    /**
+     * Creates an object from the template.
+     *
+     * @param parameters parameter names and values, alternating
+     * @throws IllegalArgumentException if a parameter without a default is not given
+     */
+    public <T> T instantiate(Class<T> type, Object... parameters) {
+        try {
+            return MAPPER.treeToValue(isStatic() ? prototype : fill(parameters), type);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Manifest template " + name + " does not fit "
+                + type.getSimpleName() + ": " + e.getOriginalMessage(), e);
+        }
+    }
+
+    private JsonNode fill(Object... parameters) {
+        if (parameters.length % 2 != 0) {
+            throw new IllegalArgumentException("Parameters of manifest template " + name + " must come in pairs");
+        }
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < parameters.length; i += 2) {
+            values.put((String) parameters[i], parameters[i + 1]);
+        }
+        JsonNode copy = prototype.deepCopy();
+        for (Slot slot : slots) {
+            JsonNode value;
+            if (values.get(slot.parameter) != null) {
+                value = MAPPER.valueToTree(values.get(slot.parameter));
+            } else if (slot.defaultValue != null) {
+                value = slot.defaultValue;
+            } else {
+                throw new IllegalArgumentException("Manifest template " + name + " needs parameter " + slot.parameter);
+            }
+            JsonNode parent = copy.at(slot.parent);
+            if (parent instanceof ObjectNode) {
+                ((ObjectNode) parent).set(slot.field, value);
+            } else {
+                ((ArrayNode) parent).set(slot.index, value);
+            }
+        }
+        return copy;
+    }
+
+    private static void collectSlots(JsonNode node, JsonPointer path, List<Slot> slots) {
+        if (node instanceof ObjectNode) {
+            node.fields().forEachRemaining(field -> {
+                Slot slot = Slot.of(field.getValue(), path, field.getKey(), -1);
+                if (slot != null) {
+                    slots.add(slot);
+                } else {
+                    collectSlots(field.getValue(), path.append(JsonPointer.compile("/" + escape(field.getKey()))),
+                        slots);
+                }
+            });
+        } else if (node instanceof ArrayNode) {
+            for (int i = 0; i < node.size(); i++) {
+                Slot slot = Slot.of(node.get(i), path, null, i);
+                if (slot != null) {
+                    slots.add(slot);
+                } else {
+                    collectSlots(node.get(i), path.append(JsonPointer.compile("/" + i)), slots);
+                }
+            }
+        }
+    }
+
+    private static String escape(String field) {
+        return field.replace("~", "~0").replace("/", "~1");
+    }
+
+    /**
+     * Place of a parameter: the field or element of the container at {@code parent}.
+     */
+    private static final class Slot {
+        private final JsonPointer parent;
+        private final String field;
+        private final int index;
+        private final String parameter;
+        private final JsonNode defaultValue;
+
+        private Slot(JsonPointer parent, String field, int index, String parameter, JsonNode defaultValue) {
+            this.parent = parent;
+            this.field = field;
+            this.index = index;
+            this.parameter = parameter;
+            this.defaultValue = defaultValue;
+        }
+
+        private static Slot of(JsonNode value, JsonPointer parent, String field, int index) {
+            if (!value.isTextual()) {
+                return null;
+            }
+            Matcher matcher = PARAMETER.matcher(value.textValue());
+            if (!matcher.matches()) {
+                return null;
+            }
+            return new Slot(parent, field, index, matcher.group(1),
+                matcher.group(2) == null ? null : defaultValue(matcher.group(2)));
+        }
+
+        /**
+         * Reads a default as a YAML scalar, so that {@code ${replicas:1}} defaults to a number.
+         */
+        private static JsonNode defaultValue(String text) {
+            try {
+                JsonNode value = Serialization.yamlMapper().readTree(text);
+                return value != null && value.isValueNode() ? value : TextNode.valueOf(text);
+            } catch (IOException e) {
+                return TextNode.valueOf(text);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.boroda.kubernetes.demo.manifest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Manifest templates of {@code k8s.manifests.location}, loaded once at startup and looked up by
+ * file name without the {@code .yaml} extension.
+ */
+@Log4j2
+@Component
+public class ManifestTemplates {
+
+    private static final String EXTENSION = ".yaml";
+
+    @Value("${k8s.manifests.location:classpath*:manifests/*.yaml}")
+    private String location;
+
+    private Map<String, ManifestTemplate> templates = Collections.emptyMap();
+
+    @PostConstruct
+    public void load() throws IOException {
+        Map<String, ManifestTemplate> loaded = new TreeMap<>();
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources(location)) {
+            String name = resource.getFilename();
+            if (name == null || !name.endsWith(EXTENSION)) {
+                continue;
+            }
+            name = name.substring(0, name.length() - EXTENSION.length());
+            try (InputStream yaml = resource.getInputStream()) {
+                loaded.put(name, ManifestTemplate.parse(name, yaml));
+            }
+        }
+        templates = Collections.unmodifiableMap(loaded);
+        log.info("Loaded manifest templates {}", templates.keySet());
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no such template
+     */
+    public ManifestTemplate get(String name) {
+        ManifestTemplate template = templates.get(name);
+        if (template == null) {
+            throw new IllegalArgumentException("Unknown manifest template " + name);
+        }
+        return template;
+    }
+}
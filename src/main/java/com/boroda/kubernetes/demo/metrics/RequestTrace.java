@@ -0,0 +1,174 @@
+package com.boroda.kubernetes.demo.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import com.boroda.kubernetes.demo.ratelimit.Priority;
+
+import lombok.Value;
+
+/**
+ * Spans of the outbound calls made while serving one request. The trace of the request being
+ * served is kept in a thread local; work handed to other threads carries it along, together with
+ * the rate limiter lane of the request, through {@link #propagate(Callable)} or
+ * {@link #propagating(Executor)}.
+ */
+public final class RequestTrace {
+
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+
+    /**
+     * One timed call, with its start relative to the start of the request.
+     */
+    @Value
+    public static class Span {
+        private String operation;
+        private String cluster;
+        private String outcome;
+        private double startMs;
+        private double durationMs;
+    }
+
+    private final String method;
+    private final String path;
+    private final long startNanos = System.nanoTime();
+    private final List<Span> spans = new ArrayList<>();
+    private volatile long endNanos;
+
+    private RequestTrace(String method, String path) {
+        this.method = method;
+        this.path = path;
+    }
+
+    /**
+     * Starts a trace and makes it the current one of this thread.
+     */
+    public static RequestTrace begin(String method, String path) {
+        RequestTrace trace = new RequestTrace(method, path);
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    /**
+     * Detaches the current trace from this thread.
+     */
+    public static void detach() {
+        CURRENT.remove();
+    }
+
+    public static RequestTrace current() {
+        return CURRENT.get();
+    }
+
+    static void recordSpan(String operation, String cluster, String outcome, long startNanos, long durationNanos) {
+        RequestTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.add(new Span(operation, cluster, outcome, toMs(startNanos - trace.startNanos), toMs(durationNanos)));
+        }
+    }
+
+    /**
+     * Wraps the task so that it runs with the trace and the {@link Priority} lane of the calling
+     * thread.
+     */
+    public static <T> Callable<T> propagate(Callable<T> task) {
+        RequestTrace trace = CURRENT.get();
+        Priority lane = Priority.current();
+        if (trace == null && lane == null) {
+            return task;
+        }
+        return () -> {
+            RequestTrace previous = CURRENT.get();
+            CURRENT.set(trace);
+            try (Priority.Scope ignored = Priority.enter(lane)) {
+                return task.call();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /**
+     * Wraps the executor so that its tasks run with the trace and the {@link Priority} lane of the
+     * calling thread. Both are taken when the executor is wrapped, not when a task is submitted:
+     * stages of a {@link java.util.concurrent.CompletableFuture} are submitted by whichever thread
+     * completes the stage before them.
+     */
+    public static Executor propagating(Executor executor) {
+        RequestTrace trace = CURRENT.get();
+        Priority lane = Priority.current();
+        if (trace == null && lane == null) {
+            return executor;
+        }
+        return runnable -> executor.execute(() -> {
+            RequestTrace previous = CURRENT.get();
+            CURRENT.set(trace);
+            try (Priority.Scope ignored = Priority.enter(lane)) {
+                runnable.run();
+            } finally {
+                restore(previous);
+            }
+        });
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public synchronized List<Span> getSpans() {
+        return new ArrayList<>(spans);
+    }
+
+    /**
+     * Time since the start of the request, or its total duration once it has ended.
+     */
+    public double getTotalMs() {
+        long end = endNanos;
+        return toMs((end == 0 ? System.nanoTime() : end) - startNanos);
+    }
+
+    void end() {
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * The spans in the format of the {@code Server-Timing} response header.
+     */
+    public String toServerTiming() {
+        StringBuilder header = new StringBuilder();
+        for (Span span : getSpans()) {
+            header.append(span.getOperation())
+                .append(";dur=").append(format(span.getDurationMs()))
+                .append(";desc=\"").append(span.getCluster()).append(' ').append(span.getOutcome()).append("\", ");
+        }
+        return header.append("total;dur=").append(format(getTotalMs())).toString();
+    }
+
+    private synchronized void add(Span span) {
+        spans.add(span);
+    }
+
+    private static void restore(RequestTrace previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    private static double toMs(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static String format(double ms) {
+        return String.format(Locale.ROOT, "%.1f", ms);
+    }
+}
@@ -0,0 +1,158 @@
+package com.boroda.kubernetes.demo.metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Traces every request to {@code /cluster/**}: outbound calls timed by {@link StageMetrics} are
+ * collected as spans, returned in the {@code Server-Timing} response header and kept for the last
+ * {@code k8s.trace.recent_size} requests.
+ */
+@Log4j2
+@Component
+public class ServerTimingFilter extends OncePerRequestFilter {
+
+    private static final String SERVER_TIMING = "Server-Timing";
+
+    @Value("${k8s.trace.recent_size:100}")
+    private int recentSize;
+
+    private final Deque<RequestTrace> recent = new ArrayDeque<>();
+
+    /**
+     * Traces of the most recently completed requests, newest first.
+     */
+    public List<RequestTrace> getRecent() {
+        synchronized (recent) {
+            return new ArrayList<>(recent);
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith(request.getContextPath() + "/cluster/")
+            || request.getRequestURI().endsWith("/cluster/traces");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+        throws ServletException, IOException {
+        RequestTrace trace = RequestTrace.begin(request.getMethod(), request.getRequestURI());
+        try {
+            chain.doFilter(request, new ServerTimingResponse(response, trace));
+        } finally {
+            RequestTrace.detach();
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        complete(trace);
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                complete(trace);
+            }
+        }
+    }
+
+    private void complete(RequestTrace trace) {
+        trace.end();
+        if (log.isDebugEnabled()) {
+            log.debug("{} {} took {} ms: {}", trace.getMethod(), trace.getPath(), trace.getTotalMs(), trace.getSpans());
+        }
+        synchronized (recent) {
+            recent.addFirst(trace);
+            while (recent.size() > recentSize) {
+                recent.removeLast();
+            }
+        }
+    }
+
+    /**
+     * Adds the {@code Server-Timing} header right before the response is committed, once the
+     * outbound calls of the handler are done.
+     */
+    private static class ServerTimingResponse extends HttpServletResponseWrapper {
+        private final RequestTrace trace;
+        private boolean headerAdded;
+
+        private ServerTimingResponse(HttpServletResponse response, RequestTrace trace) {
+            super(response);
+            this.trace = trace;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            addHeader();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            addHeader();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            addHeader();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            addHeader();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            addHeader();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            addHeader();
+            super.sendRedirect(location);
+        }
+
+        private synchronized void addHeader() {
+            if (!headerAdded && !isCommitted()) {
+                headerAdded = true;
+                setHeader(SERVER_TIMING, trace.toServerTiming());
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.boroda.kubernetes.demo.metrics;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+/**
+ * Times the outbound calls made while serving requests: Google OAuth token refreshes, GKE API
+ * calls, Kubernetes client creation and Kubernetes API calls.
+ *
+ * <p>Every call is recorded in the {@code outbound.calls} timer, tagged with {@code operation},
+ * {@code cluster} and {@code outcome}, with p50/p99 and a histogram for Prometheus. Failed calls
+ * are also counted in {@code outbound.errors} by exception type, and every call is added as a span
+ * to the {@link RequestTrace} of the current request, if any.
+ *
+ * <p>Components also register the gauges of their pools, caches and executors here.
+ */
+@Component
+public class StageMetrics {
+
+    public static final String NO_CLUSTER = "none";
+
+    private static final String SUCCESS = "success";
+    private static final String ERROR = "error";
+
+    /**
+     * A call that may fail with {@code E}.
+     */
+    @FunctionalInterface
+    public interface Stage<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    private final MeterRegistry meterRegistry;
+
+    public StageMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Runs and times the call.
+     */
+    public <T, E extends Exception> T record(String operation, String cluster, Stage<T, E> stage) throws E {
+        long start = System.nanoTime();
+        String outcome = ERROR;
+        try {
+            T result = stage.call();
+            outcome = SUCCESS;
+            return result;
+        } catch (Exception | Error e) {
+            Counter.builder("outbound.errors")
+                .description("Failed outbound calls")
+                .tags("operation", operation, "cluster", cluster, "exception", e.getClass().getSimpleName())
+                .register(meterRegistry)
+                .increment();
+            throw e;
+        } finally {
+            long duration = System.nanoTime() - start;
+            Timer.builder("outbound.calls")
+                .description("Outbound calls to Google and Kubernetes APIs")
+                .tags("operation", operation, "cluster", cluster, "outcome", outcome)
+                .publishPercentiles(0.5, 0.99)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(2))
+                .register(meterRegistry)
+                .record(duration, TimeUnit.NANOSECONDS);
+            RequestTrace.recordSpan(operation, cluster, outcome, start, duration);
+        }
+    }
+
+    /**
+     * Records the number of items returned by a list call.
+     */
+    public void recordItems(String operation, String cluster, int items) {
+        DistributionSummary.builder("outbound.list.items")
+            .description("Items returned by list calls")
+            .tags("operation", operation, "cluster", cluster)
+            .publishPercentiles(0.5, 0.99)
+            .register(meterRegistry)
+            .record(items);
+    }
+
+    public Counter counter(String name, String description, String... tags) {
+        return Counter.builder(name).description(description).tags(tags).register(meterRegistry);
+    }
+
+    /**
+     * A timer with p50/p99, for durations that are not outbound calls.
+     */
+    public Timer timer(String name, String description, String... tags) {
+        return Timer.builder(name)
+            .description(description)
+            .tags(tags)
+            .publishPercentiles(0.5, 0.99)
+            .register(meterRegistry);
+    }
+
+    public <T> void gauge(String name, String description, T object, ToDoubleFunction<T> value, String... tags) {
+        Gauge.builder(name, object, value).description(description).tags(tags).register(meterRegistry);
+    }
+
+    /**
+     * Registers pool size, active threads, queue depth and completed tasks of the executor.
+     */
+    public void monitor(ExecutorService executor, String name) {
+        new ExecutorServiceMetrics(executor, name, Tags.empty()).bindTo(meterRegistry);
+    }
+
+    /**
+     * Registers size, hits, misses, loads and evictions of the cache. The cache must record stats.
+     */
+    public void monitor(Cache<?, ?> cache, String name) {
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+    }
+}
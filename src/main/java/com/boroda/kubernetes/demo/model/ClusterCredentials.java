@@ -1,5 +1,6 @@
 package com.boroda.kubernetes.demo.model;
 
+import io.fabric8.kubernetes.client.OAuthTokenProvider;
 import lombok.Builder;
 import lombok.Data;
 
@@ -13,4 +14,12 @@ public class ClusterCredentials {
     private String clientKey;
     private String clientCertificate;
     private String oauthToken;
+    /**
+     * Expiration time of {@link #oauthToken} in epoch milliseconds, or {@code null} when unknown.
+     */
+    private Long oauthTokenExpiresAt;
+    /**
+     * Supplies the current OAuth token on every request. Takes precedence over {@link #oauthToken}.
+     */
+    private OAuthTokenProvider oauthTokenProvider;
 }
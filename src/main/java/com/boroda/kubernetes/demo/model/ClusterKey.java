@@ -0,0 +1,13 @@
+package com.boroda.kubernetes.demo.model;
+
+import lombok.Value;
+
+/**
+ * Identifies a GKE cluster within a project and zone.
+ */
+@Value
+public class ClusterKey {
+    private String projectName;
+    private String zone;
+    private String clusterName;
+}
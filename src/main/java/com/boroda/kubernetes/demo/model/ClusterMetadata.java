@@ -0,0 +1,18 @@
+package com.boroda.kubernetes.demo.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Connection details of a GKE cluster: its endpoint, CA certificate and master auth.
+ */
+@Data
+@Builder
+public class ClusterMetadata {
+    private String endpoint;
+    private String caCertData;
+    private String clientKey;
+    private String clientCertificate;
+    private String username;
+    private String password;
+}
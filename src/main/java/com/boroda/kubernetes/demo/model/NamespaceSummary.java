@@ -0,0 +1,33 @@
+package com.boroda.kubernetes.demo.model;
+
+import java.util.Map;
+
+import io.fabric8.kubernetes.api.model.Namespace;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * What a caller needs to know about a namespace it created: its identity, version and phase, without
+ * the managed fields and annotations of the full object.
+ */
+@Value
+@Builder
+public class NamespaceSummary {
+    private String name;
+    private String uid;
+    private String resourceVersion;
+    private String creationTimestamp;
+    private Map<String, String> labels;
+    private String phase;
+
+    public static NamespaceSummary of(Namespace namespace) {
+        return NamespaceSummary.builder()
+            .name(namespace.getMetadata().getName())
+            .uid(namespace.getMetadata().getUid())
+            .resourceVersion(namespace.getMetadata().getResourceVersion())
+            .creationTimestamp(namespace.getMetadata().getCreationTimestamp())
+            .labels(namespace.getMetadata().getLabels())
+            .phase(namespace.getStatus() == null ? null : namespace.getStatus().getPhase())
+            .build();
+    }
+}
@@ -0,0 +1,74 @@
+package com.boroda.kubernetes.demo.provisioning;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.boroda.kubernetes.demo.model.ClusterKey;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import lombok.Getter;
+import lombok.Value;
+
+/**
+ * Progress of an asynchronous cluster creation, from submission to GKE until the follow-up steps
+ * have run.
+ */
+@Getter
+public class ProvisioningOperation {
+
+    public enum Phase {
+        SUBMITTING, PROVISIONING, CONFIGURING, DONE, FAILED;
+
+        public boolean isTerminal() {
+            return this == DONE || this == FAILED;
+        }
+    }
+
+    @Value
+    public static class ProgressEvent {
+        private long timestamp;
+        private Phase phase;
+        private String message;
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    @JsonIgnore
+    private final ClusterKey clusterKey;
+    private final String clusterName;
+    private final String clusterVersion;
+    private final String defaultNamespace;
+    private final long createdAt = System.currentTimeMillis();
+    private final List<ProgressEvent> history = new CopyOnWriteArrayList<>();
+
+    private volatile Phase phase = Phase.SUBMITTING;
+    private volatile String message = "Submitting cluster creation";
+    private volatile String gkeOperation;
+    private volatile int polls;
+    private volatile long updatedAt = createdAt;
+
+    public ProvisioningOperation(ClusterKey clusterKey, String clusterVersion, String defaultNamespace) {
+        this.clusterKey = clusterKey;
+        this.clusterName = clusterKey.getClusterName();
+        this.clusterVersion = clusterVersion;
+        this.defaultNamespace = defaultNamespace;
+        history.add(new ProgressEvent(createdAt, phase, message));
+    }
+
+    ProgressEvent update(Phase phase, String message) {
+        ProgressEvent event = new ProgressEvent(System.currentTimeMillis(), phase, message);
+        this.phase = phase;
+        this.message = message;
+        this.updatedAt = event.getTimestamp();
+        history.add(event);
+        return event;
+    }
+
+    void setGkeOperation(String gkeOperation) {
+        this.gkeOperation = gkeOperation;
+    }
+
+    int nextPoll() {
+        return ++polls;
+    }
+}
@@ -0,0 +1,289 @@
+package com.boroda.kubernetes.demo.provisioning;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.boroda.kubernetes.demo.model.ClusterKey;
+import com.boroda.kubernetes.demo.provisioning.ProvisioningOperation.Phase;
+import com.boroda.kubernetes.demo.provisioning.ProvisioningOperation.ProgressEvent;
+import com.boroda.kubernetes.demo.resilience.ClusterGuard;
+import com.boroda.kubernetes.demo.service.ClusterMetadataCache;
+import com.boroda.kubernetes.demo.service.GoogleCloudService;
+import com.boroda.kubernetes.demo.service.NamespaceService;
+import com.google.api.services.container.Container;
+import com.google.api.services.container.model.Cluster;
+import com.google.api.services.container.model.CreateClusterRequest;
+import com.google.api.services.container.model.Operation;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Creates GKE clusters in the background. {@link #submit} returns immediately; a bounded scheduler
+ * then sends the create request, polls the GKE operation with exponential backoff and jitter, and
+ * once the cluster is RUNNING creates its default namespace.
+ *
+ * <p>Progress can be read with {@link #find} or followed as server-sent events with
+ * {@link #subscribe}. Finished operations are forgotten after {@code k8s.provisioning.retention_ms}.
+ */
+@Log4j2
+@Service
+public class ProvisioningService {
+
+    private static final String GKE_DONE = "DONE";
+    private static final String CLUSTER_RUNNING = "RUNNING";
+    private static final Map<String, String> DEFAULT_NAMESPACE_LABELS = Collections.singletonMap("this", "rocks");
+
+    @Autowired
+    private GoogleCloudService googleCloudService;
+
+    @Autowired
+    private ClusterMetadataCache clusterMetadataCache;
+
+    @Autowired
+    private NamespaceService namespaceService;
+
+    @Autowired
+    private StageMetrics stageMetrics;
+
+    @Autowired
+    private ClusterGuard clusterGuard;
+
+    @Value("${k8s.provisioning.poller_threads:2}")
+    private int pollerThreads;
+
+    @Value("${k8s.provisioning.poll_initial_delay_ms:5000}")
+    private long pollInitialDelayMs;
+
+    @Value("${k8s.provisioning.poll_max_delay_ms:60000}")
+    private long pollMaxDelayMs;
+
+    @Value("${k8s.provisioning.timeout_ms:1800000}")
+    private long timeoutMs;
+
+    @Value("${k8s.provisioning.retention_ms:3600000}")
+    private long retentionMs;
+
+    @Value("${k8s.provisioning.sse_timeout_ms:1800000}")
+    private long sseTimeoutMs;
+
+    private final Map<String, ProvisioningOperation> operations = new ConcurrentHashMap<>();
+    private final Map<String, List<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService poller;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadCount = new AtomicInteger();
+        poller = Executors.newScheduledThreadPool(pollerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "gke-provisioning-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(this::forgetFinished, retentionMs, retentionMs, TimeUnit.MILLISECONDS);
+        stageMetrics.monitor(poller, "gke.provisioning");
+        stageMetrics.gauge("gke.provisioning.operations", "Provisioning operations kept in memory", operations,
+            Map::size);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        poller.shutdownNow();
+        subscribers.values().forEach(emitters -> emitters.forEach(SseEmitter::complete));
+    }
+
+    /**
+     * Starts creating the cluster and returns right away.
+     *
+     * @param defaultNamespace namespace to create once the cluster is running, or {@code null}
+     */
+    public ProvisioningOperation submit(ClusterKey clusterKey, CreateClusterRequest request, String defaultNamespace) {
+        ProvisioningOperation operation = new ProvisioningOperation(clusterKey,
+            request.getCluster().getInitialClusterVersion(), defaultNamespace);
+        operations.put(operation.getId(), operation);
+        poller.execute(() -> create(operation, request));
+        return operation;
+    }
+
+    public Optional<ProvisioningOperation> find(String id) {
+        return Optional.ofNullable(operations.get(id));
+    }
+
+    /**
+     * Streams the progress of the operation, starting with the events that already happened. The
+     * stream completes when the operation is done or has failed.
+     */
+    public Optional<SseEmitter> subscribe(String id) {
+        ProvisioningOperation operation = operations.get(id);
+        if (operation == null) {
+            return Optional.empty();
+        }
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        synchronized (operation) {
+            try {
+                for (ProgressEvent event : operation.getHistory()) {
+                    emitter.send(SseEmitter.event().name("progress").data(event));
+                }
+            } catch (IOException e) {
+                emitter.completeWithError(e);
+                return Optional.of(emitter);
+            }
+            if (operation.getPhase().isTerminal()) {
+                emitter.complete();
+            } else {
+                List<SseEmitter> emitters = subscribers.computeIfAbsent(id, key -> new CopyOnWriteArrayList<>());
+                emitters.add(emitter);
+                emitter.onCompletion(() -> emitters.remove(emitter));
+                emitter.onTimeout(() -> emitters.remove(emitter));
+            }
+        }
+        return Optional.of(emitter);
+    }
+
+    private void create(ProvisioningOperation operation, CreateClusterRequest request) {
+        ClusterKey key = operation.getClusterKey();
+        try {
+            Container container = googleCloudService.getContainer();
+            Operation gkeOperation = clusterGuard.gke(key, () ->
+                stageMetrics.record("gke.clusters.create", key.getClusterName(), () ->
+                    container.projects().zones().clusters()
+                        .create(key.getProjectName(), key.getZone(), request)
+                        .execute()));
+            operation.setGkeOperation(gkeOperation.getName());
+            clusterMetadataCache.invalidate(key);
+            update(operation, Phase.PROVISIONING, "GKE operation " + gkeOperation.getName() + " is "
+                + gkeOperation.getStatus());
+            schedulePoll(operation);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            log.error("Failed to create cluster " + key.getClusterName(), e);
+            update(operation, Phase.FAILED, "Cluster creation failed: " + e.getMessage());
+        }
+    }
+
+    private void poll(ProvisioningOperation operation) {
+        ClusterKey key = operation.getClusterKey();
+        if (System.currentTimeMillis() - operation.getCreatedAt() > timeoutMs) {
+            update(operation, Phase.FAILED, "Timed out waiting for cluster " + key.getClusterName());
+            return;
+        }
+        try {
+            Container container = googleCloudService.getContainer();
+            Operation gkeOperation = clusterGuard.gke(key, () ->
+                stageMetrics.record("gke.operations.get", key.getClusterName(), () ->
+                    container.projects().zones().operations()
+                        .get(key.getProjectName(), key.getZone(), operation.getGkeOperation())
+                        .execute()));
+            if (!GKE_DONE.equals(gkeOperation.getStatus())) {
+                String message = "GKE operation " + gkeOperation.getName() + " is " + gkeOperation.getStatus();
+                if (!message.equals(operation.getMessage())) {
+                    update(operation, Phase.PROVISIONING, message);
+                }
+                schedulePoll(operation);
+                return;
+            }
+            if (gkeOperation.getStatusMessage() != null && !gkeOperation.getStatusMessage().isEmpty()) {
+                update(operation, Phase.FAILED, "GKE operation failed: " + gkeOperation.getStatusMessage());
+                return;
+            }
+            Cluster cluster = clusterGuard.gke(key, () ->
+                stageMetrics.record("gke.clusters.get", key.getClusterName(), () ->
+                    container.projects().zones().clusters()
+                        .get(key.getProjectName(), key.getZone(), key.getClusterName())
+                        .execute()));
+            if (!CLUSTER_RUNNING.equals(cluster.getStatus())) {
+                schedulePoll(operation);
+                return;
+            }
+            configure(operation);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            log.warn("Failed to poll provisioning of cluster {}: {}", key.getClusterName(), e.getMessage());
+            schedulePoll(operation);
+        }
+    }
+
+    /**
+     * Follow-up steps once the cluster is running.
+     */
+    private void configure(ProvisioningOperation operation) {
+        ClusterKey key = operation.getClusterKey();
+        clusterMetadataCache.invalidate(key);
+        if (operation.getDefaultNamespace() == null) {
+            update(operation, Phase.DONE, "Cluster " + key.getClusterName() + " is running");
+            return;
+        }
+        update(operation, Phase.CONFIGURING, "Creating namespace " + operation.getDefaultNamespace());
+        try {
+            namespaceService.createNamespace(key, operation.getDefaultNamespace(), DEFAULT_NAMESPACE_LABELS);
+            update(operation, Phase.DONE, "Cluster " + key.getClusterName() + " is running with namespace "
+                + operation.getDefaultNamespace());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            update(operation, Phase.FAILED, "Namespace creation was interrupted");
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to create namespace in cluster " + key.getClusterName(), e);
+            update(operation, Phase.FAILED, "Namespace creation failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Schedules the next poll after an exponentially growing delay, half of which is random so that
+     * operations submitted together do not poll in lockstep.
+     */
+    private void schedulePoll(ProvisioningOperation operation) {
+        int attempt = operation.nextPoll();
+        long delay = pollMaxDelayMs;
+        if (attempt < 31) {
+            delay = Math.min(pollMaxDelayMs, pollInitialDelayMs << (attempt - 1));
+        }
+        long jittered = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        poller.schedule(() -> poll(operation), jittered, TimeUnit.MILLISECONDS);
+    }
+
+    private void update(ProvisioningOperation operation, Phase phase, String message) {
+        log.info("Provisioning {} of cluster {}: {}", operation.getId(), operation.getClusterName(), message);
+        synchronized (operation) {
+            ProgressEvent event = operation.update(phase, message);
+            List<SseEmitter> emitters = phase.isTerminal() ? subscribers.remove(operation.getId())
+                : subscribers.get(operation.getId());
+            if (emitters == null) {
+                return;
+            }
+            for (SseEmitter emitter : emitters) {
+                try {
+                    emitter.send(SseEmitter.event().name("progress").data(event));
+                    if (phase.isTerminal()) {
+                        emitter.complete();
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    emitters.remove(emitter);
+                    emitter.completeWithError(e);
+                }
+            }
+        }
+    }
+
+    private void forgetFinished() {
+        long now = System.currentTimeMillis();
+        operations.values().removeIf(operation ->
+            operation.getPhase().isTerminal() && now - operation.getUpdatedAt() > retentionMs);
+    }
+}
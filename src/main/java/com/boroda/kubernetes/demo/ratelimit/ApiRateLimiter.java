@@ -0,0 +1,68 @@
+package com.boroda.kubernetes.demo.ratelimit;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import okhttp3.Interceptor;
+
+/**
+ * Limits the rate of requests this service sends to the API server of each cluster, with a token
+ * bucket of {@code k8s.ratelimit.qps} tokens per second and a burst of {@code k8s.ratelimit.burst},
+ * shared by the {@link Priority} lanes.
+ *
+ * <p>The bucket of a cluster outlives its clients, so that a rebuilt client does not start with a
+ * fresh burst.
+ */
+@Component
+public class ApiRateLimiter {
+
+    @Autowired
+    private StageMetrics stageMetrics;
+
+    @Value("${k8s.ratelimit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${k8s.ratelimit.qps:20}")
+    private double qps;
+
+    @Value("${k8s.ratelimit.burst:40}")
+    private double burst;
+
+    @Value("${k8s.ratelimit.max_wait_ms:5000}")
+    private long maxWaitMs;
+
+    @Value("${k8s.ratelimit.max_queue:200}")
+    private int maxQueue;
+
+    @Value("${k8s.ratelimit.max_retries:2}")
+    private int maxRetries;
+
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Interceptors to add to the HTTP client of a new Kubernetes client of the cluster, ahead of
+     * the cluster guard.
+     *
+     * @param cluster the cluster as the client registry knows it, name and API server
+     */
+    public Interceptor[] interceptors(String cluster) {
+        if (!enabled) {
+            return new Interceptor[0];
+        }
+        TokenBucket bucket = buckets.computeIfAbsent(cluster, this::createBucket);
+        return new Interceptor[] {new RateLimitInterceptor(cluster, bucket, maxRetries, maxWaitMs, stageMetrics)};
+    }
+
+    private TokenBucket createBucket(String cluster) {
+        TokenBucket bucket = new TokenBucket(qps, burst, maxWaitMs, maxQueue);
+        stageMetrics.gauge("k8s.ratelimit.queue", "API requests waiting for a token", bucket, TokenBucket::queued,
+            "cluster", cluster);
+        return bucket;
+    }
+}
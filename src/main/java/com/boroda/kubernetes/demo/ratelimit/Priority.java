@@ -0,0 +1,71 @@
+package com.boroda.kubernetes.demo.ratelimit;
+
+import okhttp3.Request;
+
+/**
+ * Lanes of the per-cluster rate limiter, highest first. A request only takes a token when no
+ * request of a higher lane is waiting for one.
+ *
+ * <p>Requests are placed by HTTP method: reads are {@link #INTERACTIVE}, deletes {@link #BULK} and
+ * other writes {@link #DEFAULT}. Code that issues a batch of calls on behalf of a user can put them
+ * all in one lane with {@link #enter(Priority)}.
+ */
+public enum Priority {
+
+    INTERACTIVE, DEFAULT, BULK;
+
+    private static final ThreadLocal<Priority> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Puts the API requests made by this thread in the lane until the returned scope is closed. A
+     * {@code null} lane places every request by its method again.
+     */
+    public static Scope enter(Priority priority) {
+        Scope scope = new Scope(CURRENT.get());
+        CURRENT.set(priority);
+        return scope;
+    }
+
+    /**
+     * The lane entered by this thread, or {@code null} if its requests are placed by their method.
+     */
+    public static Priority current() {
+        return CURRENT.get();
+    }
+
+    static Priority of(Request request) {
+        Priority current = CURRENT.get();
+        if (current != null) {
+            return current;
+        }
+        switch (request.method()) {
+            case "GET":
+            case "HEAD":
+                return INTERACTIVE;
+            case "DELETE":
+                return BULK;
+            default:
+                return DEFAULT;
+        }
+    }
+
+    /**
+     * Restores the previous lane of the thread when closed.
+     */
+    public static final class Scope implements AutoCloseable {
+        private final Priority previous;
+
+        private Scope(Priority previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.boroda.kubernetes.demo.ratelimit;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Takes a token from the bucket of the cluster before every API request.
+ *
+ * <p>When no token can be had in time the API server is not called at all: the request is answered
+ * with a 429 {@code Status}, as the API server would answer it, so that the client throws a
+ * {@code KubernetesClientException} with code 429. A 429 or 503 from the API server with a
+ * {@code Retry-After} header pauses the bucket for that long, and the request is retried up to
+ * {@code maxRetries} times. A response that did not come over the network, like the 503 of an
+ * interceptor behind this one that rejected the call, is passed on as it is.
+ */
+@Log4j2
+class RateLimitInterceptor implements Interceptor {
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVICE_UNAVAILABLE = 503;
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private final String cluster;
+    private final TokenBucket bucket;
+    private final int maxRetries;
+    private final long maxRetryAfterMs;
+    private final Map<Priority, Timer> waits = new EnumMap<>(Priority.class);
+    private final Map<Priority, Counter> rejections = new EnumMap<>(Priority.class);
+    private final Counter retryAfters;
+
+    RateLimitInterceptor(String cluster, TokenBucket bucket, int maxRetries, long maxRetryAfterMs,
+        StageMetrics metrics) {
+        this.cluster = cluster;
+        this.bucket = bucket;
+        this.maxRetries = maxRetries;
+        this.maxRetryAfterMs = maxRetryAfterMs;
+        for (Priority priority : Priority.values()) {
+            String lane = priority.name().toLowerCase(Locale.ROOT);
+            waits.put(priority, metrics.timer("k8s.ratelimit.wait", "Time API requests waited for a token",
+                "cluster", cluster, "priority", lane));
+            rejections.put(priority, metrics.counter("k8s.ratelimit.rejected",
+                "API requests answered with 429 without calling the API server", "cluster", cluster, "priority", lane));
+        }
+        this.retryAfters = metrics.counter("k8s.ratelimit.retry_after",
+            "429 and 503 responses of the API server with Retry-After", "cluster", cluster);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Priority priority = Priority.of(request);
+        for (int attempt = 0; ; attempt++) {
+            try {
+                waits.get(priority).record(bucket.acquire(priority), TimeUnit.NANOSECONDS);
+            } catch (RateLimitedException e) {
+                rejections.get(priority).increment();
+                log.warn("Rejected {} {} to cluster {}: {}", request.method(), request.url().encodedPath(), cluster,
+                    e.getMessage());
+                return tooManyRequests(request, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the rate limiter of " + cluster);
+            }
+
+            Response response = chain.proceed(request);
+            if (response.networkResponse() == null
+                || response.code() != TOO_MANY_REQUESTS && response.code() != SERVICE_UNAVAILABLE) {
+                return response;
+            }
+            Long retryAfterMs = retryAfterMs(response.header(RETRY_AFTER));
+            if (retryAfterMs == null) {
+                return response;
+            }
+            retryAfters.increment();
+            bucket.pause(retryAfterMs);
+            if (attempt >= maxRetries || retryAfterMs > maxRetryAfterMs) {
+                return response;
+            }
+            log.info("Cluster {} answered {} to {} {}, retrying in {} ms", cluster, response.code(),
+                request.method(), request.url().encodedPath(), retryAfterMs);
+            response.close();
+        }
+    }
+
+    /**
+     * Parses a {@code Retry-After} given in seconds, the form the API server uses.
+     */
+    static Long retryAfterMs(String header) {
+        if (header == null) {
+            return null;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(header.trim())));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Response tooManyRequests(Request request, RateLimitedException e) {
+        long retryAfterSeconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(e.getRetryAfterMs() + 999));
+        String message = "Client-side rate limit of cluster " + cluster + ": " + e.getMessage();
+        String status = "{\"kind\":\"Status\",\"apiVersion\":\"v1\",\"status\":\"Failure\",\"message\":\""
+            + message + "\",\"reason\":\"TooManyRequests\",\"details\":{\"retryAfterSeconds\":" + retryAfterSeconds
+            + "},\"code\":" + TOO_MANY_REQUESTS + "}";
+        return new Response.Builder()
+            .request(request)
+            .protocol(Protocol.HTTP_1_1)
+            .code(TOO_MANY_REQUESTS)
+            .message("Too Many Requests")
+            .header(RETRY_AFTER, String.valueOf(retryAfterSeconds))
+            .body(ResponseBody.create(JSON, status))
+            .build();
+    }
+}
@@ -0,0 +1,30 @@
+package com.boroda.kubernetes.demo.ratelimit;
+
+/**
+ * Thrown by {@link TokenBucket#acquire} when a request cannot get a token in time.
+ */
+class RateLimitedException extends Exception {
+
+    private final String reason;
+    private final long retryAfterMs;
+
+    RateLimitedException(String reason, String message, long retryAfterMs) {
+        super(message, null, false, false);
+        this.reason = reason;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * Short reason for metric tags: {@code saturated} or {@code timeout}.
+     */
+    String getReason() {
+        return reason;
+    }
+
+    /**
+     * When a token is expected to be available again.
+     */
+    long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+}
@@ -0,0 +1,153 @@
+package com.boroda.kubernetes.demo.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket of one cluster: refills at {@code permitsPerSecond} up to {@code burst} tokens.
+ * Requests wait for a token at most {@code maxWaitMs}, and are rejected right away when that is not
+ * going to be enough or when {@code maxQueue} requests are already waiting. The bucket can be
+ * paused, e.g. until the {@code Retry-After} of a 429 response.
+ */
+class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double permitsPerSecond;
+    private final double burst;
+    private final long maxWaitNanos;
+    private final int maxQueue;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final int[] waiting = new int[Priority.values().length];
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    private long pausedUntil = refilledAt;
+
+    TokenBucket(double permitsPerSecond, double burst, long maxWaitMs, int maxQueue) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        this.maxQueue = maxQueue;
+        this.tokens = burst;
+    }
+
+    /**
+     * Takes a token, waiting for one if needed.
+     *
+     * @return the time waited in nanoseconds
+     */
+    long acquire(Priority priority) throws RateLimitedException, InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + maxWaitNanos;
+        lock.lockInterruptibly();
+        try {
+            if (queued() >= maxQueue) {
+                throw new RateLimitedException("saturated", maxQueue + " requests are already waiting",
+                    TimeUnit.NANOSECONDS.toMillis(expectedWait(priority, start)));
+            }
+            long expected = expectedWait(priority, start);
+            if (expected > maxWaitNanos) {
+                throw new RateLimitedException("saturated", "no token expected within "
+                    + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + " ms", TimeUnit.NANOSECONDS.toMillis(expected));
+            }
+            waiting[priority.ordinal()]++;
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    refill(now);
+                    if (now >= pausedUntil && tokens >= 1 && waitingAbove(priority) == 0) {
+                        tokens -= 1;
+                        return now - start;
+                    }
+                    long remaining = deadline - now;
+                    if (remaining <= 0) {
+                        throw new RateLimitedException("timeout", "no token within "
+                            + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + " ms",
+                            TimeUnit.NANOSECONDS.toMillis(expectedWait(priority, now)));
+                    }
+                    changed.awaitNanos(Math.max(1, Math.min(remaining, untilNextToken(now, remaining))));
+                }
+            } finally {
+                waiting[priority.ordinal()]--;
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands out no tokens for the given time, and empties the bucket so that requests resume at
+     * the refill rate rather than in a burst.
+     */
+    void pause(long millis) {
+        lock.lock();
+        try {
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            if (until > pausedUntil) {
+                pausedUntil = until;
+                refilledAt = until;
+                tokens = 0;
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of requests waiting for a token.
+     */
+    int queued() {
+        lock.lock();
+        try {
+            int queued = 0;
+            for (int count : waiting) {
+                queued += count;
+            }
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill(long now) {
+        if (now > refilledAt) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * permitsPerSecond / NANOS_PER_SECOND);
+            refilledAt = now;
+        }
+    }
+
+    /**
+     * Time until a token is left for a new request of the lane, behind the requests of the same or
+     * a higher lane that are already waiting.
+     */
+    private long expectedWait(Priority priority, long now) {
+        refill(now);
+        double missing = waitingAbove(priority) + waiting[priority.ordinal()] + 1 - tokens;
+        long paused = Math.max(0, pausedUntil - now);
+        return paused + (missing > 0 ? (long) (missing * NANOS_PER_SECOND / permitsPerSecond) : 0);
+    }
+
+    private long untilNextToken(long now, long remaining) {
+        if (now < pausedUntil) {
+            return pausedUntil - now;
+        }
+        if (tokens >= 1) {
+            // a higher lane is waiting, it signals when it is done
+            return remaining;
+        }
+        return (long) ((1 - tokens) * NANOS_PER_SECOND / permitsPerSecond);
+    }
+
+    private int waitingAbove(Priority priority) {
+        int above = 0;
+        for (int i = 0; i < priority.ordinal(); i++) {
+            above += waiting[i];
+        }
+        return above;
+    }
+}
@@ -0,0 +1,24 @@
+package com.boroda.kubernetes.demo.resilience;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of calling an endpoint whose circuit breaker is open, or that already has as many
+ * calls in flight as its bulkhead allows.
+ */
+public class CallRejectedException extends IOException {
+
+    private final long retryAfterMs;
+
+    CallRejectedException(String message, long retryAfterMs) {
+        super(message);
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * When the call is worth trying again.
+     */
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+}
@@ -0,0 +1,104 @@
+package com.boroda.kubernetes.demo.resilience;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker of one endpoint. Closed, it lets every call through and counts consecutive
+ * failures; {@code failureThreshold} of them in a row open it. Open, it rejects every call for
+ * {@code openMs}, after which it is half-open: up to {@code halfOpenCalls} probe calls go through,
+ * the first probe to succeed closes it and the first to fail opens it again.
+ *
+ * <p>Every call let through by {@link #tryAcquire} must be ended with {@link #onSuccess} or
+ * {@link #onFailure}, given the ticket it was admitted with. The ticket is the generation of the
+ * state: results of calls admitted before the last change of state are ignored, so that a call
+ * admitted while closed that ends after the breaker opened and went half-open cannot close it in
+ * place of the probe.
+ */
+class CircuitBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final int halfOpenCalls;
+
+    static final long REJECTED = -1;
+
+    private State state = State.CLOSED;
+    private long generation;
+    private int consecutiveFailures;
+    private long openedAt;
+    private int probes;
+
+    CircuitBreaker(int failureThreshold, long openMs, int halfOpenCalls) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    /**
+     * @return the ticket of the call if it may go ahead, {@link #REJECTED} otherwise
+     */
+    synchronized long tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                return REJECTED;
+            }
+            moveTo(State.HALF_OPEN);
+            probes = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probes >= halfOpenCalls) {
+                return REJECTED;
+            }
+            probes++;
+        }
+        return generation;
+    }
+
+    synchronized void onSuccess(long ticket) {
+        if (ticket != generation) {
+            return;
+        }
+        consecutiveFailures = 0;
+        if (state == State.HALF_OPEN) {
+            moveTo(State.CLOSED);
+        }
+    }
+
+    synchronized void onFailure(long ticket) {
+        if (ticket != generation) {
+            return;
+        }
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            moveTo(State.OPEN);
+            openedAt = System.nanoTime();
+        }
+    }
+
+    private void moveTo(State next) {
+        state = next;
+        generation++;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * How long until an open breaker lets a probe through, 0 if it is not open.
+     */
+    synchronized long retryAfterMs() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(openNanos - (System.nanoTime() - openedAt)));
+    }
+}
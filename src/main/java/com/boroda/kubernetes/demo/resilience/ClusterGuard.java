@@ -0,0 +1,122 @@
+package com.boroda.kubernetes.demo.resilience;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.boroda.kubernetes.demo.model.ClusterKey;
+import com.google.api.client.http.HttpResponseException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import okhttp3.Interceptor;
+
+/**
+ * Keeps a cluster that hangs or fails from tying up the threads that serve every other cluster.
+ * The calls to the API server of a cluster, and the GKE calls about a cluster, each go through a
+ * bulkhead of at most {@code k8s.bulkhead.max_concurrent} calls in flight and a
+ * {@link CircuitBreaker} that opens after {@code k8s.breaker.failure_threshold} consecutive failures
+ * for {@code k8s.breaker.open_ms}. Rejected calls fail right away, without a connection attempt.
+ *
+ * <p>Guards outlive the clients of a cluster, like the buckets of the rate limiter.
+ */
+@Component
+public class ClusterGuard {
+
+    public static final String K8S = "k8s";
+    public static final String GKE = "gke";
+
+    @Autowired
+    private StageMetrics stageMetrics;
+
+    @Value("${k8s.breaker.enabled:true}")
+    private boolean enabled;
+
+    @Value("${k8s.breaker.failure_threshold:5}")
+    private int failureThreshold;
+
+    @Value("${k8s.breaker.open_ms:30000}")
+    private long openMs;
+
+    @Value("${k8s.breaker.half_open_calls:1}")
+    private int halfOpenCalls;
+
+    @Value("${k8s.bulkhead.max_concurrent:20}")
+    private int maxConcurrent;
+
+    @Value("${k8s.bulkhead.max_wait_ms:0}")
+    private long maxWaitMs;
+
+    private final Map<String, Guard> guards = new ConcurrentHashMap<>();
+
+    /**
+     * Interceptors to add to the HTTP client of a new Kubernetes client of the cluster, behind the
+     * rate limiter: a call takes its bulkhead permit only once it has a token, so that calls queued
+     * for tokens do not fill the bulkhead of a healthy cluster.
+     *
+     * @param cluster the cluster as the client registry knows it, name and API server
+     */
+    public Interceptor[] interceptors(String cluster) {
+        if (!enabled) {
+            return new Interceptor[0];
+        }
+        return new Interceptor[] {new GuardInterceptor(guard(K8S, cluster))};
+    }
+
+    /**
+     * Calls the GKE API about a cluster, through the guard of its project, zone and name.
+     *
+     * @throws CallRejectedException if the call was not made
+     */
+    public <T, E extends Exception> T gke(ClusterKey key, StageMetrics.Stage<T, E> call) throws E, IOException {
+        return gke(key.getProjectName() + "/" + key.getZone() + "/" + key.getClusterName(), call);
+    }
+
+    /**
+     * Calls the GKE API about a cluster. Error responses below 500 mean the API is healthy and do
+     * not count as failures.
+     *
+     * @throws CallRejectedException if the call was not made
+     */
+    public <T, E extends Exception> T gke(String cluster, StageMetrics.Stage<T, E> call) throws E, IOException {
+        if (!enabled) {
+            return call.call();
+        }
+        Guard guard = guard(GKE, cluster);
+        long ticket = guard.acquire();
+        boolean failed = true;
+        try {
+            T result = call.call();
+            failed = false;
+            return result;
+        } catch (Exception e) {
+            failed = !(e instanceof HttpResponseException) || ((HttpResponseException) e).getStatusCode() >= 500;
+            throw e;
+        } finally {
+            if (failed) {
+                guard.getBreaker().onFailure(ticket);
+            } else {
+                guard.getBreaker().onSuccess(ticket);
+            }
+            guard.release();
+        }
+    }
+
+    /**
+     * State of every breaker, by {@code api/cluster}.
+     */
+    public Map<String, Map<String, Object>> summary() {
+        Map<String, Map<String, Object>> summary = new TreeMap<>();
+        guards.forEach((name, guard) -> summary.put(name, guard.summary()));
+        return summary;
+    }
+
+    private Guard guard(String api, String cluster) {
+        return guards.computeIfAbsent(api + "/" + cluster, name -> new Guard(api, cluster, maxConcurrent, maxWaitMs,
+            new CircuitBreaker(failureThreshold, openMs, halfOpenCalls), stageMetrics));
+    }
+}
@@ -0,0 +1,101 @@
+package com.boroda.kubernetes.demo.resilience;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+
+import io.micrometer.core.instrument.Counter;
+
+/**
+ * Bulkhead and circuit breaker of one endpoint, e.g. the API server of a cluster.
+ */
+class Guard {
+
+    private final String name;
+    private final Semaphore bulkhead;
+    private final int maxConcurrent;
+    private final long maxWaitMs;
+    private final CircuitBreaker breaker;
+    private final Counter rejectedOpen;
+    private final Counter rejectedSaturated;
+
+    Guard(String api, String cluster, int maxConcurrent, long maxWaitMs, CircuitBreaker breaker,
+        StageMetrics metrics) {
+        this.name = api + "/" + cluster;
+        this.bulkhead = new Semaphore(maxConcurrent);
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaitMs = maxWaitMs;
+        this.breaker = breaker;
+        this.rejectedOpen = metrics.counter("breaker.rejected", "Calls rejected without calling the endpoint",
+            "api", api, "cluster", cluster, "reason", "open");
+        this.rejectedSaturated = metrics.counter("breaker.rejected", "Calls rejected without calling the endpoint",
+            "api", api, "cluster", cluster, "reason", "saturated");
+        metrics.gauge("breaker.state", "Circuit breaker state: 0 closed, 1 half-open, 2 open", breaker,
+            b -> b.getState() == CircuitBreaker.State.CLOSED ? 0 : b.getState() == CircuitBreaker.State.OPEN ? 2 : 1,
+            "api", api, "cluster", cluster);
+        metrics.gauge("breaker.in_flight", "Calls in flight to the endpoint", bulkhead,
+            semaphore -> maxConcurrent - semaphore.availablePermits(), "api", api, "cluster", cluster);
+    }
+
+    /**
+     * Takes a bulkhead permit and the breaker's consent, in that order. The permit must be given back
+     * with {@link #release}, and the outcome reported to the breaker with the returned ticket.
+     *
+     * @return the ticket of the call with the breaker
+     */
+    long acquire() throws CallRejectedException {
+        if (breaker.getState() == CircuitBreaker.State.OPEN && breaker.retryAfterMs() > 0) {
+            // fail fast without queueing for a permit
+            throw rejectOpen();
+        }
+        try {
+            if (!bulkhead.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS)) {
+                rejectedSaturated.increment();
+                throw new CallRejectedException(maxConcurrent + " calls to " + name + " are already in flight",
+                    Math.max(1, maxWaitMs));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CallRejectedException("Interrupted while waiting for a call slot of " + name, 0);
+        }
+        long ticket = breaker.tryAcquire();
+        if (ticket == CircuitBreaker.REJECTED) {
+            bulkhead.release();
+            throw rejectOpen();
+        }
+        return ticket;
+    }
+
+    void release() {
+        bulkhead.release();
+    }
+
+    CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Map<String, Object> summary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("state", breaker.getState().name().toLowerCase(Locale.ROOT));
+        summary.put("consecutiveFailures", breaker.getConsecutiveFailures());
+        summary.put("retryAfterMs", breaker.retryAfterMs());
+        summary.put("inFlight", maxConcurrent - bulkhead.availablePermits());
+        summary.put("rejectedOpen", (long) rejectedOpen.count());
+        summary.put("rejectedSaturated", (long) rejectedSaturated.count());
+        return summary;
+    }
+
+    private CallRejectedException rejectOpen() {
+        rejectedOpen.increment();
+        return new CallRejectedException("Circuit breaker of " + name + " is open",
+            Math.max(1, breaker.retryAfterMs()));
+    }
+}
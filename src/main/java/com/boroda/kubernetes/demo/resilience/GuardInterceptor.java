@@ -0,0 +1,77 @@
+package com.boroda.kubernetes.demo.resilience;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.log4j.Log4j2;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Guards every request to the API server of a cluster. A rejected request is answered with a 503
+ * {@code Status} and a {@code Retry-After}, as an unavailable API server would answer it, so that
+ * the client throws a {@code KubernetesClientException} with code 503. It runs behind the rate
+ * limiter, which leaves these answers alone since they did not come from the API server.
+ *
+ * <p>Connection failures and 5xx responses count as failures of the cluster; any other response,
+ * including a 429 of the API server or the rate limiter, counts as a success. The call holds its
+ * bulkhead permit until the response headers arrive: the body of a streamed response, a watch or a
+ * followed log, is read after that.
+ */
+@Log4j2
+class GuardInterceptor implements Interceptor {
+
+    private static final int SERVICE_UNAVAILABLE = 503;
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private final Guard guard;
+
+    GuardInterceptor(Guard guard) {
+        this.guard = guard;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        long ticket;
+        try {
+            ticket = guard.acquire();
+        } catch (CallRejectedException e) {
+            log.debug("Rejected {} {}: {}", request.method(), request.url().encodedPath(), e.getMessage());
+            return serviceUnavailable(request, e);
+        }
+        boolean failed = true;
+        try {
+            Response response = chain.proceed(request);
+            failed = response.code() >= 500;
+            return response;
+        } finally {
+            if (failed) {
+                guard.getBreaker().onFailure(ticket);
+            } else {
+                guard.getBreaker().onSuccess(ticket);
+            }
+            guard.release();
+        }
+    }
+
+    private Response serviceUnavailable(Request request, CallRejectedException e) {
+        long retryAfterSeconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(e.getRetryAfterMs() + 999));
+        String status = "{\"kind\":\"Status\",\"apiVersion\":\"v1\",\"status\":\"Failure\",\"message\":\""
+            + e.getMessage() + "\",\"reason\":\"ServiceUnavailable\",\"details\":{\"retryAfterSeconds\":"
+            + retryAfterSeconds + "},\"code\":" + SERVICE_UNAVAILABLE + "}";
+        return new Response.Builder()
+            .request(request)
+            .protocol(Protocol.HTTP_1_1)
+            .code(SERVICE_UNAVAILABLE)
+            .message("Service Unavailable")
+            .header(RETRY_AFTER, String.valueOf(retryAfterSeconds))
+            .body(ResponseBody.create(JSON, status))
+            .build();
+    }
+}
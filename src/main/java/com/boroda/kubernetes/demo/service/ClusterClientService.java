@@ -0,0 +1,49 @@
+package com.boroda.kubernetes.demo.service;
+
+import java.io.IOException;
+
+import com.boroda.kubernetes.demo.factory.KubernetesClientRegistry;
+import com.boroda.kubernetes.demo.model.ClusterCredentials;
+import com.boroda.kubernetes.demo.model.ClusterKey;
+import com.boroda.kubernetes.demo.model.ClusterMetadata;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import io.fabric8.kubernetes.client.KubernetesClient;
+
+/**
+ * Resolves the shared {@link KubernetesClient} of a GKE cluster from its cached metadata.
+ */
+@Service
+public class ClusterClientService {
+
+    @Autowired
+    private KubernetesClientRegistry clientRegistry;
+
+    @Autowired
+    private GoogleCloudService googleCloudService;
+
+    @Autowired
+    private ClusterMetadataCache clusterMetadataCache;
+
+    /**
+     * Returns the shared client of the given cluster. The client must not be closed by the caller.
+     */
+    public KubernetesClient getClient(ClusterKey key) throws IOException {
+        ClusterMetadata metadata = clusterMetadataCache.get(key);
+        return clientRegistry.getClient(key.getClusterName(), getClusterCredentials(metadata));
+    }
+
+    private ClusterCredentials getClusterCredentials(final ClusterMetadata metadata) {
+        return ClusterCredentials.builder()
+            .masterUrl(metadata.getEndpoint())
+            .caCertData(metadata.getCaCertData())
+            .clientKey(metadata.getClientKey())
+            .clientCertificate(metadata.getClientCertificate())
+            .username(metadata.getUsername())
+            .password(metadata.getPassword())
+            .oauthTokenProvider(googleCloudService.getKubernetesTokenProvider())
+            .build();
+    }
+}
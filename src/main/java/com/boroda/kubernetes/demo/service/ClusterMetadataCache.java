@@ -0,0 +1,185 @@
+package com.boroda.kubernetes.demo.service;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.boroda.kubernetes.demo.model.ClusterKey;
+import com.boroda.kubernetes.demo.model.ClusterMetadata;
+import com.boroda.kubernetes.demo.resilience.ClusterGuard;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.api.services.container.Container;
+import com.google.api.services.container.model.Cluster;
+import com.google.api.services.container.model.ListClustersResponse;
+import com.google.api.services.container.model.MasterAuth;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Caches GKE cluster metadata (endpoint, CA certificate and master auth) per project, zone and
+ * cluster so that requests do not call {@code clusters().get()} every time.
+ *
+ * <p>Entries expire after {@code k8s.cluster_cache.ttl_ms} and the cache holds at most
+ * {@code k8s.cluster_cache.max_size} clusters. Once an entry is older than
+ * {@code k8s.cluster_cache.refresh_ms} the next read still returns it, and a reload runs in the
+ * background. Concurrent misses for the same cluster share a single lookup.
+ */
+@Log4j2
+@Service
+public class ClusterMetadataCache {
+
+    private static final String ALL_ZONES = "-";
+
+    @Autowired
+    private GoogleCloudService googleCloudService;
+
+    @Autowired
+    private StageMetrics stageMetrics;
+
+    @Autowired
+    private ClusterGuard clusterGuard;
+
+    @Value("${k8s.cluster_cache.ttl_ms:600000}")
+    private long ttlMs;
+
+    @Value("${k8s.cluster_cache.refresh_ms:300000}")
+    private long refreshMs;
+
+    @Value("${k8s.cluster_cache.max_size:100}")
+    private long maxSize;
+
+    private Ticker ticker = Ticker.systemTicker();
+
+    private ExecutorService refreshExecutor;
+
+    private LoadingCache<ClusterKey, ClusterMetadata> cache;
+
+    @PostConstruct
+    public void init() {
+        refreshExecutor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "cluster-metadata-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cache = Caffeine.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+            .refreshAfterWrite(refreshMs, TimeUnit.MILLISECONDS)
+            .executor(refreshExecutor)
+            .ticker(ticker)
+            .recordStats()
+            .build(this::load);
+        stageMetrics.monitor(cache, "cluster.metadata");
+        stageMetrics.monitor(refreshExecutor, "cluster.metadata.refresh");
+    }
+
+    public ClusterMetadata get(ClusterKey key) throws IOException {
+        try {
+            return cache.get(key);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to load metadata of cluster " + key.getClusterName(), e.getCause());
+        }
+    }
+
+    /**
+     * Lists the clusters of the project in all zones and stores their metadata in the cache, so
+     * that subsequent lookups of the discovered clusters are hits.
+     */
+    public List<ClusterKey> discover(String projectName) throws IOException {
+        Container container;
+        try {
+            container = googleCloudService.getContainer();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to list clusters of project " + projectName, e);
+        }
+        ListClustersResponse response = clusterGuard.gke(StageMetrics.NO_CLUSTER, () ->
+            stageMetrics.record("gke.clusters.list", StageMetrics.NO_CLUSTER,
+                () -> container.projects().zones().clusters().list(projectName, ALL_ZONES).execute()));
+        if (response.getMissingZones() != null && !response.getMissingZones().isEmpty()) {
+            log.warn("Clusters of zones {} could not be listed", response.getMissingZones());
+        }
+        List<ClusterKey> keys = new ArrayList<>();
+        if (response.getClusters() != null) {
+            for (Cluster cluster : response.getClusters()) {
+                ClusterKey key = new ClusterKey(projectName, cluster.getZone(), cluster.getName());
+                if (cluster.getEndpoint() != null && cluster.getMasterAuth() != null) {
+                    cache.put(key, toMetadata(cluster));
+                }
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    public void invalidate(ClusterKey key) {
+        cache.invalidate(key);
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * Hit/miss counters and current size of the cache.
+     */
+    public Map<String, Object> statsSummary() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("size", cache.estimatedSize());
+        summary.put("hits", stats.hitCount());
+        summary.put("misses", stats.missCount());
+        summary.put("hitRate", stats.hitRate());
+        summary.put("loadFailures", stats.loadFailureCount());
+        summary.put("evictions", stats.evictionCount());
+        return summary;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+
+    private ClusterMetadata load(ClusterKey key) throws IOException, GeneralSecurityException {
+        log.info("Loading metadata of cluster {}", key);
+        Container container = googleCloudService.getContainer();
+        Cluster cluster = clusterGuard.gke(key, () ->
+            stageMetrics.record("gke.clusters.get", key.getClusterName(), () ->
+                container.projects().zones().clusters()
+                    .get(key.getProjectName(), key.getZone(), key.getClusterName())
+                    .execute()));
+        return toMetadata(cluster);
+    }
+
+    private static ClusterMetadata toMetadata(Cluster cluster) {
+        MasterAuth masterAuth = cluster.getMasterAuth();
+        return ClusterMetadata.builder()
+            .endpoint(cluster.getEndpoint())
+            .caCertData(masterAuth.getClusterCaCertificate())
+            .clientKey(masterAuth.getClientKey())
+            .clientCertificate(masterAuth.getClientCertificate())
+            .username(masterAuth.getUsername())
+            .password(masterAuth.getPassword())
+            .build();
+    }
+}
@@ -0,0 +1,207 @@
+package com.boroda.kubernetes.demo.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.container.Container;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.stereotype.Service;
+
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.OAuthTokenProvider;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Holds the Google Container API client and the OAuth credential used to talk to GKE.
+ *
+ * <p>The key file, the {@link HttpTransport} and the {@link Container} client are created once, on
+ * first use. The access token is refreshed on a background thread {@code
+ * k8s.gcp.token_refresh_margin_ms} before it expires, so request threads only wait for a refresh
+ * when no valid token is available yet. Such a refresh is shared by all waiting callers.
+ *
+ * <p>The key file is read from {@code k8s.gcp.credentials}; {@code k8s.gcp.root_url}, when set,
+ * points the Container client at another endpoint than Google's, e.g. a local fake for load tests.
+ */
+@Log4j2
+@Service
+public class GoogleCloudService {
+
+    @Autowired
+    private StageMetrics stageMetrics;
+
+    @Value("${k8s.gcp.token_refresh_margin_ms:300000}")
+    private long refreshMarginMs;
+
+    @Value("${k8s.gcp.token_min_validity_ms:60000}")
+    private long minValidityMs;
+
+    @Value("${k8s.gcp.token_retry_delay_ms:30000}")
+    private long retryDelayMs;
+
+    @Value("${k8s.gcp.credentials:classpath:google_credentials.json}")
+    private String credentialsLocation;
+
+    @Value("${k8s.gcp.root_url:}")
+    private String rootUrl;
+
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> nextRefresh;
+
+    private volatile GoogleCredential credential;
+    private volatile Container container;
+
+    private final OAuthTokenProvider kubernetesTokenProvider = () -> {
+        try {
+            return getAccessToken();
+        } catch (IOException e) {
+            throw new KubernetesClientException("Failed to obtain Google OAuth token", e);
+        }
+    };
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gcp-token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public Container getContainer() throws IOException, GeneralSecurityException {
+        Container current = container;
+        if (current == null) {
+            synchronized (this) {
+                current = container;
+                if (current == null) {
+                    HttpTransport httpTransport = GoogleNetHttpTransport.newTrustedTransport();
+                    JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+                    Container.Builder builder = new Container.Builder(httpTransport, jsonFactory, getCredential())
+                        .setApplicationName("Google-ContainerSample/0.1");
+                    if (!rootUrl.isEmpty()) {
+                        builder.setRootUrl(rootUrl);
+                    }
+                    current = builder.build();
+                    container = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns the shared credential, making sure it holds a token that is valid for at least
+     * {@code k8s.gcp.token_min_validity_ms}.
+     */
+    public GoogleCredential getCredential() throws IOException {
+        GoogleCredential current = loadCredential();
+        if (!isValid(current, minValidityMs)) {
+            refreshToken(minValidityMs);
+        }
+        return current;
+    }
+
+    public String getAccessToken() throws IOException {
+        return getCredential().getAccessToken();
+    }
+
+    /**
+     * Token provider for Kubernetes clients, so that every API call carries the current access
+     * token and a rotated token does not require a new client.
+     */
+    public OAuthTokenProvider getKubernetesTokenProvider() {
+        return kubernetesTokenProvider;
+    }
+
+    private GoogleCredential loadCredential() throws IOException {
+        GoogleCredential current = credential;
+        if (current == null) {
+            synchronized (this) {
+                current = credential;
+                if (current == null) {
+                    try (InputStream targetStream = new DefaultResourceLoader().getResource(credentialsLocation)
+                        .getInputStream()) {
+                        current = GoogleCredential.fromStream(targetStream);
+                    }
+                    if (current.createScopedRequired()) {
+                        current = current.createScoped(Arrays.asList(
+                            "https://www.googleapis.com/auth/cloud-platform",
+                            "https://www.googleapis.com/auth/devstorage.read_write"));
+                    }
+                    credential = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Refreshes the access token unless it is still valid for {@code minRemainingMs} (typically
+     * because another caller refreshed it meanwhile), then schedules the next background refresh.
+     */
+    private synchronized void refreshToken(long minRemainingMs) throws IOException {
+        GoogleCredential current = loadCredential();
+        if (isValid(current, minRemainingMs)) {
+            return;
+        }
+        try {
+            stageMetrics.record("gcp.token.refresh", StageMetrics.NO_CLUSTER, () -> {
+                if (!current.refreshToken()) {
+                    throw new IOException("Google OAuth token refresh was rejected");
+                }
+                return null;
+            });
+            scheduleRefresh(current.getExpirationTimeMilliseconds() - System.currentTimeMillis() - refreshMarginMs);
+        } catch (IOException | RuntimeException e) {
+            scheduleRefresh(retryDelayMs);
+            throw e;
+        }
+    }
+
+    private void refreshInBackground() {
+        try {
+            refreshToken(refreshMarginMs);
+            log.debug("Refreshed Google OAuth token in background");
+        } catch (IOException | RuntimeException e) {
+            log.warn("Background refresh of Google OAuth token failed: {}", e.getMessage());
+        }
+    }
+
+    private synchronized void scheduleRefresh(long delayMs) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        if (nextRefresh != null) {
+            nextRefresh.cancel(false);
+        }
+        nextRefresh = scheduler.schedule(this::refreshInBackground, Math.max(delayMs, 0L), TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean isValid(GoogleCredential credential, long minRemainingMs) {
+        Long expiresAt = credential.getExpirationTimeMilliseconds();
+        return credential.getAccessToken() != null && expiresAt != null
+            && expiresAt - System.currentTimeMillis() > minRemainingMs;
+    }
+}
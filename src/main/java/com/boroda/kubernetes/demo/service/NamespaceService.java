@@ -0,0 +1,51 @@
+package com.boroda.kubernetes.demo.service;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.boroda.kubernetes.demo.apply.ResourceApplier;
+import com.boroda.kubernetes.demo.informer.InformerRegistry;
+import com.boroda.kubernetes.demo.manifest.ManifestTemplates;
+import com.boroda.kubernetes.demo.model.ClusterKey;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Creates namespaces in GKE clusters.
+ */
+@Log4j2
+@Service
+public class NamespaceService {
+
+    @Autowired
+    private ClusterClientService clusterClientService;
+
+    @Autowired
+    private InformerRegistry informerRegistry;
+
+    @Autowired
+    private ResourceApplier resourceApplier;
+
+    @Autowired
+    private ManifestTemplates manifestTemplates;
+
+    /**
+     * Creates the namespace, or brings its labels up to date, and returns it as stored by the API
+     * server. The namespace informer of the cluster tells whether it is up to date already, in
+     * which case nothing is written.
+     */
+    public Namespace createNamespace(ClusterKey clusterKey, String name, Map<String, String> labels)
+        throws IOException, InterruptedException {
+        KubernetesClient client = clusterClientService.getClient(clusterKey);
+        Namespace ns = manifestTemplates.get("namespace").instantiate(Namespace.class, "name", name, "labels", labels);
+        ResourceApplier.Applied<Namespace> applied = resourceApplier.apply(client, clusterKey.getClusterName(), ns,
+            informerRegistry.namespaces(clusterKey));
+        log.info("Namespace {} in cluster {}: {}", name, clusterKey.getClusterName(), applied.getOutcome());
+        return applied.getResource();
+    }
+}
@@ -0,0 +1,43 @@
+package com.boroda.kubernetes.demo.startup;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Marks every bean definition lazy, so that a bean and what it sets up (the Google client and its
+ * credentials, Kubernetes clients, caches, thread pools) are only created when something first needs
+ * it. Spring Boot 2.1 has no {@code spring.main.lazy-initialization} yet, this does the same.
+ *
+ * <p>This only pays off for beans that nothing created at startup depends on: the controller looks
+ * up its services on first use for that reason. Classes named in the signatures of beans are still
+ * loaded when Spring introspects them at startup.
+ */
+@Log4j2
+public class LazyInitBeanFactoryPostProcessor implements BeanFactoryPostProcessor {
+
+    private final Set<String> eagerBeans;
+
+    public LazyInitBeanFactoryPostProcessor(String... eagerBeans) {
+        this.eagerBeans = new HashSet<>(Arrays.asList(eagerBeans));
+    }
+
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+        int lazy = 0;
+        for (String name : beanFactory.getBeanDefinitionNames()) {
+            BeanDefinition definition = beanFactory.getBeanDefinition(name);
+            if (!eagerBeans.contains(name) && definition.isSingleton() && !definition.isLazyInit()) {
+                definition.setLazyInit(true);
+                lazy++;
+            }
+        }
+        log.info("Initializing {} beans lazily", lazy);
+    }
+}
@@ -0,0 +1,22 @@
+package com.boroda.kubernetes.demo.startup;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * Lazy bean initialization for short-lived instances, enabled with {@code k8s.startup.lazy_init=true}
+ * (set by the {@code startup} profile). {@code k8s.startup.eager_beans} lists the beans that are
+ * still created at startup.
+ */
+@Configuration
+@ConditionalOnProperty(name = "k8s.startup.lazy_init", havingValue = "true")
+public class StartupConfiguration {
+
+    @Bean
+    public static LazyInitBeanFactoryPostProcessor lazyInitBeanFactoryPostProcessor(Environment environment) {
+        return new LazyInitBeanFactoryPostProcessor(
+            environment.getProperty("k8s.startup.eager_beans", String[].class, new String[0]));
+    }
+}
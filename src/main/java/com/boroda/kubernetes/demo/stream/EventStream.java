@@ -0,0 +1,194 @@
+package com.boroda.kubernetes.demo.stream;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.boroda.kubernetes.demo.watch.ManagedWatch;
+import com.boroda.kubernetes.demo.watch.WatchHandler;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import io.fabric8.kubernetes.api.model.Event;
+import io.fabric8.kubernetes.api.model.EventList;
+import io.fabric8.kubernetes.client.Watcher;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Forwards the Kubernetes events of a namespace to one SSE client: first the latest events of the
+ * initial list, then every new or updated event.
+ *
+ * <p>Events wait for the client in a queue of at most {@code capacity} events, written out by one
+ * sender task at a time. A client that lets the queue fill up is dropped rather than buffered for.
+ *
+ * <p>A dropped stream lets go of its watch and queue at once. The emitter cannot be completed while
+ * a write to it is blocked, so a sender stuck on a client that stopped reading completes it once
+ * the container fails the write; it holds only its own thread meanwhile.
+ */
+@Log4j2
+class EventStream extends StreamConnection implements WatchHandler<Event> {
+
+    private static final Comparator<Event> BY_TIME = Comparator.comparing(EventStream::timestamp,
+        Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private final SseEmitter emitter;
+    private final int capacity;
+    private final Executor senders;
+    private final StreamListener listener;
+
+    private final Queue<Event> queue = new ArrayDeque<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean listed;
+    private volatile ManagedWatch<Event, EventList> watch;
+
+    EventStream(String name, SseEmitter emitter, int capacity, Executor senders, StreamListener listener) {
+        super(name);
+        this.emitter = emitter;
+        this.capacity = capacity;
+        this.senders = senders;
+        this.listener = listener;
+        emitter.onCompletion(this::close);
+        emitter.onTimeout(this::close);
+        emitter.onError(e -> close());
+    }
+
+    void setWatch(ManagedWatch<Event, EventList> watch) {
+        this.watch = watch;
+        if (closed.get()) {
+            watch.close();
+        }
+    }
+
+    @Override
+    public void onList(List<Event> items, String resourceVersion) {
+        if (listed) {
+            // a relist after the watch expired, the client has seen these
+            return;
+        }
+        listed = true;
+        List<Event> latest = new ArrayList<>(items);
+        latest.sort(BY_TIME);
+        latest.subList(0, Math.max(0, latest.size() - capacity)).clear();
+        latest.forEach(this::offer);
+    }
+
+    @Override
+    public void onEvent(Watcher.Action action, Event event) {
+        if (action == Watcher.Action.ADDED || action == Watcher.Action.MODIFIED) {
+            offer(event);
+        }
+    }
+
+    @Override
+    void drop(String reason) {
+        if (close()) {
+            log.info("Dropped event stream {}: {}", getName(), reason);
+            listener.dropped(this, reason);
+            // completes the response once the sender is done with its current write
+            schedule();
+        }
+    }
+
+    private void offer(Event event) {
+        synchronized (queue) {
+            if (closed.get()) {
+                return;
+            }
+            if (queue.size() < capacity) {
+                queue.add(event);
+                event = null;
+            }
+        }
+        if (event != null) {
+            drop("buffer_full");
+        } else {
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            senders.execute(this::send);
+        }
+    }
+
+    private void send() {
+        while (true) {
+            Event event;
+            synchronized (queue) {
+                event = closed.get() ? null : queue.poll();
+            }
+            if (event == null) {
+                if (closed.get()) {
+                    emitter.complete();
+                    return;
+                }
+                scheduled.set(false);
+                synchronized (queue) {
+                    if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            writeStarted();
+            try {
+                emitter.send(SseEmitter.event()
+                    .id(event.getMetadata().getResourceVersion())
+                    .name("event")
+                    .data(project(event), MediaType.APPLICATION_JSON));
+            } catch (IOException | IllegalStateException e) {
+                log.debug("Event stream {} closed by the client: {}", getName(), e.getMessage());
+                close();
+            } finally {
+                writeFinished();
+            }
+        }
+    }
+
+    /**
+     * @return whether this call closed the stream
+     */
+    private boolean close() {
+        if (!closed.compareAndSet(false, true)) {
+            return false;
+        }
+        synchronized (queue) {
+            queue.clear();
+        }
+        ManagedWatch<Event, EventList> running = watch;
+        if (running != null) {
+            running.close();
+        }
+        listener.closed(this);
+        return true;
+    }
+
+    private static Map<String, Object> project(Event event) {
+        Map<String, Object> projected = new LinkedHashMap<>();
+        projected.put("type", event.getType());
+        projected.put("reason", event.getReason());
+        projected.put("message", event.getMessage());
+        if (event.getInvolvedObject() != null) {
+            projected.put("kind", event.getInvolvedObject().getKind());
+            projected.put("name", event.getInvolvedObject().getName());
+        }
+        projected.put("count", event.getCount());
+        projected.put("firstTimestamp", event.getFirstTimestamp());
+        projected.put("lastTimestamp", event.getLastTimestamp());
+        return projected;
+    }
+
+    private static String timestamp(Event event) {
+        return event.getLastTimestamp() != null ? event.getLastTimestamp() : event.getMetadata().getCreationTimestamp();
+    }
+}
@@ -0,0 +1,82 @@
+package com.boroda.kubernetes.demo.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import lombok.extern.log4j.Log4j2;
+import okhttp3.Call;
+import okhttp3.Response;
+
+/**
+ * Copies the log of a pod from the API server to one client as it comes, through a single buffer
+ * of fixed size: the log is never held as a whole, and a client that does not read holds up the
+ * upstream connection instead of filling memory.
+ */
+@Log4j2
+class LogStream extends StreamConnection {
+
+    private final int bufferBytes;
+    private final StreamListener listener;
+    private volatile Call call;
+    private volatile boolean dropped;
+
+    LogStream(String name, int bufferBytes, StreamListener listener) {
+        super(name);
+        this.bufferBytes = bufferBytes;
+        this.listener = listener;
+    }
+
+    /**
+     * Copies the response of the log call to the client until the log ends, the client goes away or
+     * the stream is dropped.
+     */
+    void copy(Call call, Response response, OutputStream out) throws IOException {
+        this.call = call;
+        if (dropped) {
+            // dropped while the log was being opened
+            call.cancel();
+        }
+        try (Response upstream = response; InputStream in = upstream.body().byteStream()) {
+            byte[] buffer = new byte[bufferBytes];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                writeStarted();
+                try {
+                    out.write(buffer, 0, read);
+                    // lines of a followed log must not wait for the response buffer to fill up
+                    out.flush();
+                } finally {
+                    writeFinished();
+                }
+            }
+        } catch (IOException e) {
+            if (!dropped) {
+                throw e;
+            }
+            log.debug("Log stream {} ended after it was dropped: {}", getName(), e.getMessage());
+        } finally {
+            listener.closed(this);
+        }
+    }
+
+    @Override
+    void drop(String reason) {
+        if (!dropped) {
+            log.info("Dropped log stream {}: {}", getName(), reason);
+            listener.dropped(this, reason);
+            cancel();
+        }
+    }
+
+    /**
+     * Ends the stream, after the response timed out or failed, by cancelling the log call.
+     */
+    void cancel() {
+        dropped = true;
+        Call running = call;
+        if (running != null) {
+            running.cancel();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.boroda.kubernetes.demo.stream;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A response streamed to one client. Writes are timed, so that a client that does not take what
+ * is written to it for too long can be told apart and dropped.
+ */
+abstract class StreamConnection {
+
+    private final String name;
+    private volatile long writeStartedAt;
+
+    StreamConnection(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void writeStarted() {
+        writeStartedAt = System.nanoTime();
+    }
+
+    void writeFinished() {
+        writeStartedAt = 0;
+    }
+
+    /**
+     * How long the current write has been blocked, or 0 if there is no write going on.
+     */
+    long writeBlockedMs(long now) {
+        long startedAt = writeStartedAt;
+        return startedAt == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(now - startedAt);
+    }
+
+    /**
+     * Stops the stream because the client does not keep up, releasing what feeds it.
+     */
+    abstract void drop(String reason);
+}
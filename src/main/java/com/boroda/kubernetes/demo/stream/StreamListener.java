@@ -0,0 +1,11 @@
+package com.boroda.kubernetes.demo.stream;
+
+/**
+ * Told when a {@link StreamConnection} ends, and why if it was dropped.
+ */
+interface StreamListener {
+
+    void closed(StreamConnection connection);
+
+    void dropped(StreamConnection connection, String reason);
+}
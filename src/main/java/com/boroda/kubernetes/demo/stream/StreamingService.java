@@ -0,0 +1,234 @@
+package com.boroda.kubernetes.demo.stream;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletResponse;
+
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.boroda.kubernetes.demo.model.ClusterKey;
+import com.boroda.kubernetes.demo.service.ClusterClientService;
+import com.boroda.kubernetes.demo.watch.WatchManager;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import io.fabric8.kubernetes.client.HttpClientAware;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.dsl.base.OperationSupport;
+import lombok.extern.log4j.Log4j2;
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Streams namespace events (as server-sent events) and pod logs (as chunked plain text) to clients
+ * for as long as they stay connected.
+ *
+ * <p>Every connection buffers a bounded amount: at most {@code k8s.stream.queue_size} events, or
+ * one buffer of {@code k8s.stream.buffer_bytes} of log. A client that lets its events pile up, or
+ * that does not take a write for {@code k8s.stream.write_timeout_ms}, is dropped so that it holds
+ * neither memory nor a watch of the cluster.
+ *
+ * <p>Every connection writes on a sender thread of its own while it has something to write, so a
+ * client whose writes block only ever holds up its own stream. Streams end after
+ * {@code k8s.stream.timeout_ms}, set on each response rather than for every async request.
+ */
+@Log4j2
+@Component
+public class StreamingService {
+
+    private static final String EVENTS = "events";
+    private static final String LOGS = "logs";
+
+    @Autowired
+    private StageMetrics stageMetrics;
+
+    @Autowired
+    private WatchManager watchManager;
+
+    @Autowired
+    private ClusterClientService clusterClientService;
+
+    @Value("${k8s.stream.queue_size:256}")
+    private int queueSize;
+
+    @Value("${k8s.stream.buffer_bytes:8192}")
+    private int bufferBytes;
+
+    @Value("${k8s.stream.write_timeout_ms:10000}")
+    private long writeTimeoutMs;
+
+    @Value("${k8s.stream.timeout_ms:1800000}")
+    private long timeoutMs;
+
+    private final Set<StreamConnection> connections = ConcurrentHashMap.newKeySet();
+
+    private final StreamListener listener = new StreamListener() {
+        @Override
+        public void closed(StreamConnection connection) {
+            connections.remove(connection);
+        }
+
+        @Override
+        public void dropped(StreamConnection connection, String reason) {
+            stageMetrics.counter("k8s.stream.dropped", "Streams dropped because the client did not keep up",
+                "stream", connection instanceof EventStream ? EVENTS : LOGS, "reason", reason).increment();
+        }
+    };
+
+    private ThreadPoolExecutor senders;
+
+    private AsyncTaskExecutor logSenders;
+
+    private ScheduledExecutorService watchdog;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger senderCount = new AtomicInteger();
+        // no queue: a task waiting behind a blocked write would stall a healthy stream
+        senders = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "k8s-stream-sender-" + senderCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        logSenders = new TaskExecutorAdapter(senders);
+        watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "k8s-stream-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchdog.scheduleWithFixedDelay(this::dropBlocked, 1, 1, TimeUnit.SECONDS);
+        stageMetrics.monitor(senders, "k8s.stream.senders");
+        stageMetrics.gauge("k8s.streams", "Open event and log streams", connections, Set::size);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        connections.forEach(connection -> connection.drop("shutdown"));
+        watchdog.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    /**
+     * Streams the events of a namespace: the latest {@code k8s.stream.queue_size} events first,
+     * then every event as it is recorded or updated.
+     */
+    public SseEmitter streamEvents(ClusterKey clusterKey, String namespace) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        EventStream stream = new EventStream(clusterKey.getClusterName() + "/" + namespace + "/events", emitter,
+            queueSize, senders, listener);
+        connections.add(stream);
+        stream.setWatch(watchManager.watch(clusterKey.getClusterName(), EVENTS,
+            () -> clusterClientService.getClient(clusterKey), client -> client.events().inNamespace(namespace),
+            stream));
+        return emitter;
+    }
+
+    /**
+     * Streams the log of a pod as plain text to the response. The log is opened on the API server
+     * before anything is written, so that a missing pod fails the request before the response
+     * starts.
+     *
+     * @param container the container, may be null for pods with a single container
+     * @param tailLines how many of the last lines to start with, null for the whole log
+     * @return the task that copies the log, failing with a
+     *     {@link io.fabric8.kubernetes.client.KubernetesClientException} if the API server refuses it
+     */
+    public WebAsyncTask<ResponseEntity<Void>> streamLogs(ClusterKey clusterKey, String namespace, String pod,
+        String container, boolean follow, Integer tailLines, HttpServletResponse servletResponse) {
+        LogStream stream = new LogStream(clusterKey.getClusterName() + "/" + namespace + "/" + pod + "/log",
+            bufferBytes, listener);
+        WebAsyncTask<ResponseEntity<Void>> task = new WebAsyncTask<>(timeoutMs, logSenders, () -> {
+            Call call = openLog(clusterKey, namespace, pod, container, follow, tailLines);
+            Response response = execute(call);
+            // only now, the stream deregisters itself when the copy ends
+            connections.add(stream);
+            servletResponse.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            stream.copy(call, response, servletResponse.getOutputStream());
+            // written already
+            return null;
+        });
+        task.onTimeout(() -> {
+            stream.cancel();
+            return null;
+        });
+        task.onError(() -> {
+            stream.cancel();
+            return null;
+        });
+        return task;
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    private Call openLog(ClusterKey clusterKey, String namespace, String pod, String container, boolean follow,
+        Integer tailLines) throws IOException {
+        KubernetesClient client = clusterClientService.getClient(clusterKey);
+        HttpUrl.Builder url = HttpUrl.get(client.getMasterUrl()).newBuilder()
+            .addPathSegments("api/v1/namespaces").addPathSegment(namespace)
+            .addPathSegment("pods").addPathSegment(pod).addPathSegment("log");
+        if (container != null) {
+            url.addQueryParameter("container", container);
+        }
+        if (follow) {
+            url.addQueryParameter("follow", "true");
+        }
+        if (tailLines != null) {
+            url.addQueryParameter("tailLines", tailLines.toString());
+        }
+        Request request = new Request.Builder().get().url(url.build()).build();
+
+        OkHttpClient httpClient = ((HttpClientAware) client).getHttpClient();
+        if (follow) {
+            // a followed log may be quiet for any length of time
+            httpClient = httpClient.newBuilder().readTimeout(0, TimeUnit.MILLISECONDS).build();
+        }
+        return httpClient.newCall(request);
+    }
+
+    private static Response execute(Call call) throws IOException {
+        Response response;
+        try {
+            response = call.execute();
+        } catch (IOException e) {
+            throw OperationSupport.requestException(call.request(), e);
+        }
+        if (!response.isSuccessful()) {
+            try (Response failed = response) {
+                throw OperationSupport.requestFailure(call.request(), OperationSupport.createStatus(failed));
+            }
+        }
+        return response;
+    }
+
+    private void dropBlocked() {
+        long now = System.nanoTime();
+        for (StreamConnection connection : connections) {
+            if (connection.writeBlockedMs(now) > writeTimeoutMs) {
+                connection.drop("write_timeout");
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.boroda.kubernetes.demo.watch;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.kubernetes.client.Watcher;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Bounded queue between the thread reading a watch connection and the {@link WatchHandler} of the
+ * watch. At most one dispatcher task drains the queue at a time, so the handler sees lists and
+ * events in order.
+ *
+ * <p>A MODIFIED event for an object that already has an ADDED or MODIFIED event queued replaces the
+ * queued object instead of taking a slot. When the queue is full the {@link OverflowPolicy} decides
+ * what is dropped.
+ */
+@Log4j2
+class EventQueue<T extends HasMetadata> {
+
+    /**
+     * Entries handled by one dispatcher task before it yields to the queues of other watches.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    private final String name;
+    private final WatchHandler<T> handler;
+    private final Executor dispatcher;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutNanos;
+    private final Runnable relist;
+    private final Counter dropped;
+    private final Counter coalesced;
+    private final Timer lag;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Deque<Entry<T>> entries = new ArrayDeque<>();
+    // queued ADDED and MODIFIED events by object, for coalescing
+    private final Map<String, Entry<T>> pendingChanges = new HashMap<>();
+    private boolean draining;
+    private boolean closed;
+
+    EventQueue(String name, WatchHandler<T> handler, Executor dispatcher, int capacity, OverflowPolicy policy,
+        long blockTimeoutMs, Runnable relist, Counter dropped, Counter coalesced, Timer lag) {
+        this.name = name;
+        this.handler = handler;
+        this.dispatcher = dispatcher;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+        this.relist = relist;
+        this.dropped = dropped;
+        this.coalesced = coalesced;
+        this.lag = lag;
+    }
+
+    /**
+     * Queues the result of a list call. Events still queued are discarded, as the list supersedes
+     * them.
+     */
+    void offerList(List<T> items, String resourceVersion) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            entries.clear();
+            pendingChanges.clear();
+            notFull.signalAll();
+            entries.addLast(new Entry<>(null, null, items, resourceVersion));
+            scheduleDrain();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a watch event, waiting for room if the policy is {@link OverflowPolicy#BLOCK}.
+     *
+     * @return {@code false} if the event was dropped
+     */
+    boolean offer(Watcher.Action action, T resource) {
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            String key = key(resource.getMetadata());
+            if (action == Watcher.Action.MODIFIED) {
+                Entry<T> pending = pendingChanges.get(key);
+                if (pending != null) {
+                    pending.resource = resource;
+                    coalesced.increment();
+                    return true;
+                }
+            }
+            long remaining = blockTimeoutNanos;
+            while (entries.size() >= capacity) {
+                if (policy == OverflowPolicy.BLOCK && remaining > 0) {
+                    try {
+                        remaining = notFull.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        remaining = 0;
+                    }
+                    if (closed) {
+                        return false;
+                    }
+                } else if (policy == OverflowPolicy.DROP_OLDEST) {
+                    forget(entries.removeFirst());
+                    dropped.increment();
+                } else if (policy == OverflowPolicy.DROP_NEWEST) {
+                    dropped.increment();
+                    return false;
+                } else {
+                    log.warn("Queue of watch {} is full, dropping {} events and listing again", name,
+                        entries.size() + 1);
+                    dropped.increment(entries.size() + 1);
+                    entries.clear();
+                    pendingChanges.clear();
+                    relist.run();
+                    return false;
+                }
+            }
+            Entry<T> entry = new Entry<>(action, resource, null, null);
+            entries.addLast(entry);
+            if (action == Watcher.Action.DELETED) {
+                pendingChanges.remove(key);
+            } else {
+                pendingChanges.put(key, entry);
+            }
+            scheduleDrain();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards the queued entries and rejects new ones.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            entries.clear();
+            pendingChanges.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drain() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            Entry<T> entry;
+            T resource;
+            lock.lock();
+            try {
+                entry = entries.pollFirst();
+                if (entry == null) {
+                    draining = false;
+                    return;
+                }
+                forget(entry);
+                resource = entry.resource;
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+            deliver(entry, resource);
+        }
+        lock.lock();
+        try {
+            draining = false;
+            scheduleDrain();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void deliver(Entry<T> entry, T resource) {
+        try {
+            if (entry.items != null) {
+                handler.onList(entry.items, entry.resourceVersion);
+            } else {
+                handler.onEvent(entry.action, resource);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Handler of watch {} failed: {}", name, e.getMessage());
+        }
+        lag.record(System.nanoTime() - entry.receivedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void scheduleDrain() {
+        if (draining || entries.isEmpty()) {
+            return;
+        }
+        draining = true;
+        try {
+            dispatcher.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            draining = false;
+        }
+    }
+
+    private void forget(Entry<T> entry) {
+        if (entry.resource != null) {
+            pendingChanges.remove(key(entry.resource.getMetadata()), entry);
+        }
+    }
+
+    private static String key(ObjectMeta metadata) {
+        return metadata.getNamespace() + "/" + metadata.getName();
+    }
+
+    /**
+     * A list (with {@code items}) or an event (with {@code action} and {@code resource}).
+     */
+    private static final class Entry<T> {
+        private final Watcher.Action action;
+        private T resource;
+        private final List<T> items;
+        private final String resourceVersion;
+        private final long receivedNanos = System.nanoTime();
+
+        private Entry(Watcher.Action action, T resource, List<T> items, String resourceVersion) {
+            this.action = action;
+            this.resource = resource;
+            this.items = items;
+            this.resourceVersion = resourceVersion;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.boroda.kubernetes.demo.watch;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.boroda.kubernetes.demo.ratelimit.Priority;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesResourceList;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.kubernetes.client.dsl.WatchListDeletable;
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * A watch that survives disconnects. Lists the resources once, then watches from the resource
+ * version of the list. When the watch is closed it is resumed from the last resource version
+ * received, or the resources are listed again if that version is gone (HTTP 410).
+ *
+ * <p>Lists and events reach the {@link WatchHandler} through a bounded {@link EventQueue}, so a slow
+ * handler holds up the connection only as far as the {@link OverflowPolicy} allows. The lists and
+ * watches are made in the {@link Priority} lane of the thread that created the watch. Created and
+ * started by {@link WatchManager}.
+ */
+@Log4j2
+public class ManagedWatch<T extends HasMetadata, L extends KubernetesResourceList<T>> implements AutoCloseable {
+
+    /**
+     * Supplies the client to list and watch with. Called on every (re)connect so that a rebuilt
+     * client is picked up.
+     */
+    @FunctionalInterface
+    public interface ClientSupplier {
+        KubernetesClient get() throws IOException;
+    }
+
+    private final String name;
+    private final WatchManager manager;
+    private final ClientSupplier clientSupplier;
+    private final Function<KubernetesClient, WatchListDeletable<T, L, Boolean, Watch, Watcher<T>>> operation;
+    private final Priority lane = Priority.current();
+    private final EventQueue<T> queue;
+    private final Counter received;
+    private final Counter resumes;
+    private final Counter relists;
+
+    private volatile boolean running;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Watch watch;
+    private volatile String resourceVersion;
+    private long reconnectDelayMs;
+
+    ManagedWatch(WatchManager manager, String cluster, String resource, ClientSupplier clientSupplier,
+        Function<KubernetesClient, WatchListDeletable<T, L, Boolean, Watch, Watcher<T>>> operation,
+        OverflowPolicy policy, WatchHandler<T> handler) {
+        this.name = cluster + "/" + resource;
+        this.manager = manager;
+        this.clientSupplier = clientSupplier;
+        this.operation = operation;
+        this.reconnectDelayMs = manager.getMinReconnectDelayMs();
+        StageMetrics metrics = manager.getStageMetrics();
+        this.queue = new EventQueue<>(name, handler, manager.getDispatcher(), manager.getQueueSize(), policy,
+            manager.getBlockTimeoutMs(), this::relist,
+            metrics.counter("k8s.watch.dropped", "Watch events dropped because the handler queue was full",
+                "cluster", cluster, "resource", resource),
+            metrics.counter("k8s.watch.coalesced", "Watch events merged into a queued event of the same object",
+                "cluster", cluster, "resource", resource),
+            metrics.timer("k8s.watch.lag", "Time from receiving a watch event or list to handling it",
+                "cluster", cluster, "resource", resource));
+        this.received = metrics.counter("k8s.watch.events", "Watch events received",
+            "cluster", cluster, "resource", resource);
+        this.resumes = metrics.counter("k8s.watch.reconnects", "Watches reconnected",
+            "cluster", cluster, "resource", resource, "mode", "resume");
+        this.relists = metrics.counter("k8s.watch.reconnects", "Watches reconnected",
+            "cluster", cluster, "resource", resource, "mode", "relist");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Resource version of the last list or event received, whether handled yet or not.
+     */
+    public String getResourceVersion() {
+        return resourceVersion;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    void start() {
+        running = true;
+        manager.getScheduler().execute(this::listAndWatch);
+    }
+
+    public void stop() {
+        running = false;
+        generation.incrementAndGet();
+        closeWatch();
+        queue.close();
+        manager.remove(this);
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    private void listAndWatch() {
+        if (!running) {
+            return;
+        }
+        try (Priority.Scope ignored = Priority.enter(lane)) {
+            KubernetesClient client = clientSupplier.get();
+            L list = operation.apply(client).list();
+            resourceVersion = list.getMetadata().getResourceVersion();
+            queue.offerList(list.getItems(), resourceVersion);
+            log.info("Watch {} listed {} objects at resource version {}", name, list.getItems().size(),
+                resourceVersion);
+            watch(client);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Watch {} failed to list: {}", name, e.getMessage());
+            scheduleReconnect(true);
+        }
+    }
+
+    private void resume() {
+        if (!running) {
+            return;
+        }
+        try (Priority.Scope ignored = Priority.enter(lane)) {
+            watch(clientSupplier.get());
+        } catch (KubernetesClientException e) {
+            log.warn("Watch {} failed to resume: {}", name, e.getMessage());
+            scheduleReconnect(e.getCode() == HttpURLConnection.HTTP_GONE);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Watch {} failed to resume: {}", name, e.getMessage());
+            scheduleReconnect(false);
+        }
+    }
+
+    /**
+     * Drops the current watch and lists again, after the handler queue overflowed.
+     */
+    private void relist() {
+        // events still arriving on the current watch must be ignored
+        generation.incrementAndGet();
+        relists.increment();
+        try {
+            manager.getScheduler().execute(this::listAndWatch);
+        } catch (RejectedExecutionException e) {
+            log.debug("Watch {} not relisted, shutting down", name);
+        }
+    }
+
+    private void watch(KubernetesClient client) {
+        // events and close notifications of a replaced watch must be ignored
+        long current = generation.incrementAndGet();
+        closeWatch();
+        watch = operation.apply(client).withResourceVersion(resourceVersion).watch(new Watcher<T>() {
+            @Override
+            public void eventReceived(Action action, T resource) {
+                if (current != generation.get()) {
+                    return;
+                }
+                received.increment();
+                if (action == Action.ERROR) {
+                    log.warn("Watch {} received {} event", name, action);
+                    return;
+                }
+                resourceVersion = resource.getMetadata().getResourceVersion();
+                queue.offer(action, resource);
+            }
+
+            @Override
+            public void onClose(KubernetesClientException e) {
+                if (!running || current != generation.get()) {
+                    return;
+                }
+                boolean gone = e != null && e.getCode() == HttpURLConnection.HTTP_GONE;
+                log.info("Watch {} closed{}", name, gone ? ", resource version is gone" : "");
+                scheduleReconnect(gone);
+            }
+        });
+        synchronized (this) {
+            reconnectDelayMs = manager.getMinReconnectDelayMs();
+        }
+    }
+
+    private synchronized void scheduleReconnect(boolean relist) {
+        if (!running || manager.getScheduler().isShutdown()) {
+            return;
+        }
+        long delay = reconnectDelayMs;
+        reconnectDelayMs = Math.min(reconnectDelayMs * 2, manager.getMaxReconnectDelayMs());
+        (relist ? relists : resumes).increment();
+        manager.getScheduler().schedule(relist ? this::listAndWatch : this::resume, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void closeWatch() {
+        Watch current = watch;
+        watch = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (RuntimeException e) {
+                log.debug("Watch {} failed to close: {}", name, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.boroda.kubernetes.demo.watch;
+
+/**
+ * What a watch does with a new event when the queue of its consumer is full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Waits for room, which stops reading from the watch connection. If there is still no room
+     * after {@code k8s.watch.block_timeout_ms} the queue is dropped as with {@link #RELIST}.
+     */
+    BLOCK,
+
+    /**
+     * Drops the oldest queued event.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drops the new event.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Drops the queued events and the new one, and lists the resources again. The consumer misses
+     * intermediate changes but ends up with the current state.
+     */
+    RELIST;
+
+    /**
+     * Whether a consumer that keeps a copy of the resources still ends up with the current state.
+     */
+    public boolean isLossless() {
+        return this == BLOCK || this == RELIST;
+    }
+}
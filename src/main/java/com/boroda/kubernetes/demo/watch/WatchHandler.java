@@ -0,0 +1,24 @@
+package com.boroda.kubernetes.demo.watch;
+
+import java.util.List;
+
+import io.fabric8.kubernetes.client.Watcher;
+
+/**
+ * Consumes the lists and events of a {@link ManagedWatch}. Calls for one watch are made one at a
+ * time, in order, on a dispatcher thread, never on the thread reading the watch connection.
+ */
+public interface WatchHandler<T> {
+
+    /**
+     * Called with the initial list and after every relist. Events queued before the list are
+     * discarded, so the list replaces whatever the handler knew.
+     */
+    void onList(List<T> items, String resourceVersion);
+
+    /**
+     * Called for every event received after the list. Consecutive changes of an object that are
+     * still queued are delivered as one event with the latest state of the object.
+     */
+    void onEvent(Watcher.Action action, T resource);
+}
@@ -0,0 +1,162 @@
+package com.boroda.kubernetes.demo.watch;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.boroda.kubernetes.demo.watch.ManagedWatch.ClientSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesResourceList;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.kubernetes.client.dsl.WatchListDeletable;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Creates {@link ManagedWatch}es and runs them: a small scheduler (re)connects the watches, and
+ * {@code k8s.watch.dispatcher_threads} threads hand the queued events to the handlers.
+ *
+ * <p>Every watch queues at most {@code k8s.watch.queue_size} events for its handler. Watches use
+ * {@code k8s.watch.overflow_policy} unless they are created with a policy of their own.
+ */
+@Log4j2
+@Component
+public class WatchManager {
+
+    @Autowired
+    private StageMetrics stageMetrics;
+
+    @Value("${k8s.watch.queue_size:1000}")
+    private int queueSize;
+
+    @Value("${k8s.watch.overflow_policy:drop_oldest}")
+    private String overflowPolicy;
+
+    @Value("${k8s.watch.block_timeout_ms:5000}")
+    private long blockTimeoutMs;
+
+    @Value("${k8s.watch.dispatcher_threads:4}")
+    private int dispatcherThreads;
+
+    @Value("${k8s.watch.min_reconnect_delay_ms:1000}")
+    private long minReconnectDelayMs;
+
+    @Value("${k8s.watch.max_reconnect_delay_ms:30000}")
+    private long maxReconnectDelayMs;
+
+    private final Set<ManagedWatch<?, ?>> watches = ConcurrentHashMap.newKeySet();
+
+    private OverflowPolicy defaultPolicy;
+
+    private ScheduledExecutorService scheduler;
+
+    private ThreadPoolExecutor dispatcher;
+
+    @PostConstruct
+    public void start() {
+        defaultPolicy = OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase(Locale.ROOT));
+        AtomicInteger schedulerThreads = new AtomicInteger();
+        scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "k8s-watch-" + schedulerThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger dispatcherCount = new AtomicInteger();
+        dispatcher = new ThreadPoolExecutor(dispatcherThreads, dispatcherThreads, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "k8s-watch-dispatch-" + dispatcherCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        dispatcher.allowCoreThreadTimeOut(true);
+        stageMetrics.monitor(dispatcher, "k8s.watch.dispatcher");
+        stageMetrics.gauge("k8s.watches", "Running watches", watches, Set::size);
+        stageMetrics.gauge("k8s.watch.queue.depth", "Watch events waiting for their handlers", watches,
+            running -> running.stream().mapToInt(ManagedWatch::getQueueDepth).sum());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watches.forEach(ManagedWatch::stop);
+        scheduler.shutdownNow();
+        dispatcher.shutdownNow();
+    }
+
+    /**
+     * Starts a watch with the default overflow policy.
+     *
+     * @param cluster  cluster name, used in logs and metric tags
+     * @param resource resource name, used in logs and metric tags
+     */
+    public <T extends HasMetadata, L extends KubernetesResourceList<T>> ManagedWatch<T, L> watch(String cluster,
+        String resource, ClientSupplier clientSupplier,
+        Function<KubernetesClient, WatchListDeletable<T, L, Boolean, Watch, Watcher<T>>> operation,
+        WatchHandler<T> handler) {
+        return watch(cluster, resource, clientSupplier, operation, defaultPolicy, handler);
+    }
+
+    /**
+     * Starts a watch. The handler is first called with the current list of resources.
+     */
+    public <T extends HasMetadata, L extends KubernetesResourceList<T>> ManagedWatch<T, L> watch(String cluster,
+        String resource, ClientSupplier clientSupplier,
+        Function<KubernetesClient, WatchListDeletable<T, L, Boolean, Watch, Watcher<T>>> operation,
+        OverflowPolicy policy, WatchHandler<T> handler) {
+        ManagedWatch<T, L> watch = new ManagedWatch<>(this, cluster, resource, clientSupplier, operation, policy,
+            handler);
+        watches.add(watch);
+        watch.start();
+        log.debug("Started watch {} with overflow policy {}", watch.getName(), policy);
+        return watch;
+    }
+
+    void remove(ManagedWatch<?, ?> watch) {
+        watches.remove(watch);
+    }
+
+    StageMetrics getStageMetrics() {
+        return stageMetrics;
+    }
+
+    ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    Executor getDispatcher() {
+        return dispatcher;
+    }
+
+    int getQueueSize() {
+        return queueSize;
+    }
+
+    long getBlockTimeoutMs() {
+        return blockTimeoutMs;
+    }
+
+    long getMinReconnectDelayMs() {
+        return minReconnectDelayMs;
+    }
+
+    long getMaxReconnectDelayMs() {
+        return maxReconnectDelayMs;
+    }
+}
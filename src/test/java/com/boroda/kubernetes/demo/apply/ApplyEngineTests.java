@@ -0,0 +1,145 @@
+package com.boroda.kubernetes.demo.apply;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.boroda.kubernetes.demo.ratelimit.Priority;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.NamespaceBuilder;
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ApplyEngineTests {
+
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+    private final List<String> lanes = new CopyOnWriteArrayList<>();
+    private ApplyEngine applyEngine;
+    private KubernetesClient client;
+
+    @Before
+    public void setUp() {
+        StageMetrics stageMetrics = new StageMetrics(new SimpleMeterRegistry());
+        ResourceApplier applier = new ResourceApplier();
+        ReflectionTestUtils.setField(applier, "stageMetrics", stageMetrics);
+        applyEngine = new ApplyEngine();
+        ReflectionTestUtils.setField(applyEngine, "stageMetrics", stageMetrics);
+        ReflectionTestUtils.setField(applyEngine, "resourceApplier", applier);
+        ReflectionTestUtils.setField(applyEngine, "threads", 2);
+        ReflectionTestUtils.setField(applyEngine, "queueSize", 2);
+        ReflectionTestUtils.setField(applyEngine, "readinessTimeoutMs", 1000L);
+        applyEngine.start();
+        // objects do not exist until created, creates echo the object, everything else fails
+        OkHttpClient httpClient = new OkHttpClient.Builder().addInterceptor(chain -> {
+            Request request = chain.request();
+            requests.add(request);
+            lanes.add(Thread.currentThread().getName() + " " + Priority.current());
+            Response.Builder response = new Response.Builder().request(request).protocol(Protocol.HTTP_1_1);
+            if ("POST".equals(request.method())) {
+                return response.code(201).message("Created")
+                    .body(ResponseBody.create(MediaType.parse("application/json"), body(request))).build();
+            }
+            return response.code(404).message("Not Found")
+                .body(ResponseBody.create(MediaType.parse("application/json"), "{}")).build();
+        }).build();
+        client = new DefaultKubernetesClient(httpClient, new ConfigBuilder().withMasterUrl("https://k8s.example").build());
+    }
+
+    @After
+    public void tearDown() {
+        applyEngine.shutdown();
+    }
+
+    @Test public void deleteBundleOnlyDeletesTheKindsItWasAppliedWith() {
+        ApplyReport applied = applyEngine.apply(client, "demo", "web", Collections.singletonList(configMap("a")),
+            "demo");
+        assertTrue(applied.isSuccessful());
+        requests.clear();
+
+        ApplyReport deleted = applyEngine.deleteBundle(client, "demo", "demo", "web");
+
+        assertEquals(1, deleted.getSteps().size());
+        assertEquals("ConfigMap", deleted.getSteps().get(0).getKind());
+        assertEquals(Collections.singleton("configmaps"), resourcesRequested());
+    }
+
+    @Test public void deleteByLabelsOnlyDeletesTheKindsGiven() {
+        applyEngine.deleteByLabels(client, "demo", "demo", null, Collections.singletonMap("server", "nginx"),
+            Collections.singletonList("ReplicationController"));
+
+        assertEquals(Collections.singleton("replicationcontrollers"), resourcesRequested());
+    }
+
+    @Test public void bundleThatDoesNotFitInTheQueueIsRejected() {
+        List<HasMetadata> resources = Arrays.asList(configMap("a"), configMap("b"), configMap("c"));
+
+        try {
+            applyEngine.apply(client, "demo", "web", resources, "demo");
+            fail("Expected the bundle to be rejected");
+        } catch (ResponseStatusException e) {
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatus());
+        }
+        assertTrue(requests.isEmpty());
+        // the permits of a rejected bundle are not lost
+        assertTrue(applyEngine.apply(client, "demo", "web", resources.subList(0, 2), "demo").isSuccessful());
+    }
+
+    @Test public void stepsAreAppliedInTheLaneOfTheCaller() {
+        List<HasMetadata> resources = Arrays.asList(
+            new NamespaceBuilder().withNewMetadata().withName("demo").endMetadata().build(), configMap("a"));
+
+        try (Priority.Scope ignored = Priority.enter(Priority.BULK)) {
+            assertTrue(applyEngine.apply(client, "demo", "web", resources, "demo").isSuccessful());
+        }
+
+        // the config map step is submitted by the apply thread that created the namespace
+        assertEquals(4, lanes.size());
+        for (String lane : lanes) {
+            assertTrue(lane, lane.matches("k8s-apply-\\d+ BULK"));
+        }
+    }
+
+    private Set<String> resourcesRequested() {
+        return requests.stream()
+            .map(request -> request.url().pathSegments().get(request.url().pathSize() - 1))
+            .collect(Collectors.toSet());
+    }
+
+    private static ConfigMap configMap(String name) {
+        return new ConfigMapBuilder().withNewMetadata().withName(name).endMetadata().addToData("k", "v").build();
+    }
+
+    private static String body(Request request) throws IOException {
+        Buffer buffer = new Buffer();
+        request.body().writeTo(buffer);
+        return buffer.readUtf8();
+    }
+}
@@ -0,0 +1,217 @@
+package com.boroda.kubernetes.demo.apply;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.boroda.kubernetes.demo.informer.ResourceStore;
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.fabric8.kubernetes.api.model.Endpoints;
+import io.fabric8.kubernetes.api.model.EndpointsBuilder;
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.api.model.NamespaceBuilder;
+import io.fabric8.kubernetes.api.model.ObjectMetaBuilder;
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.CustomResource;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResourceApplierTests {
+
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+    private volatile int responseCode = 200;
+    private volatile String responseBody = Serialization.asJson(namespace("b"));
+    private ResourceApplier applier;
+    private KubernetesClient client;
+
+    @Before
+    public void setUp() {
+        applier = new ResourceApplier();
+        ReflectionTestUtils.setField(applier, "stageMetrics", new StageMetrics(new SimpleMeterRegistry()));
+        OkHttpClient httpClient = new OkHttpClient.Builder().addInterceptor(chain -> {
+            Request request = chain.request();
+            requests.add(request);
+            return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(responseCode)
+                .message("OK")
+                .body(ResponseBody.create(MediaType.parse("application/json"), responseBody))
+                .build();
+        }).build();
+        client = new DefaultKubernetesClient(httpClient, new ConfigBuilder().withMasterUrl("https://k8s.example").build());
+    }
+
+    @Test public void specHashIgnoresKeyOrderAndServerMetadata() {
+        Namespace desired = new NamespaceBuilder().withNewMetadata().withName("demo")
+            .addToLabels("a", "1").addToLabels("b", "2").endMetadata().build();
+        Namespace live = new NamespaceBuilder().withNewMetadata().withName("demo")
+            .addToLabels("b", "2").addToLabels("a", "1").withResourceVersion("42").withUid("uid")
+            .addToAnnotations(ResourceApplier.SPEC_HASH_ANNOTATION, "old").endMetadata()
+            .withNewStatus().withPhase("Active").endStatus().build();
+
+        assertEquals(ResourceApplier.specHash(desired), ResourceApplier.specHash(live));
+        assertNotEquals(ResourceApplier.specHash(desired), ResourceApplier.specHash(namespace("c")));
+    }
+
+    @Test public void convergedObjectIsNotWritten() {
+        ResourceStore<Namespace> store = new ResourceStore<>();
+        Namespace previous = namespace("b");
+        applier.apply(client, "demo", previous, Optional.of(new ResourceStore<>()));
+        store.replace(Collections.singletonList(stored(previous)), "1");
+        requests.clear();
+
+        ResourceApplier.Applied<Namespace> applied = applier.apply(client, "demo", namespace("b"), Optional.of(store));
+
+        assertEquals(ResourceApplier.Outcome.UNCHANGED, applied.getOutcome());
+        assertTrue(requests.isEmpty());
+    }
+
+    @Test public void changedObjectIsPatchedOnce() {
+        ResourceStore<Namespace> store = new ResourceStore<>();
+        Namespace previous = namespace("a");
+        applier.apply(client, "demo", previous, Optional.of(new ResourceStore<>()));
+        store.replace(Collections.singletonList(stored(previous)), "1");
+        requests.clear();
+
+        ResourceApplier.Applied<Namespace> applied = applier.apply(client, "demo", namespace("b"), Optional.of(store));
+
+        assertEquals(ResourceApplier.Outcome.PATCHED, applied.getOutcome());
+        assertEquals(1, requests.size());
+        assertEquals("PATCH", requests.get(0).method());
+        assertEquals("/api/v1/namespaces/demo", requests.get(0).url().encodedPath());
+        assertEquals(ResourceApplier.MERGE_PATCH, requests.get(0).body().contentType());
+    }
+
+    @Test public void droppedLabelIsRemoved() throws IOException {
+        ResourceStore<Namespace> store = new ResourceStore<>();
+        Namespace previous = new NamespaceBuilder(namespace("a")).editMetadata().addToLabels("team", "x")
+            .addToAnnotations("owner", "ops").endMetadata().build();
+        applier.apply(client, "demo", previous, Optional.of(new ResourceStore<>()));
+        store.replace(Collections.singletonList(stored(previous)), "1");
+        requests.clear();
+
+        ResourceApplier.Applied<Namespace> applied = applier.apply(client, "demo", namespace("a"), Optional.of(store));
+
+        assertEquals(ResourceApplier.Outcome.PATCHED, applied.getOutcome());
+        JsonNode metadata = Serialization.jsonMapper().readTree(body(requests.get(0))).get("metadata");
+        assertTrue(metadata.get("labels").get("team").isNull());
+        assertEquals("a", metadata.get("labels").get("tier").asText());
+        assertTrue(metadata.get("annotations").get("owner").isNull());
+        assertTrue(metadata.get("annotations").has(ResourceApplier.SPEC_HASH_ANNOTATION));
+        assertFalse(metadata.get("annotations").get(ResourceApplier.LAST_APPLIED_ANNOTATION).asText().contains("team"));
+    }
+
+    @Test public void fieldsSetByOthersAreKept() throws IOException {
+        ResourceStore<Namespace> store = new ResourceStore<>();
+        Namespace previous = namespace("a");
+        applier.apply(client, "demo", previous, Optional.of(new ResourceStore<>()));
+        Namespace live = new NamespaceBuilder(stored(previous)).editMetadata().addToLabels("team", "x").endMetadata()
+            .build();
+        store.replace(Collections.singletonList(live), "1");
+        requests.clear();
+
+        applier.apply(client, "demo", namespace("b"), Optional.of(store));
+
+        JsonNode labels = Serialization.jsonMapper().readTree(body(requests.get(0))).get("metadata").get("labels");
+        assertFalse(labels.has("team"));
+        assertEquals("b", labels.get("tier").asText());
+    }
+
+    @Test public void missingObjectIsCreated() {
+        ResourceApplier.Applied<Namespace> applied = applier.apply(client, "demo", namespace("b"),
+            Optional.of(new ResourceStore<>()));
+
+        assertEquals(ResourceApplier.Outcome.CREATED, applied.getOutcome());
+        assertEquals(1, requests.size());
+        assertEquals("POST", requests.get(0).method());
+        assertEquals("/api/v1/namespaces", requests.get(0).url().encodedPath());
+    }
+
+    @Test public void namespacedObjectIsCreatedInItsNamespace() {
+        responseBody = Serialization.asJson(endpoints());
+
+        applier.apply(client, "demo", endpoints(), Optional.of(new ResourceStore<>()));
+
+        assertEquals("/api/v1/namespaces/web/endpoints", requests.get(0).url().encodedPath());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedKindIsRejected() {
+        Widget widget = new Widget();
+        widget.setMetadata(new ObjectMetaBuilder().withName("w").withNamespace("web").build());
+
+        applier.apply(client, "demo", widget);
+    }
+
+    @Test public void failureCarriesTheStatusOfTheApiServer() {
+        responseCode = 403;
+        responseBody = "{\"kind\":\"Status\",\"apiVersion\":\"v1\",\"status\":\"Failure\","
+            + "\"message\":\"namespaces is forbidden\",\"reason\":\"Forbidden\",\"code\":403}";
+
+        try {
+            applier.apply(client, "demo", namespace("b"));
+            fail("Expected the read to fail");
+        } catch (KubernetesClientException e) {
+            assertEquals(403, e.getCode());
+            assertEquals("Forbidden", e.getStatus().getReason());
+            assertTrue(e.getMessage(), e.getMessage().contains("namespaces is forbidden"));
+        }
+    }
+
+    private static String body(Request request) throws IOException {
+        Buffer buffer = new Buffer();
+        request.body().writeTo(buffer);
+        return buffer.readUtf8();
+    }
+
+    private static Endpoints endpoints() {
+        return new EndpointsBuilder().withNewMetadata().withName("web").withNamespace("web").endMetadata().build();
+    }
+
+    /**
+     * A kind the applier does not know.
+     */
+    private static class Widget extends CustomResource {
+        private Widget() {
+            setKind("Widget");
+            setApiVersion("example.com/v1");
+        }
+    }
+
+    private static Namespace namespace(String tier) {
+        return new NamespaceBuilder().withNewMetadata().withName("demo").addToLabels("tier", tier).endMetadata().build();
+    }
+
+    /**
+     * The object as the API server stores it after an apply.
+     */
+    private static Namespace stored(Namespace applied) {
+        return new NamespaceBuilder(applied).editMetadata().withResourceVersion("7").endMetadata()
+            .withNewStatus().withPhase("Active").endStatus().build();
+    }
+}
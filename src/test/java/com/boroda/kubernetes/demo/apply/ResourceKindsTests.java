@@ -0,0 +1,69 @@
+package com.boroda.kubernetes.demo.apply;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceKindsTests {
+
+    private static final Map<String, String> PLURALS = new LinkedHashMap<>();
+
+    static {
+        PLURALS.put("Namespace", "namespaces");
+        PLURALS.put("Node", "nodes");
+        PLURALS.put("PersistentVolume", "persistentvolumes");
+        PLURALS.put("CustomResourceDefinition", "customresourcedefinitions");
+        PLURALS.put("StorageClass", "storageclasses");
+        PLURALS.put("ClusterRole", "clusterroles");
+        PLURALS.put("ClusterRoleBinding", "clusterrolebindings");
+        PLURALS.put("ResourceQuota", "resourcequotas");
+        PLURALS.put("LimitRange", "limitranges");
+        PLURALS.put("ServiceAccount", "serviceaccounts");
+        PLURALS.put("ConfigMap", "configmaps");
+        PLURALS.put("Secret", "secrets");
+        PLURALS.put("PersistentVolumeClaim", "persistentvolumeclaims");
+        PLURALS.put("Role", "roles");
+        PLURALS.put("RoleBinding", "rolebindings");
+        PLURALS.put("ReplicationController", "replicationcontrollers");
+        PLURALS.put("Deployment", "deployments");
+        PLURALS.put("StatefulSet", "statefulsets");
+        PLURALS.put("DaemonSet", "daemonsets");
+        PLURALS.put("ReplicaSet", "replicasets");
+        PLURALS.put("Job", "jobs");
+        PLURALS.put("CronJob", "cronjobs");
+        PLURALS.put("Pod", "pods");
+        PLURALS.put("Service", "services");
+        PLURALS.put("Endpoints", "endpoints");
+        PLURALS.put("Ingress", "ingresses");
+        PLURALS.put("NetworkPolicy", "networkpolicies");
+        PLURALS.put("HorizontalPodAutoscaler", "horizontalpodautoscalers");
+    }
+
+    private final KubernetesClient client =
+        new DefaultKubernetesClient(new ConfigBuilder().withMasterUrl("https://k8s.example").build());
+
+    @Test public void everyKindHasItsResourceName() {
+        assertEquals(PLURALS.keySet(), ResourceKinds.names());
+        PLURALS.forEach((kind, plural) -> assertEquals(kind, plural, ResourceKinds.of(kind).plural(client)));
+    }
+
+    @Test public void clusterScopedKindsAreNotNamespaced() {
+        assertTrue(ResourceKinds.isClusterScoped("Namespace"));
+        assertTrue(ResourceKinds.isClusterScoped("ClusterRoleBinding"));
+        assertFalse(ResourceKinds.isClusterScoped("RoleBinding"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownKindIsRejected() {
+        ResourceKinds.of("Widget");
+    }
+}
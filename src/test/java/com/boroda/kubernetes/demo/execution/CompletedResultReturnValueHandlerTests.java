@@ -0,0 +1,65 @@
+package com.boroda.kubernetes.demo.execution;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.StringHttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandlerComposite;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.DeferredResultMethodReturnValueHandler;
+import org.springframework.web.servlet.mvc.method.annotation.HttpEntityMethodProcessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class CompletedResultReturnValueHandlerTests {
+
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+
+    private final CompletedResultReturnValueHandler handler = new CompletedResultReturnValueHandler(
+        new HandlerMethodReturnValueHandlerComposite()
+            .addHandler(new DeferredResultMethodReturnValueHandler())
+            .addHandler(new HttpEntityMethodProcessor(Collections.singletonList(new StringHttpMessageConverter()))));
+
+    @Test
+    public void completedResultIsWrittenWithoutAsyncProcessing() throws Exception {
+        request.setAsyncSupported(true);
+        DeferredResult<ResponseEntity<String>> result = new DeferredResult<>();
+        result.setResult(ResponseEntity.status(HttpStatus.ACCEPTED).body("done"));
+
+        handle(result);
+
+        assertFalse(request.isAsyncStarted());
+        assertEquals(HttpStatus.ACCEPTED.value(), response.getStatus());
+        assertEquals("done", response.getContentAsString());
+    }
+
+    @Test(expected = ResponseStatusException.class)
+    public void errorResultIsThrown() throws Exception {
+        DeferredResult<ResponseEntity<String>> result = new DeferredResult<>();
+        result.setErrorResult(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE));
+
+        handle(result);
+    }
+
+    private void handle(DeferredResult<ResponseEntity<String>> result) throws Exception {
+        MethodParameter returnType = new MethodParameter(getClass().getDeclaredMethod("handlerMethod"), -1);
+        handler.handleReturnValue(result, returnType, new ModelAndViewContainer(),
+            new ServletWebRequest(request, response));
+    }
+
+    @SuppressWarnings("unused")
+    private DeferredResult<ResponseEntity<String>> handlerMethod() {
+        return null;
+    }
+}
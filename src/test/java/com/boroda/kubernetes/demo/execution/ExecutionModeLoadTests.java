@@ -0,0 +1,236 @@
+package com.boroda.kubernetes.demo.execution;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.boroda.kubernetes.demo.execution.RequestExecutor.Mode;
+import com.boroda.kubernetes.demo.informer.InformerRegistry;
+import com.boroda.kubernetes.demo.informer.ResourceStore;
+import com.boroda.kubernetes.demo.model.ClusterKey;
+import com.boroda.kubernetes.demo.service.NamespaceService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.api.model.NamespaceBuilder;
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.api.model.ServiceBuilder;
+import lombok.extern.log4j.Log4j2;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+
+/**
+ * Compares the blocking and the async execution modes of the controller with remote calls
+ * replaced by a fixed delay. Both modes get the same number of threads to wait on remote calls
+ * ({@code load.threads}, 200 by default): the container threads in the blocking mode, the I/O pool
+ * in the async mode. With remote calls that block a thread either way, the two modes serve about
+ * the same throughput; the async mode only frees the container threads. The load test itself only
+ * runs with {@code -Dload.test=true}, e.g.
+ * {@code mvn test -Dtest=ExecutionModeLoadTests -Dload.test=true}, and writes its results to
+ * {@code target/load-test/execution-modes.json}.
+ */
+@Log4j2
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+    "k8s.execution.mode=async",
+    "k8s.execution.io_threads=${load.threads:200}",
+    "k8s.execution.queue_size=2000",
+    "server.tomcat.max-threads=${load.threads:200}"
+})
+public class ExecutionModeLoadTests {
+
+    private static final int CALLERS = Integer.getInteger("load.callers", 1000);
+    private static final long WARMUP_MS = Long.getLong("load.warmup_ms", 3000);
+    private static final long DURATION_MS = Long.getLong("load.duration_ms", 15000);
+    private static final long REMOTE_LATENCY_MS = Long.getLong("load.remote_latency_ms", 100);
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private RequestExecutor requestExecutor;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @MockBean
+    private NamespaceService namespaceService;
+
+    @MockBean
+    private InformerRegistry informerRegistry;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Before
+    public void setUp() throws Exception {
+        Namespace namespace = new NamespaceBuilder().withNewMetadata().withName("cbs-namespace").endMetadata().build();
+        given(namespaceService.createNamespace(any(ClusterKey.class), anyString(), anyMap())).willAnswer(invocation -> {
+            Thread.sleep(REMOTE_LATENCY_MS);
+            return namespace;
+        });
+        ResourceStore<Service> store = new ResourceStore<>();
+        store.replace(Arrays.asList(service("b"), service("a")), "1");
+        given(informerRegistry.services(any(ClusterKey.class))).willReturn(Optional.of(store));
+    }
+
+    @Test
+    public void listingsAreStreamedInBothModes() throws IOException {
+        for (Mode mode : Mode.values()) {
+            ReflectionTestUtils.setField(requestExecutor, "executionMode", mode);
+
+            ResponseEntity<String> response = restTemplate.getForEntity("/cluster/get-services", String.class);
+
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            String serverTiming = response.getHeaders().getFirst("Server-Timing");
+            assertTrue(mode + ": " + serverTiming, serverTiming != null && serverTiming.contains("total;dur="));
+            JsonNode items = objectMapper.readTree(response.getBody()).get("items");
+            assertEquals(2, items.size());
+            assertEquals("a", items.get(0).get("metadata").get("name").asText());
+        }
+    }
+
+    @Test
+    public void comparesModesWithEqualThreadBudgets() throws Exception {
+        Assume.assumeTrue("Run with -Dload.test=true", Boolean.getBoolean("load.test"));
+
+        Map<String, Object> results = new LinkedHashMap<>();
+        results.put("callers", CALLERS);
+        results.put("durationMs", DURATION_MS);
+        results.put("remoteLatencyMs", REMOTE_LATENCY_MS);
+        results.put("threads", ReflectionTestUtils.getField(requestExecutor, "ioThreads"));
+        Map<Mode, Map<String, Object>> byMode = new LinkedHashMap<>();
+        // an untimed round of both modes first: whichever mode is measured on a cold JVM loses
+        for (int round = 0; round < 2; round++) {
+            for (Mode mode : Mode.values()) {
+                ReflectionTestUtils.setField(requestExecutor, "executionMode", mode);
+                byMode.put(mode, run());
+            }
+        }
+        results.put("modes", byMode);
+
+        File output = new File("target/load-test/execution-modes.json");
+        output.getParentFile().mkdirs();
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(output, results);
+        log.info("Execution mode load test results written to {}", output.getAbsolutePath());
+
+        for (Mode mode : Mode.values()) {
+            Map<String, Object> result = byMode.get(mode);
+            log.info("{}: {} req/s, p50 {} ms, p99 {} ms, {} errors", mode, result.get("throughput"),
+                result.get("p50Ms"), result.get("p99Ms"), result.get("errors"));
+            assertTrue(mode + " completed no requests", (Integer) result.get("requests") > 0);
+        }
+    }
+
+    /**
+     * Runs {@link #CALLERS} callers in a closed loop, each sending its next request as soon as the
+     * previous one is answered, and measures the requests completed after the warm-up.
+     */
+    private Map<String, Object> run() throws InterruptedException {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(CALLERS);
+        dispatcher.setMaxRequestsPerHost(CALLERS);
+        OkHttpClient client = new OkHttpClient.Builder()
+            .dispatcher(dispatcher)
+            .connectionPool(new ConnectionPool(CALLERS, 1, TimeUnit.MINUTES))
+            .readTimeout(60, TimeUnit.SECONDS)
+            .build();
+        Request request = new Request.Builder()
+            .url("http://localhost:" + port + "/cluster/create-default-namespace")
+            .build();
+
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(WARMUP_MS);
+        long end = measureFrom + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        AtomicLong errors = new AtomicLong();
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        CountDownLatch finished = new CountDownLatch(CALLERS);
+        for (int i = 0; i < CALLERS; i++) {
+            Thread caller = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < end) {
+                        long sent = System.nanoTime();
+                        boolean ok;
+                        try (Response response = client.newCall(request).execute()) {
+                            ok = response.isSuccessful();
+                            response.body().bytes();
+                        } catch (IOException e) {
+                            ok = false;
+                        }
+                        long received = System.nanoTime();
+                        if (sent >= measureFrom && received <= end) {
+                            if (ok) {
+                                latencies.add(received - sent);
+                            } else {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    }
+                } finally {
+                    finished.countDown();
+                }
+            }, "load-caller-" + i);
+            caller.setDaemon(true);
+            caller.start();
+        }
+        finished.await();
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("requests", sorted.size());
+        result.put("errors", errors.get());
+        result.put("throughput", sorted.size() * 1000.0 / DURATION_MS);
+        result.put("p50Ms", percentileMs(sorted, 0.50));
+        result.put("p99Ms", percentileMs(sorted, 0.99));
+        return result;
+    }
+
+    private static double percentileMs(List<Long> sorted, double percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.size() - 1, Math.ceil(percentile * sorted.size()) - 1);
+        return sorted.get(Math.max(index, 0)) / 1e6;
+    }
+
+    private static Service service(String name) {
+        return new ServiceBuilder().withNewMetadata().withName(name).withNamespace("default").endMetadata().build();
+    }
+}
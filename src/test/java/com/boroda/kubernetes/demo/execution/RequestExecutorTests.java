@@ -0,0 +1,83 @@
+package com.boroda.kubernetes.demo.execution;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestExecutorTests {
+
+    private RequestExecutor requestExecutor;
+
+    @After
+    public void tearDown() {
+        requestExecutor.shutdown();
+    }
+
+    @Test
+    public void blockingModeCompletesOnCallingThread() {
+        requestExecutor = create("blocking", 1, 1);
+        String caller = Thread.currentThread().getName();
+
+        DeferredResult<String> result = requestExecutor.execute(() -> Thread.currentThread().getName());
+
+        assertTrue(result.hasResult());
+        assertEquals(caller, result.getResult());
+    }
+
+    @Test
+    public void asyncModeCompletesOnIoThread() throws InterruptedException {
+        requestExecutor = create("async", 1, 1);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Object> value = new AtomicReference<>();
+
+        DeferredResult<String> result = requestExecutor.execute(() -> Thread.currentThread().getName());
+        result.setResultHandler(resultValue -> {
+            value.set(resultValue);
+            done.countDown();
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(((String) value.get()).startsWith("request-io-"));
+    }
+
+    @Test
+    public void asyncModeRejectsWhenQueueIsFull() throws InterruptedException {
+        requestExecutor = create("async", 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        requestExecutor.execute(() -> release.await(5, TimeUnit.SECONDS));
+        requestExecutor.execute(() -> release.await(5, TimeUnit.SECONDS));
+
+        DeferredResult<Boolean> rejected = requestExecutor.execute(() -> true);
+        release.countDown();
+
+        assertTrue(rejected.hasResult());
+        assertFalse(rejected.getResult() instanceof Boolean);
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, ((ResponseStatusException) rejected.getResult()).getStatus());
+    }
+
+    private static RequestExecutor create(String mode, int ioThreads, int queueSize) {
+        RequestExecutor requestExecutor = new RequestExecutor();
+        ReflectionTestUtils.setField(requestExecutor, "stageMetrics", new StageMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(requestExecutor, "mode", mode);
+        ReflectionTestUtils.setField(requestExecutor, "ioThreads", ioThreads);
+        ReflectionTestUtils.setField(requestExecutor, "queueSize", queueSize);
+        ReflectionTestUtils.setField(requestExecutor, "timeoutMs", 10000L);
+        requestExecutor.start();
+        return requestExecutor;
+    }
+}
@@ -0,0 +1,243 @@
+package com.boroda.kubernetes.demo.factory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.boroda.kubernetes.demo.model.ClusterCredentials;
+import com.boroda.kubernetes.demo.ratelimit.ApiRateLimiter;
+import com.boroda.kubernetes.demo.resilience.ClusterGuard;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.fabric8.kubernetes.client.HttpClientAware;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KubernetesClientRegistryTests {
+
+    private KubernetesClientRegistry registry;
+
+    private ClusterGuard clusterGuard;
+
+    @Before
+    public void setUp() {
+        registry = new KubernetesClientRegistry();
+        ReflectionTestUtils.setField(registry, "stageMetrics", new StageMetrics(new SimpleMeterRegistry()));
+        ApiRateLimiter rateLimiter = new ApiRateLimiter();
+        ReflectionTestUtils.setField(rateLimiter, "enabled", true);
+        ReflectionTestUtils.setField(rateLimiter, "stageMetrics", new StageMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(rateLimiter, "qps", 100.0);
+        ReflectionTestUtils.setField(rateLimiter, "burst", 10.0);
+        ReflectionTestUtils.setField(rateLimiter, "maxWaitMs", 5000L);
+        ReflectionTestUtils.setField(rateLimiter, "maxQueue", 10);
+        ReflectionTestUtils.setField(rateLimiter, "maxRetries", 2);
+        ReflectionTestUtils.setField(registry, "rateLimiter", rateLimiter);
+        clusterGuard = new ClusterGuard();
+        ReflectionTestUtils.setField(clusterGuard, "enabled", true);
+        ReflectionTestUtils.setField(clusterGuard, "stageMetrics", new StageMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(registry, "clusterGuard", clusterGuard);
+        ReflectionTestUtils.setField(registry, "idleTimeoutMs", 600000L);
+        ReflectionTestUtils.setField(registry, "evictionIntervalMs", 60000L);
+        ReflectionTestUtils.setField(registry, "tokenExpirySkewMs", 60000L);
+        ReflectionTestUtils.setField(registry, "closeGraceMs", 0L);
+        registry.start();
+    }
+
+    @After
+    public void tearDown() {
+        registry.shutdown();
+    }
+
+    @Test public void reusesClientForSameCredentials() {
+        KubernetesClient first = registry.getClient("demo", credentials("token-a", null));
+        KubernetesClient second = registry.getClient("demo", credentials("token-a", null));
+
+        assertSame(first, second);
+        assertEquals(1, registry.size());
+    }
+
+    @Test public void concurrentCallersGetTheSameClient() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<KubernetesClient>> clients = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                clients.add(callers.submit(() -> registry.getClient("demo", credentials("token-a", null))));
+            }
+            for (Future<KubernetesClient> client : clients) {
+                assertSame(clients.get(0).get(), client.get());
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        assertEquals(1, registry.size());
+    }
+
+    @Test public void rebuildsClientWhenCredentialsChange() {
+        KubernetesClient first = registry.getClient("demo", credentials("token-a", null));
+        KubernetesClient second = registry.getClient("demo", credentials("token-b", null));
+
+        assertNotSame(first, second);
+        assertEquals(1, registry.size());
+    }
+
+    @Test public void keepsClientWhenOnlyTokenRotates() {
+        long expiresAt = System.currentTimeMillis() + 3600000L;
+        KubernetesClient first = registry.getClient("demo", credentials("token-a", expiresAt));
+        KubernetesClient second = registry.getClient("demo", credentials("token-b", expiresAt));
+
+        assertSame(first, second);
+    }
+
+    @Test public void rebuildsClientWhenTokenExpires() {
+        long expiresAt = System.currentTimeMillis() + 1000L;
+        KubernetesClient first = registry.getClient("demo", credentials("token-a", expiresAt));
+        KubernetesClient second = registry.getClient("demo", credentials("token-b", expiresAt));
+
+        assertNotSame(first, second);
+    }
+
+    @Test public void ignoresTokenExpiryWithTokenProvider() {
+        ClusterCredentials credentials = ClusterCredentials.builder()
+            .masterUrl("https://127.0.0.1:6443")
+            .oauthTokenExpiresAt(System.currentTimeMillis())
+            .oauthTokenProvider(() -> "token-a")
+            .build();
+        KubernetesClient first = registry.getClient("demo", credentials);
+        KubernetesClient second = registry.getClient("demo", credentials);
+
+        assertSame(first, second);
+        assertEquals("token-a", first.getConfiguration().getOauthToken());
+    }
+
+    @Test public void exposesHttpClientWithInterceptors() {
+        KubernetesClient client = registry.getClient("demo", credentials("token-a", null));
+
+        OkHttpClient httpClient = ((HttpClientAware) client).getHttpClient();
+
+        // the guard behind the rate limiter, so that a call waiting for a token holds no call slot
+        List<Package> packages = httpClient.interceptors().stream()
+            .map(interceptor -> interceptor.getClass().getPackage())
+            .collect(Collectors.toList());
+        int rateLimiter = packages.indexOf(ApiRateLimiter.class.getPackage());
+        int guard = packages.indexOf(ClusterGuard.class.getPackage());
+        assertTrue(packages.toString(), rateLimiter >= 0 && guard > rateLimiter);
+    }
+
+    @Test public void sendsRequestsOfHttpClientThroughInterceptors() throws IOException {
+        ReflectionTestUtils.setField(clusterGuard, "failureThreshold", 1);
+        // short enough for the rate limiter to retry on it, were the rejection from the API server
+        ReflectionTestUtils.setField(clusterGuard, "openMs", 1000L);
+        ReflectionTestUtils.setField(clusterGuard, "maxConcurrent", 1);
+        String masterUrl = "https://127.0.0.1:" + closedPort();
+        KubernetesClient client = registry.getClient("demo", ClusterCredentials.builder()
+            .masterUrl(masterUrl)
+            .oauthToken("token-a")
+            .build());
+        OkHttpClient httpClient = ((HttpClientAware) client).getHttpClient();
+        Request request = new Request.Builder().url(masterUrl + "/api/v1/namespaces").build();
+
+        try (Response refused = httpClient.newCall(request).execute()) {
+            fail("Expected the connection to be refused, got " + refused.code());
+        } catch (ConnectException expected) {
+            // counted as a failure by the guard, which opens the breaker
+        }
+        long start = System.nanoTime();
+        try (Response rejected = httpClient.newCall(request).execute()) {
+            assertEquals(503, rejected.code());
+            assertNotNull(rejected.header("Retry-After"));
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        assertTrue("rejected in " + elapsedMs + " ms", elapsedMs < 500);
+        assertEquals(1L, clusterGuard.summary().get("k8s/demo@" + masterUrl).get("rejectedOpen"));
+    }
+
+    @Test public void clustersOfTheSameNameHaveSeparateGuards() throws IOException {
+        ReflectionTestUtils.setField(clusterGuard, "failureThreshold", 1);
+        ReflectionTestUtils.setField(clusterGuard, "openMs", 60000L);
+        ReflectionTestUtils.setField(clusterGuard, "maxConcurrent", 1);
+        String broken = "https://127.0.0.1:" + closedPort();
+        String other = "https://127.0.0.2:" + closedPort();
+
+        for (String masterUrl : new String[] {broken, other}) {
+            KubernetesClient client = registry.getClient("demo", ClusterCredentials.builder()
+                .masterUrl(masterUrl)
+                .oauthToken("token-a")
+                .build());
+            Request request = new Request.Builder().url(masterUrl + "/api/v1/namespaces").build();
+            try (Response response = ((HttpClientAware) client).getHttpClient().newCall(request).execute()) {
+                fail("Expected the connection to be refused, got " + response.code());
+            } catch (ConnectException expected) {
+                // the breaker of the other cluster did not reject it
+            }
+        }
+
+        assertEquals("open", clusterGuard.summary().get("k8s/demo@" + broken).get("state"));
+        assertEquals("open", clusterGuard.summary().get("k8s/demo@" + other).get("state"));
+    }
+
+    @Test public void callTimeoutStopsAReadTheServerNeverAnswers() throws IOException {
+        ReflectionTestUtils.setField(clusterGuard, "failureThreshold", 5);
+        ReflectionTestUtils.setField(clusterGuard, "maxConcurrent", 1);
+        try (ServerSocket silent = new ServerSocket(0)) {
+            KubernetesClient client = registry.getClient("demo", ClusterCredentials.builder()
+                .masterUrl("http://127.0.0.1:" + silent.getLocalPort())
+                .oauthToken("token-a")
+                .build());
+
+            long start = System.nanoTime();
+            try {
+                KubernetesClientFactory.withCallTimeout(client, 300).namespaces().list();
+                fail("Expected the call to time out");
+            } catch (KubernetesClientException expected) {
+                // the socket read was abandoned when the call timed out
+            }
+            long elapsedMs = (System.nanoTime() - start) / 1000000;
+            assertTrue("gave up after " + elapsedMs + " ms", elapsedMs >= 300 && elapsedMs < 5000);
+        }
+    }
+
+    @Test public void evictsIdleClients() {
+        ReflectionTestUtils.setField(registry, "idleTimeoutMs", -1L);
+        registry.getClient("demo", credentials("token-a", null));
+
+        registry.evictIdle();
+
+        assertEquals(0, registry.size());
+    }
+
+    private static int closedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static ClusterCredentials credentials(String token, Long expiresAt) {
+        return ClusterCredentials.builder()
+            .masterUrl("https://127.0.0.1:6443")
+            .oauthToken(token)
+            .oauthTokenExpiresAt(expiresAt)
+            .build();
+    }
+}
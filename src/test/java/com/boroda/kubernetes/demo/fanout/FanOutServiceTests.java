@@ -0,0 +1,97 @@
+package com.boroda.kubernetes.demo.fanout;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.boroda.kubernetes.demo.listing.ResourceProjection;
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.boroda.kubernetes.demo.model.ClusterKey;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.api.model.ServiceBuilder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FanOutServiceTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private FanOutService fanOutService;
+
+    @Before
+    public void setUp() {
+        fanOutService = new FanOutService();
+        ReflectionTestUtils.setField(fanOutService, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(fanOutService, "stageMetrics", new StageMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(fanOutService, "threads", 4);
+        ReflectionTestUtils.setField(fanOutService, "queueSize", 4);
+        fanOutService.start();
+    }
+
+    @After
+    public void tearDown() {
+        fanOutService.shutdown();
+    }
+
+    @Test public void reportsEveryClusterWithoutWaitingForSlowOnes() throws Exception {
+        ClusterKey healthy = new ClusterKey("project", "zone", "healthy");
+        ClusterKey broken = new ClusterKey("project", "zone", "broken");
+        ClusterKey hanging = new ClusterKey("project", "zone", "hanging");
+
+        long start = System.currentTimeMillis();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        fanOutService.<Service>stream(Arrays.asList(healthy, broken, hanging), (cluster, timeoutMs) -> {
+            if (cluster.equals(broken)) {
+                throw new IllegalStateException("connection refused");
+            }
+            if (cluster.equals(hanging)) {
+                Thread.sleep(60000);
+            }
+            return Collections.singletonList(new ServiceBuilder().withNewMetadata().withName("web").endMetadata().build());
+        }, ResourceProjection.SERVICES, Collections.singletonList("name"), 500).writeTo(output);
+
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        String[] lines = new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(4, lines.length);
+        Map<String, JsonNode> byCluster = new HashMap<>();
+        for (int i = 0; i < 3; i++) {
+            JsonNode line = objectMapper.readTree(lines[i]);
+            byCluster.put(line.get("cluster").asText(), line);
+        }
+        assertEquals("ok", byCluster.get("healthy").get("status").asText());
+        assertEquals("web", byCluster.get("healthy").get("items").get(0).get("name").asText());
+        assertEquals("error", byCluster.get("broken").get("status").asText());
+        assertEquals("timeout", byCluster.get("hanging").get("status").asText());
+        JsonNode summary = objectMapper.readTree(lines[3]).get("summary");
+        assertEquals(1, summary.get("ok").asInt());
+        assertEquals(1, summary.get("failed").asInt());
+        assertEquals(1, summary.get("timedOut").asInt());
+    }
+
+    @Test public void readsGetTheTimeLeftUntilTheDeadline() throws Exception {
+        List<Long> timeouts = new CopyOnWriteArrayList<>();
+
+        fanOutService.<Service>stream(Collections.singletonList(new ClusterKey("project", "zone", "healthy")),
+            (cluster, timeoutMs) -> {
+                timeouts.add(timeoutMs);
+                return Collections.emptyList();
+            }, ResourceProjection.SERVICES, Collections.emptyList(), 500).writeTo(new ByteArrayOutputStream());
+
+        assertEquals(1, timeouts.size());
+        assertTrue(timeouts.get(0) > 0 && timeouts.get(0) <= 500);
+    }
+}
@@ -0,0 +1,108 @@
+package com.boroda.kubernetes.demo.informer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.api.model.ServiceBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResourceStoreTests {
+
+    @Test public void indexesByNamespaceAndLabel() {
+        ResourceStore<Service> store = new ResourceStore<>();
+        store.replace(Arrays.asList(
+            service("default", "web", "1", "app", "web"),
+            service("default", "db", "2", "app", "db"),
+            service("other", "web", "3", "app", "web")), "3");
+
+        assertEquals(2, store.byNamespace("default").size());
+        assertEquals(2, store.byLabel("app", "web").size());
+        assertEquals("3", store.getResourceVersion());
+    }
+
+    @Test public void selectsByLabelExistence() {
+        ResourceStore<Service> store = new ResourceStore<>();
+        store.replace(Arrays.asList(
+            service("default", "web", "1", "app", "web"),
+            service("default", "db", "2", "app", ""),
+            service("default", "cache", "3", "tier", "cache")), "3");
+
+        assertEquals(2, store.byLabel("app", null).size());
+        assertEquals(1, store.byLabel("app", "").size());
+
+        store.delete(service("default", "web", "4", "app", "web"));
+
+        assertEquals(1, store.byLabel("app", null).size());
+    }
+
+    @Test public void reindexesModifiedObjects() {
+        ResourceStore<Service> store = new ResourceStore<>();
+        store.upsert(service("default", "web", "1", "app", "web"));
+        store.upsert(service("default", "web", "2", "app", "frontend"));
+
+        assertTrue(store.byLabel("app", "web").isEmpty());
+        assertEquals(1, store.byLabel("app", "frontend").size());
+        assertEquals(1, store.size());
+        assertEquals("2", store.getResourceVersion());
+    }
+
+    @Test public void removesDeletedObjectsFromIndexes() {
+        ResourceStore<Service> store = new ResourceStore<>();
+        store.upsert(service("default", "web", "1", "app", "web"));
+        store.delete(service("default", "web", "2", "app", "web"));
+
+        assertNull(store.get("default", "web"));
+        assertTrue(store.byNamespace("default").isEmpty());
+        assertTrue(store.byLabel("app", "web").isEmpty());
+        assertEquals("2", store.getResourceVersion());
+    }
+
+    @Test public void readsDuringRelistSeeWholeListing() throws Exception {
+        ResourceStore<Service> store = new ResourceStore<>();
+        List<Service> services = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            services.add(service("default", "service-" + i, String.valueOf(i), "app", "web"));
+        }
+        store.replace(services, "200");
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger partialReads = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            while (running.get()) {
+                if (store.byNamespace("default").size() != 200 || store.byLabel("app", "web").size() != 200
+                    || store.list().size() != 200) {
+                    partialReads.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 500; i++) {
+            store.replace(services, String.valueOf(200 + i));
+        }
+        running.set(false);
+        reader.join();
+
+        assertEquals(0, partialReads.get());
+    }
+
+    private static Service service(String namespace, String name, String resourceVersion, String label,
+        String value) {
+        return new ServiceBuilder()
+            .withNewMetadata()
+            .withNamespace(namespace)
+            .withName(name)
+            .withResourceVersion(resourceVersion)
+            .addToLabels(label, value)
+            .endMetadata()
+            .build();
+    }
+}
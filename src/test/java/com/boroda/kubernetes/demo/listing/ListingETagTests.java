@@ -0,0 +1,27 @@
+package com.boroda.kubernetes.demo.listing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ListingETagTests {
+
+    @Test public void tagsResourceVersionWeakly() {
+        assertEquals("W/\"42\"", ListingETag.of("42"));
+        assertNull(ListingETag.of(null));
+    }
+
+    @Test public void matchesAnyListedTagWeakly() {
+        String etag = ListingETag.of("42");
+
+        assertTrue(ListingETag.matches("W/\"42\"", etag));
+        assertTrue(ListingETag.matches("\"41\", \"42\"", etag));
+        assertTrue(ListingETag.matches("*", etag));
+        assertFalse(ListingETag.matches("W/\"41\"", etag));
+        assertFalse(ListingETag.matches(null, etag));
+        assertFalse(ListingETag.matches("*", null));
+    }
+}
@@ -0,0 +1,74 @@
+package com.boroda.kubernetes.demo.listing;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.api.model.ServiceBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ListingStreamerTests {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ListingStreamer streamer;
+    private List<Service> services;
+
+    @Before
+    public void setUp() {
+        streamer = new ListingStreamer();
+        ReflectionTestUtils.setField(streamer, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(streamer, "pageSize", 2);
+        services = new ArrayList<>();
+        for (String name : Arrays.asList("e", "d", "c", "b", "a")) {
+            services.add(new ServiceBuilder()
+                .withNewMetadata().withName(name).withNamespace("default").endMetadata()
+                .withNewSpec().withClusterIP("10.0.0.1").endSpec()
+                .build());
+        }
+    }
+
+    @Test public void streamsProjectedFieldsUpToLimit() throws Exception {
+        JsonNode result = objectMapper.readTree(write(PageSource.ofSnapshot(services),
+            Arrays.asList("name", "clusterIP"), 3, null, ListingFormat.JSON));
+
+        assertEquals(3, result.get("items").size());
+        assertEquals("a", result.get("items").get(0).get("name").asText());
+        assertEquals("10.0.0.1", result.get("items").get(0).get("clusterIP").asText());
+        assertFalse(result.get("items").get(0).has("namespace"));
+        assertEquals("snapshot:c", result.get("continue").asText());
+    }
+
+    @Test public void resumesFromContinueToken() throws Exception {
+        String ndjson = write(PageSource.ofSnapshot(services), Collections.singletonList("name"), null,
+            "snapshot:c", ListingFormat.NDJSON);
+
+        assertEquals("{\"name\":\"d\"}\n{\"name\":\"e\"}\n", ndjson);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownFields() {
+        streamer.stream(PageSource.ofSnapshot(services), ResourceProjection.SERVICES,
+            Collections.singletonList("spec"), null, null, ListingFormat.JSON);
+    }
+
+    private String write(PageSource<Service> source, List<String> fields, Integer limit, String continueToken,
+        ListingFormat format) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        streamer.stream(source, ResourceProjection.SERVICES, fields, limit, continueToken, format)
+            .writeTo(output);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,73 @@
+package com.boroda.kubernetes.demo.manifest;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.api.model.ReplicationController;
+import io.fabric8.kubernetes.api.model.ResourceQuota;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ManifestTemplatesTests {
+
+    private ManifestTemplates templates;
+
+    @Before
+    public void setUp() throws Exception {
+        templates = new ManifestTemplates();
+        ReflectionTestUtils.setField(templates, "location", "classpath*:manifests/*.yaml");
+        templates.load();
+    }
+
+    @Test public void substitutesParametersAndDefaults() {
+        ManifestTemplate template = templates.get("replication-controller");
+
+        ReplicationController rc = template.instantiate(ReplicationController.class,
+            "name", "web", "labels", Collections.singletonMap("app", "web"),
+            "podLabels", Collections.singletonMap("app", "web"), "container", "nginx", "image", "nginx:1.15");
+
+        assertFalse(template.isStatic());
+        assertEquals("web", rc.getMetadata().getName());
+        assertEquals("web", rc.getMetadata().getLabels().get("app"));
+        assertEquals("web", rc.getSpec().getTemplate().getMetadata().getLabels().get("app"));
+        assertEquals(Integer.valueOf(1), rc.getSpec().getReplicas());
+        Container container = rc.getSpec().getTemplate().getSpec().getContainers().get(0);
+        assertEquals("nginx:1.15", container.getImage());
+        assertEquals(Integer.valueOf(80), container.getPorts().get(0).getContainerPort());
+    }
+
+    @Test public void instancesDoNotShareState() {
+        ManifestTemplate template = templates.get("pod-quota");
+
+        ResourceQuota first = template.instantiate(ResourceQuota.class);
+        first.getMetadata().setName("changed");
+        ResourceQuota second = template.instantiate(ResourceQuota.class);
+
+        assertTrue(template.isStatic());
+        assertNotSame(first, second);
+        assertEquals("pod-quota", second.getMetadata().getName());
+        assertEquals("10", second.getSpec().getHard().get("pods").getAmount());
+    }
+
+    @Test public void failsOnMissingParameter() throws Exception {
+        ManifestTemplate template = ManifestTemplate.parse("test",
+            new ByteArrayInputStream("metadata:\n  name: ${name}\n".getBytes(StandardCharsets.UTF_8)));
+        try {
+            template.instantiate(Namespace.class);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("name"));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.boroda.kubernetes.demo.metrics;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StageMetricsTests {
+
+    private MeterRegistry meterRegistry;
+    private StageMetrics stageMetrics;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        stageMetrics = new StageMetrics(meterRegistry);
+    }
+
+    @After
+    public void tearDown() {
+        RequestTrace.detach();
+    }
+
+    @Test
+    public void callsAreTimedByOperationClusterAndOutcome() {
+        assertEquals("ok", stageMetrics.record("gke.clusters.get", "cbs-cluster", () -> "ok"));
+        try {
+            stageMetrics.record("gke.clusters.get", "cbs-cluster", () -> {
+                throw new IOException("boom");
+            });
+            fail();
+        } catch (IOException expected) {
+        }
+
+        assertEquals(1, meterRegistry.get("outbound.calls")
+            .tags("operation", "gke.clusters.get", "cluster", "cbs-cluster", "outcome", "success").timer().count());
+        assertEquals(1, meterRegistry.get("outbound.calls").tag("outcome", "error").timer().count());
+        assertEquals(1, meterRegistry.get("outbound.errors").tag("exception", "IOException").counter().count(), 0);
+    }
+
+    @Test
+    public void spansAreAddedToTheTraceOfTheRequestAcrossThreads() throws Exception {
+        RequestTrace trace = RequestTrace.begin("GET", "/cluster/get-services");
+        stageMetrics.record("gcp.token.refresh", StageMetrics.NO_CLUSTER, () -> null);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(RequestTrace.propagate(() ->
+                stageMetrics.record("k8s.services.list", "cbs-cluster", () -> null))).get();
+            executor.submit(() -> assertNull(RequestTrace.current())).get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<RequestTrace.Span> spans = trace.getSpans();
+        assertEquals(2, spans.size());
+        assertEquals("k8s.services.list", spans.get(1).getOperation());
+        assertEquals("cbs-cluster", spans.get(1).getCluster());
+        String header = trace.toServerTiming();
+        assertTrue(header, header.startsWith("gcp.token.refresh;dur="));
+        assertTrue(header, header.contains("k8s.services.list;dur="));
+        assertTrue(header, header.contains("total;dur="));
+    }
+}
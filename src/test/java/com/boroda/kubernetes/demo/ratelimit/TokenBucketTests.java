@@ -0,0 +1,87 @@
+package com.boroda.kubernetes.demo.ratelimit;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TokenBucketTests {
+
+    @Test public void servesTheBurstWithoutWaiting() throws Exception {
+        TokenBucket bucket = new TokenBucket(1, 3, 0, 10);
+
+        for (int i = 0; i < 3; i++) {
+            bucket.acquire(Priority.INTERACTIVE);
+        }
+        try {
+            bucket.acquire(Priority.INTERACTIVE);
+            fail();
+        } catch (RateLimitedException e) {
+            assertEquals("saturated", e.getReason());
+        }
+    }
+
+    @Test public void higherLaneTakesTheNextToken() throws Exception {
+        TokenBucket bucket = new TokenBucket(5, 1, 5000, 10);
+        bucket.acquire(Priority.DEFAULT);
+        List<Priority> served = new CopyOnWriteArrayList<>();
+
+        Thread bulk = acquireLater(bucket, Priority.BULK, served);
+        awaitQueued(bucket, 1);
+        Thread interactive = acquireLater(bucket, Priority.INTERACTIVE, served);
+        bulk.join();
+        interactive.join();
+
+        assertEquals(Priority.INTERACTIVE, served.get(0));
+        assertEquals(Priority.BULK, served.get(1));
+    }
+
+    @Test public void failsFastWhenTheWaitWouldBeTooLong() throws Exception {
+        TokenBucket bucket = new TokenBucket(1, 1, 100, 10);
+        bucket.acquire(Priority.INTERACTIVE);
+
+        long start = System.nanoTime();
+        try {
+            bucket.acquire(Priority.INTERACTIVE);
+            fail();
+        } catch (RateLimitedException e) {
+            assertEquals("saturated", e.getReason());
+            assertTrue(e.getRetryAfterMs() > 100);
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test public void pauseHoldsBackAllLanes() throws Exception {
+        TokenBucket bucket = new TokenBucket(1000, 10, 5000, 10);
+        bucket.pause(200);
+
+        long waited = bucket.acquire(Priority.INTERACTIVE);
+
+        assertTrue(waited >= TimeUnit.MILLISECONDS.toNanos(150));
+    }
+
+    private static Thread acquireLater(TokenBucket bucket, Priority priority, List<Priority> served) {
+        Thread thread = new Thread(() -> {
+            try {
+                bucket.acquire(priority);
+                served.add(priority);
+            } catch (RateLimitedException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitQueued(TokenBucket bucket, int queued) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bucket.queued() < queued && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+}
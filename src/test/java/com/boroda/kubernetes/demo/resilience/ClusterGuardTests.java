@@ -0,0 +1,162 @@
+package com.boroda.kubernetes.demo.resilience;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ClusterGuardTests {
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile int status = 500;
+    private ClusterGuard clusterGuard;
+
+    @Before
+    public void setUp() {
+        clusterGuard = new ClusterGuard();
+        ReflectionTestUtils.setField(clusterGuard, "stageMetrics", new StageMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(clusterGuard, "enabled", true);
+        ReflectionTestUtils.setField(clusterGuard, "failureThreshold", 3);
+        ReflectionTestUtils.setField(clusterGuard, "openMs", 200L);
+        ReflectionTestUtils.setField(clusterGuard, "halfOpenCalls", 1);
+        ReflectionTestUtils.setField(clusterGuard, "maxConcurrent", 2);
+        ReflectionTestUtils.setField(clusterGuard, "maxWaitMs", 0L);
+    }
+
+    @Test public void breakerOpensAfterConsecutiveFailuresAndFailsFast() throws IOException {
+        OkHttpClient httpClient = httpClient("web");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(500, call(httpClient).code());
+        }
+
+        long start = System.nanoTime();
+        Response rejected = call(httpClient);
+        long elapsedMicros = (System.nanoTime() - start) / 1000;
+
+        assertEquals(503, rejected.code());
+        assertEquals("1", rejected.header("Retry-After"));
+        assertEquals(3, calls.get());
+        assertTrue("rejected in " + elapsedMicros + " us", elapsedMicros < 50000);
+        assertEquals("open", clusterGuard.summary().get("k8s/web").get("state"));
+        assertEquals(1L, clusterGuard.summary().get("k8s/web").get("rejectedOpen"));
+    }
+
+    @Test public void halfOpenProbeClosesTheBreaker() throws Exception {
+        OkHttpClient httpClient = httpClient("web");
+        for (int i = 0; i < 3; i++) {
+            call(httpClient);
+        }
+        Thread.sleep(250);
+
+        // a failed probe opens it again
+        assertEquals(500, call(httpClient).code());
+        assertEquals(503, call(httpClient).code());
+        Thread.sleep(250);
+
+        status = 200;
+        assertEquals(200, call(httpClient).code());
+        assertEquals(200, call(httpClient).code());
+        assertEquals(6, calls.get());
+        assertEquals("closed", clusterGuard.summary().get("k8s/web").get("state"));
+    }
+
+    @Test public void aCallAdmittedBeforeTheBreakerOpenedDoesNotCloseIt() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50, 1);
+        long slow = breaker.tryAcquire();
+        breaker.onFailure(breaker.tryAcquire());
+        Thread.sleep(60);
+        long probe = breaker.tryAcquire();
+
+        breaker.onSuccess(slow);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        breaker.onSuccess(probe);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test public void clientErrorsDoNotCountAsFailures() throws IOException {
+        OkHttpClient httpClient = httpClient("web");
+        status = 404;
+        for (int i = 0; i < 5; i++) {
+            assertEquals(404, call(httpClient).code());
+        }
+        assertEquals("closed", clusterGuard.summary().get("k8s/web").get("state"));
+    }
+
+    @Test public void clustersHaveSeparateBreakers() throws IOException {
+        OkHttpClient broken = httpClient("broken");
+        for (int i = 0; i < 3; i++) {
+            call(broken);
+        }
+        status = 200;
+
+        assertEquals(503, call(broken).code());
+        assertEquals(200, call(httpClient("healthy")).code());
+    }
+
+    @Test public void gkeCallsAreRejectedWhileTheBreakerIsOpen() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            try {
+                clusterGuard.gke("web", () -> {
+                    calls.incrementAndGet();
+                    throw new IOException("connect timed out");
+                });
+                fail();
+            } catch (CallRejectedException e) {
+                fail();
+            } catch (IOException e) {
+                assertEquals("connect timed out", e.getMessage());
+            }
+        }
+        try {
+            clusterGuard.gke("web", calls::incrementAndGet);
+            fail();
+        } catch (CallRejectedException e) {
+            assertTrue(e.getRetryAfterMs() > 0);
+        }
+        assertEquals(3, calls.get());
+        assertFalse(clusterGuard.summary().containsKey("k8s/web"));
+    }
+
+    private OkHttpClient httpClient(String cluster) {
+        OkHttpClient.Builder builder = new OkHttpClient.Builder();
+        for (Interceptor interceptor : clusterGuard.interceptors(cluster)) {
+            builder.addInterceptor(interceptor);
+        }
+        return builder.addInterceptor(chain -> {
+            calls.incrementAndGet();
+            return new Response.Builder()
+                .request(chain.request())
+                .protocol(Protocol.HTTP_1_1)
+                .code(status)
+                .message("Status " + status)
+                .body(ResponseBody.create(MediaType.parse("application/json"), "{}"))
+                .build();
+        }).build();
+    }
+
+    private static Response call(OkHttpClient httpClient) throws IOException {
+        try (Response response = httpClient.newCall(new Request.Builder().url("https://cluster/api/v1/namespaces")
+            .build()).execute()) {
+            return response;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.boroda.kubernetes.demo.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.boroda.kubernetes.demo.metrics.StageMetrics;
+import com.boroda.kubernetes.demo.model.ClusterKey;
+import com.boroda.kubernetes.demo.model.ClusterMetadata;
+import com.boroda.kubernetes.demo.resilience.ClusterGuard;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.container.Container;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ClusterMetadataCacheTests {
+
+    private static final ClusterKey KEY = new ClusterKey("project", "zone", "demo");
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicLong nanos = new AtomicLong();
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private ClusterMetadataCache cache;
+
+    @Before
+    public void setUp() {
+        Container container = new Container.Builder(new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() throws IOException {
+                        int call = calls.incrementAndGet();
+                        try {
+                            release.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return new MockLowLevelHttpResponse().setContentType("application/json").setContent(
+                            "{\"name\":\"demo\",\"endpoint\":\"10.0.0." + call + "\",\"masterAuth\":{}}");
+                    }
+                };
+            }
+        }, JacksonFactory.getDefaultInstance(), null).build();
+        GoogleCloudService googleCloudService = new GoogleCloudService();
+        ReflectionTestUtils.setField(googleCloudService, "container", container);
+
+        cache = new ClusterMetadataCache();
+        ReflectionTestUtils.setField(cache, "googleCloudService", googleCloudService);
+        ReflectionTestUtils.setField(cache, "stageMetrics", new StageMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(cache, "clusterGuard", new ClusterGuard());
+        ReflectionTestUtils.setField(cache, "ttlMs", 600000L);
+        ReflectionTestUtils.setField(cache, "refreshMs", 300000L);
+        ReflectionTestUtils.setField(cache, "maxSize", 100L);
+        ReflectionTestUtils.setField(cache, "ticker", (Ticker) nanos::get);
+        cache.init();
+    }
+
+    @After
+    public void tearDown() {
+        cache.shutdown();
+    }
+
+    @Test public void concurrentMissesShareOneLookup() throws Exception {
+        release = new CountDownLatch(1);
+        ExecutorService readers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<ClusterMetadata>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(readers.submit(() -> cache.get(KEY)));
+            }
+            Thread.sleep(200);
+            release.countDown();
+
+            ClusterMetadata first = results.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<ClusterMetadata> result : results) {
+                assertSame(first, result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, calls.get());
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    @Test public void countsHitsAndMisses() throws Exception {
+        cache.get(KEY);
+        cache.get(KEY);
+        cache.get(KEY);
+
+        assertEquals(1, calls.get());
+        assertEquals(1L, cache.statsSummary().get("misses"));
+        assertEquals(2L, cache.statsSummary().get("hits"));
+    }
+
+    @Test public void reloadsAfterTtl() throws Exception {
+        assertEquals("10.0.0.1", cache.get(KEY).getEndpoint());
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(600001));
+
+        assertEquals("10.0.0.2", cache.get(KEY).getEndpoint());
+        assertEquals(2, calls.get());
+    }
+
+    @Test public void refreshesInBackgroundAfterRefreshInterval() throws Exception {
+        assertEquals("10.0.0.1", cache.get(KEY).getEndpoint());
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(300001));
+
+        // the stale entry is served while the reload runs
+        assertEquals("10.0.0.1", cache.get(KEY).getEndpoint());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"10.0.0.2".equals(cache.get(KEY).getEndpoint()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("10.0.0.2", cache.get(KEY).getEndpoint());
+        assertEquals(2, calls.get());
+    }
+}
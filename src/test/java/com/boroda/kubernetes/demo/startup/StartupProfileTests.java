@@ -0,0 +1,40 @@
+package com.boroda.kubernetes.demo.startup;
+
+import com.boroda.kubernetes.demo.controller.KubeClusterController;
+import com.boroda.kubernetes.demo.service.ClusterMetadataCache;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(SpringRunner.class) @SpringBootTest @ActiveProfiles("startup")
+public class StartupProfileTests {
+
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    @Test public void beansAreCreatedOnFirstUse() {
+        assertFalse(context.getBeanFactory().containsSingleton("clusterMetadataCache"));
+
+        assertNotNull(context.getBean(ClusterMetadataCache.class));
+
+        assertTrue(context.getBeanFactory().containsSingleton("clusterMetadataCache"));
+    }
+
+    @Test public void controllerDoesNotCreateClientsUpFront() {
+        assertNotNull(context.getBean(KubeClusterController.class));
+
+        assertFalse(context.getBeanFactory().containsSingleton("clusterClientService"));
+        assertFalse(context.getBeanFactory().containsSingleton("kubernetesClientRegistry"));
+        assertFalse(context.getBeanFactory().containsSingleton("informerRegistry"));
+        assertFalse(context.getBeanFactory().containsSingleton("provisioningService"));
+    }
+}
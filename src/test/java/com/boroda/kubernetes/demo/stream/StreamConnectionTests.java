@@ -0,0 +1,138 @@
+package com.boroda.kubernetes.demo.stream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+import org.junit.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import io.fabric8.kubernetes.api.model.Event;
+import io.fabric8.kubernetes.api.model.EventBuilder;
+import io.fabric8.kubernetes.client.Watcher.Action;
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class StreamConnectionTests {
+
+    private final Queue<Runnable> senders = new ArrayDeque<>();
+    private final List<String> sent = new ArrayList<>();
+    private final List<String> closed = new ArrayList<>();
+    private final List<String> dropped = new ArrayList<>();
+
+    private final StreamListener listener = new StreamListener() {
+        @Override
+        public void closed(StreamConnection connection) {
+            closed.add(connection.getName());
+        }
+
+        @Override
+        public void dropped(StreamConnection connection, String reason) {
+            dropped.add(reason);
+        }
+    };
+
+    private final SseEmitter emitter = new SseEmitter() {
+        @Override
+        public void send(SseEventBuilder builder) {
+            String event = builder.build().iterator().next().getData().toString();
+            sent.add(event.substring(event.indexOf("id:") + 3, event.indexOf('\n')));
+        }
+    };
+
+    @Test public void startsWithTheLatestListedEvents() {
+        EventStream stream = new EventStream("events", emitter, 2, senders::add, listener);
+
+        stream.onList(Arrays.asList(event("3", "2019-06-03T00:00:00Z"), event("1", "2019-06-01T00:00:00Z"),
+            event("2", "2019-06-02T00:00:00Z")), "3");
+        stream.onEvent(Action.DELETED, event("1", "2019-06-01T00:00:00Z"));
+        send();
+        stream.onEvent(Action.MODIFIED, event("4", "2019-06-04T00:00:00Z"));
+        send();
+
+        assertEquals(Arrays.asList("2", "3", "4"), sent);
+        assertTrue(dropped.isEmpty());
+    }
+
+    @Test public void dropsAClientThatLetsTheBufferFillUp() {
+        EventStream stream = new EventStream("events", emitter, 2, senders::add, listener);
+
+        stream.onEvent(Action.ADDED, event("1", "2019-06-01T00:00:00Z"));
+        stream.onEvent(Action.ADDED, event("2", "2019-06-02T00:00:00Z"));
+        stream.onEvent(Action.ADDED, event("3", "2019-06-03T00:00:00Z"));
+        stream.onEvent(Action.ADDED, event("4", "2019-06-04T00:00:00Z"));
+        send();
+
+        assertEquals(Arrays.asList("buffer_full"), dropped);
+        assertEquals(Arrays.asList("events"), closed);
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test public void copiesTheLogThroughAFixedBuffer() throws IOException {
+        byte[] log = new byte[10000];
+        Arrays.fill(log, (byte) 'x');
+        Call call = mock(Call.class);
+        LogStream stream = new LogStream("log", 1024, listener);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        stream.copy(call, response(log), out);
+
+        assertArrayEquals(log, out.toByteArray());
+        assertEquals(Arrays.asList("log"), closed);
+        assertEquals(0, stream.writeBlockedMs(System.nanoTime()));
+
+        stream.drop("write_timeout");
+        verify(call).cancel();
+        assertEquals(Arrays.asList("write_timeout"), dropped);
+    }
+
+    @Test public void cancelsTheLogOfAStreamDroppedWhileItWasOpened() throws IOException {
+        Call call = mock(Call.class);
+        LogStream stream = new LogStream("log", 1024, listener);
+
+        stream.drop("shutdown");
+        stream.copy(call, response(new byte[0]), new ByteArrayOutputStream());
+
+        verify(call).cancel();
+        assertEquals(Arrays.asList("shutdown"), dropped);
+        assertEquals(Arrays.asList("log"), closed);
+    }
+
+    private void send() {
+        while (!senders.isEmpty()) {
+            senders.poll().run();
+        }
+    }
+
+    private static Event event(String resourceVersion, String lastTimestamp) {
+        return new EventBuilder()
+            .withNewMetadata().withName("event-" + resourceVersion).withResourceVersion(resourceVersion).endMetadata()
+            .withLastTimestamp(lastTimestamp)
+            .build();
+    }
+
+    private static Response response(byte[] body) {
+        return new Response.Builder()
+            .request(new Request.Builder().url("https://cluster/api/v1/namespaces/default/pods/web/log").build())
+            .protocol(Protocol.HTTP_1_1)
+            .code(200)
+            .message("OK")
+            .body(ResponseBody.create(MediaType.get("text/plain; charset=" + StandardCharsets.UTF_8.name()), body))
+            .build();
+    }
+}
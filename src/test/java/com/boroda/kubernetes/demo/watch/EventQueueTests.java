@@ -0,0 +1,139 @@
+package com.boroda.kubernetes.demo.watch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.api.model.ServiceBuilder;
+import io.fabric8.kubernetes.client.Watcher.Action;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventQueueTests {
+
+    private final List<String> handled = new ArrayList<>();
+    private final Queue<Runnable> dispatcher = new ArrayDeque<>();
+    private final AtomicInteger relists = new AtomicInteger();
+    private MeterRegistry meterRegistry;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test public void coalescesQueuedChangesOfTheSameObject() {
+        EventQueue<Service> queue = queue(10, OverflowPolicy.BLOCK);
+
+        queue.offer(Action.ADDED, service("web", "1"));
+        queue.offer(Action.MODIFIED, service("web", "2"));
+        queue.offer(Action.MODIFIED, service("db", "3"));
+        queue.offer(Action.MODIFIED, service("db", "4"));
+        queue.offer(Action.DELETED, service("web", "5"));
+        queue.offer(Action.MODIFIED, service("web", "6"));
+        dispatch();
+
+        assertEquals(Arrays.asList("ADDED web 2", "MODIFIED db 4", "DELETED web 5", "MODIFIED web 6"), handled);
+        assertEquals(2, counter("k8s.watch.coalesced").count(), 0);
+    }
+
+    @Test public void listDiscardsQueuedEvents() {
+        EventQueue<Service> queue = queue(10, OverflowPolicy.BLOCK);
+
+        queue.offer(Action.ADDED, service("web", "1"));
+        queue.offerList(Collections.singletonList(service("db", "2")), "2");
+        queue.offer(Action.MODIFIED, service("db", "3"));
+        dispatch();
+
+        assertEquals(Arrays.asList("LIST 1 at 2", "MODIFIED db 3"), handled);
+    }
+
+    @Test public void dropsOldestOrNewestEventWhenFull() {
+        EventQueue<Service> oldest = queue(2, OverflowPolicy.DROP_OLDEST);
+        oldest.offer(Action.ADDED, service("a", "1"));
+        oldest.offer(Action.ADDED, service("b", "2"));
+        assertTrue(oldest.offer(Action.ADDED, service("c", "3")));
+        dispatch();
+        assertEquals(Arrays.asList("ADDED b 2", "ADDED c 3"), handled);
+
+        handled.clear();
+        EventQueue<Service> newest = queue(2, OverflowPolicy.DROP_NEWEST);
+        newest.offer(Action.ADDED, service("a", "1"));
+        newest.offer(Action.ADDED, service("b", "2"));
+        assertFalse(newest.offer(Action.ADDED, service("c", "3")));
+        dispatch();
+        assertEquals(Arrays.asList("ADDED a 1", "ADDED b 2"), handled);
+
+        assertEquals(2, counter("k8s.watch.dropped").count(), 0);
+        assertEquals(0, relists.get());
+    }
+
+    @Test public void relistsWhenFull() {
+        EventQueue<Service> queue = queue(2, OverflowPolicy.RELIST);
+        queue.offer(Action.ADDED, service("a", "1"));
+        queue.offer(Action.ADDED, service("b", "2"));
+        assertFalse(queue.offer(Action.ADDED, service("c", "3")));
+
+        assertEquals(1, relists.get());
+        assertEquals(0, queue.size());
+        assertEquals(3, counter("k8s.watch.dropped").count(), 0);
+    }
+
+    @Test public void blockedOfferRelistsAfterTimeout() {
+        EventQueue<Service> queue = queue(1, OverflowPolicy.BLOCK);
+        queue.offer(Action.ADDED, service("a", "1"));
+
+        assertFalse(queue.offer(Action.ADDED, service("b", "2")));
+        assertEquals(1, relists.get());
+    }
+
+    private EventQueue<Service> queue(int capacity, OverflowPolicy policy) {
+        WatchHandler<Service> handler = new WatchHandler<Service>() {
+            @Override
+            public void onList(List<Service> items, String resourceVersion) {
+                handled.add("LIST " + items.size() + " at " + resourceVersion);
+            }
+
+            @Override
+            public void onEvent(Action action, Service resource) {
+                handled.add(action + " " + resource.getMetadata().getName() + " "
+                    + resource.getMetadata().getResourceVersion());
+            }
+        };
+        return new EventQueue<>("test/services", handler, dispatcher::add, capacity, policy, 50,
+            relists::incrementAndGet, counter("k8s.watch.dropped"), counter("k8s.watch.coalesced"),
+            meterRegistry.timer("k8s.watch.lag"));
+    }
+
+    private void dispatch() {
+        Runnable task;
+        while ((task = dispatcher.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private Counter counter(String name) {
+        return meterRegistry.counter(name);
+    }
+
+    private static Service service(String name, String resourceVersion) {
+        return new ServiceBuilder().withNewMetadata()
+            .withName(name)
+            .withNamespace("default")
+            .withResourceVersion(resourceVersion)
+            .endMetadata()
+            .build();
+    }
+}